@@ -7,6 +7,7 @@ package com.lloseng.ocsf.client;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import com.lloseng.ocsf.common.*;
 
 /**
 * The <code> AbstractClient </code> contains all the
@@ -47,6 +48,27 @@ import java.util.*;
 * <li> The call to <code>connectionClosed</code> has been moved from
 * <code>closeConnection</code> to <code>run</code> method to garantee
 * that connection is really closed when this callback is called.
+* </ul>
+* The modifications made to this class in version 2.4 are:
+* <ul>
+* <li> Method <code>setCodec()</code> has been added. With a codec,
+* messages are exchanged as length-prefixed frames encoded by this
+* codec instead of using object streams. Method <code>setFramed()</code>
+* selects frames containing serialized objects, which is what
+* a server using reactor threads expects by default.
+* <li> The output to the server is buffered and flushed according
+* to the policy given to <code>setFlushPolicy()</code>. Methods
+* <code>flush()</code> and <code>setTcpNoDelay()</code> have been added.
+* <code>sendToServer()</code> can now be called by several threads at once.
+* <li> The object stream is reset according to the policy given to
+* <code>setResetPolicy()</code>, every megabyte by default, so that it
+* does not keep every object sent alive.
+* <li> The client can reconnect by itself when the connection is lost,
+* according to the policy given to <code>setReconnectPolicy()</code>.
+* The messages sent while it reconnects can be kept and sent once it
+* has reconnected, see <code>setResendBufferCapacity()</code>. Hook
+* methods <code>reconnecting()</code>, <code>reconnected()</code> and
+* <code>reconnectFailed()</code> have been added.
 * </ul><p>
 *
 * Project Name: OCSF (Object Client-Server Framework)<p>
@@ -72,13 +94,89 @@ public abstract class AbstractClient implements Runnable
   /**
   * The stream to handle data going to the server.
   */
-  private ObjectOutputStream output;
+  private ResettingObjectOutputStream output;
 
   /**
   * The stream to handle data from the server.
   */
   private ObjectInputStream input;
 
+  /**
+  * The stream to send frames to the server in framed mode.
+  */
+  private DataOutputStream frameOutput;
+
+  /**
+  * The stream to receive frames from the server in framed mode.
+  */
+  private DataInputStream frameInput;
+
+  /**
+  * The codec used for the next connection, or null to use object
+  * streams. Set to null by default. Added in version 2.4
+  */
+  private MessageCodec codec = null;
+
+  /**
+  * The codec of the current connection.
+  */
+  private MessageCodec connectionCodec = null;
+
+  /**
+  * The policy deciding when the buffered output is sent.
+  * Set to <code>FlushPolicy.immediate()</code> by default. Added in version 2.4
+  */
+  private FlushPolicy flushPolicy = FlushPolicy.immediate();
+
+  /**
+  * The policy deciding when the object stream is reset.
+  * Set to <code>ResetPolicy.getDefault()</code> by default. Added in version 2.4
+  */
+  private ResetPolicy resetPolicy = ResetPolicy.getDefault();
+
+  /**
+  * Indicates if the Nagle algorithm is disabled on the socket.
+  * Added in version 2.4
+  */
+  private boolean tcpNoDelay = false;
+
+  /**
+  * The policy deciding whether the client reconnects when the connection
+  * is lost. Set to <code>ReconnectPolicy.never()</code> by default.
+  * Added in version 2.4
+  */
+  private ReconnectPolicy reconnectPolicy = ReconnectPolicy.never();
+
+  /**
+  * The maximum number of messages kept while reconnecting. Set to 0
+  * by default, meaning that sending fails while reconnecting.
+  * Added in version 2.4
+  */
+  private int resendBufferCapacity = 0;
+
+  /**
+  * The messages sent while reconnecting, to be sent once reconnected.
+  * Also the lock guarding the state of the reconnection.
+  */
+  private final LinkedList resendBuffer = new LinkedList();
+
+  /**
+  * Indicates if the client is reconnecting: set when the connection is
+  * lost, and cleared when the buffered messages have been sent, when
+  * the client gives up or when the connection is closed.
+  */
+  private volatile boolean reconnecting = false;
+
+  /**
+  * The thread reconnecting, whose messages are not buffered.
+  */
+  private Thread reconnectThread;
+
+  /**
+  * The buffer under the output stream of the current connection.
+  */
+  private FlushingOutputStream outputBuffer;
+
   /**
   * The thread created to read data from the server.
   */
@@ -134,8 +232,24 @@ public abstract class AbstractClient implements Runnable
     try
     {
       clientSocket= new Socket(host, port);
-      output = new ObjectOutputStream(clientSocket.getOutputStream());
-      input = new ObjectInputStream(clientSocket.getInputStream());
+      clientSocket.setTcpNoDelay(tcpNoDelay);  // added in version 2.4
+
+      connectionCodec = codec;
+      outputBuffer = new FlushingOutputStream(clientSocket.getOutputStream(),
+        flushPolicy);  // added in version 2.4
+
+      if (connectionCodec != null)  // added in version 2.4
+      {
+        frameOutput = new DataOutputStream(outputBuffer);
+        frameInput = new DataInputStream(
+          new BufferedInputStream(clientSocket.getInputStream()));
+      }
+      else
+      {
+        output = new ResettingObjectOutputStream(outputBuffer, resetPolicy);
+        output.flush();  // the server waits for the stream header
+        input = new ObjectInputStream(clientSocket.getInputStream());
+      }
     }
     catch (IOException ex)
     // All three of the above must be closed when there is a failure
@@ -162,21 +276,81 @@ public abstract class AbstractClient implements Runnable
    * the general function of sending to server, by calling the
    * <code>super.sendToServer()</code> method
    * perhaps after some kind of filtering is done.
+   * While the client reconnects, the message is kept in the resend
+   * buffer, if there is one.
    *
    * @param msg   The message to be sent.
-   * @exception IOException if an I/O error occurs when sending
+   * @exception IOException if an I/O error occurs when sending, or if
+   *   the resend buffer is full.
    */
   public void sendToServer(Object msg) throws IOException
   {
-    if (clientSocket == null || output == null) {
+    if (reconnecting && keepForResend(msg))  // added in version 2.4
+      return;
+
+    write(msg);
+  }
+
+  /**
+   * Writes a message on the current connection.
+   *
+   * @param msg   The message to be sent.
+   * @exception IOException if an I/O error occurs when sending
+   */
+  private void write(Object msg) throws IOException
+  {
+    ResettingObjectOutputStream out = output;
+    DataOutputStream frames = frameOutput;
+    FlushingOutputStream buffer = outputBuffer;
+
+    if (clientSocket == null || buffer == null
+      || (out == null && frames == null)) {
       throw new SocketException("socket does not exist");
     }
 
-    output.writeObject(msg);
+    buffer.beginMessage();  // added in version 2.4
+    try
+    {
+      if (frames != null)  // added in version 2.4
+      {
+        synchronized (frames)
+        {
+          ObjectFrames.write(frames, msg, connectionCodec);
+        }
+      }
+      else
+      {
+        synchronized (out)
+        {
+          out.writeMessage(msg);
+        }
+      }
+    }
+    finally
+    {
+      buffer.endMessage(false);
+    }
   }
 
   /**
-   * Closes the connection to the server.
+   * Sends the messages written but still held in the output buffer.
+   * Only useful when the flush policy is not
+   * <code>FlushPolicy.immediate()</code>, for example before closing
+   * the connection, since the bytes not flushed when the connection
+   * is closed are discarded. Added in version 2.4
+   *
+   * @exception IOException if an I/O error occurs when sending.
+   */
+  public void flush() throws IOException
+  {
+    FlushingOutputStream buffer = outputBuffer;
+    if (buffer != null)
+      buffer.flush();
+  }
+
+  /**
+   * Closes the connection to the server. If the client is reconnecting,
+   * it stops, and the messages in the resend buffer are discarded.
    *
    * @exception IOException if an I/O error occurs when closing.
    */
@@ -184,6 +358,7 @@ public abstract class AbstractClient implements Runnable
   {
 
       readyToStop= true; 
+      stopReconnecting();  // added in version 2.4
       closeAll();
   }
 
@@ -197,6 +372,18 @@ public abstract class AbstractClient implements Runnable
     return clientReader!=null && clientReader.isAlive();
   }
 
+  /**
+   * Returns true if the connection has been lost and the client is
+   * reconnecting, or sending the messages kept meanwhile.
+   * Added in version 2.4
+   *
+   * @return true if the client is reconnecting.
+   */
+  final public boolean isReconnecting()
+  {
+    return reconnecting;
+  }
+
   /**
    * @return the port number.
    */
@@ -217,6 +404,212 @@ public abstract class AbstractClient implements Runnable
     this.port = port;
   }
 
+  /**
+   * Sets the codec used to exchange messages with the server.
+   * With a codec, each message is sent as a length-prefixed frame
+   * whose body is produced by the codec, instead of being written on
+   * an <code>ObjectOutputStream</code>. The server must use the same
+   * codec. The change only takes effect at the time of the next call
+   * to openConnection(). Added in version 2.4
+   *
+   * @param codec the codec, or null to use object streams.
+   * @see com.lloseng.ocsf.common.MessageCodec
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    this.codec = codec;
+  }
+
+  /**
+   * @return the codec used for the next connection, or null.
+   */
+  final public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Sets whether messages are exchanged as length-prefixed frames
+   * containing serialized objects. This mode must be used to connect
+   * to a server that uses reactor threads without a codec. The change
+   * only takes effect at the time of the next call to openConnection().
+   * Added in version 2.4
+   *
+   * @param framed true to exchange frames.
+   * @see com.lloseng.ocsf.common.SerializedCodec
+   */
+  final public void setFramed(boolean framed)
+  {
+    setCodec(framed ? new SerializedCodec() : null);
+  }
+
+  /**
+   * @return true if messages are exchanged as length-prefixed frames.
+   */
+  final public boolean isFramed()
+  {
+    return codec != null;
+  }
+
+  /**
+   * Sets the policy deciding when the messages written to the server
+   * are actually sent. With the default, <code>FlushPolicy.immediate()</code>,
+   * each message is sent as soon as it is written; the other policies
+   * gather several messages in one write, at the cost of some latency.
+   * The change only takes effect at the time of the next call to
+   * openConnection(). Added in version 2.4
+   *
+   * @param policy the flush policy.
+   * @see com.lloseng.ocsf.common.FlushPolicy
+   */
+  final public void setFlushPolicy(FlushPolicy policy)
+  {
+    if (policy == null)
+      throw new IllegalArgumentException("policy must not be null");
+
+    this.flushPolicy = policy;
+  }
+
+  /**
+   * @return the flush policy used for the next connection.
+   */
+  final public FlushPolicy getFlushPolicy()
+  {
+    return flushPolicy;
+  }
+
+  /**
+   * Sets the policy deciding when the object stream is reset. By
+   * default, the stream is reset once a megabyte has been written.
+   * Use <code>ResetPolicy.everyMessage()</code> if objects are modified
+   * and sent again. Not used when a codec is set. The change only takes
+   * effect at the time of the next call to openConnection().
+   * Added in version 2.4
+   *
+   * @param policy the reset policy.
+   * @see com.lloseng.ocsf.common.ResetPolicy
+   */
+  final public void setResetPolicy(ResetPolicy policy)
+  {
+    if (policy == null)
+      throw new IllegalArgumentException("policy must not be null");
+
+    this.resetPolicy = policy;
+  }
+
+  /**
+   * @return the reset policy used for the next connection.
+   */
+  final public ResetPolicy getResetPolicy()
+  {
+    return resetPolicy;
+  }
+
+  /**
+   * Returns the number of objects written to the object stream since
+   * it was last reset. Returns 0 when frames are exchanged.
+   * Added in version 2.4
+   *
+   * @return the number of objects in the table of the stream.
+   */
+  final public long getHandleCount()
+  {
+    ResettingObjectOutputStream out = output;
+    return out == null ? 0 : out.getHandleCount();
+  }
+
+  /**
+   * @return the number of times the object stream has been reset.
+   */
+  final public long getResetCount()
+  {
+    ResettingObjectOutputStream out = output;
+    return out == null ? 0 : out.getResetCount();
+  }
+
+  /**
+   * Sets the policy deciding whether the client reconnects when the
+   * connection is lost, which is when the thread reading from the
+   * server ends without <code>closeConnection()</code> having been
+   * called. By default, <code>ReconnectPolicy.never()</code>, the client
+   * stays disconnected. Added in version 2.4
+   *
+   * @param policy the reconnect policy.
+   * @see com.lloseng.ocsf.common.ReconnectPolicy
+   */
+  final public void setReconnectPolicy(ReconnectPolicy policy)
+  {
+    if (policy == null)
+      throw new IllegalArgumentException("policy must not be null");
+
+    this.reconnectPolicy = policy;
+  }
+
+  /**
+   * @return the reconnect policy.
+   */
+  final public ReconnectPolicy getReconnectPolicy()
+  {
+    return reconnectPolicy;
+  }
+
+  /**
+   * Sets the maximum number of messages kept while the client
+   * reconnects. These messages are sent, in order, once the client has
+   * reconnected, and discarded if it gives up. When the buffer is full,
+   * or if its capacity is 0, which is the default,
+   * <code>sendToServer()</code> throws an <code>IOException</code>
+   * while the client reconnects. Added in version 2.4
+   *
+   * @param capacity the capacity of the resend buffer, or 0.
+   */
+  final public void setResendBufferCapacity(int capacity)
+  {
+    if (capacity < 0)
+      throw new IllegalArgumentException("capacity must not be negative");
+
+    this.resendBufferCapacity = capacity;
+  }
+
+  /**
+   * @return the capacity of the resend buffer.
+   */
+  final public int getResendBufferCapacity()
+  {
+    return resendBufferCapacity;
+  }
+
+  /**
+   * @return the number of messages waiting in the resend buffer.
+   */
+  final public int getResendBufferSize()
+  {
+    synchronized (resendBuffer)
+    {
+      return resendBuffer.size();
+    }
+  }
+
+  /**
+   * Sets whether the Nagle algorithm is disabled on the socket.
+   * The change only takes effect at the time of the next call to
+   * openConnection(). Added in version 2.4
+   *
+   * @param on true to set TCP_NODELAY on the socket.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    this.tcpNoDelay = on;
+  }
+
+  /**
+   * @return true if TCP_NODELAY is set on the socket.
+   */
+  final public boolean isTcpNoDelay()
+  {
+    return tcpNoDelay;
+  }
+
   /**
    * @return the host name.
    */
@@ -252,12 +645,17 @@ public abstract class AbstractClient implements Runnable
   /**
    * Waits for messages from the server. When each arrives,
    * a call is made to <code>handleMessageFromServer()</code>.
+   * If the connection is lost and the reconnect policy allows it,
+   * the thread then tries to reconnect.
    * Not to be explicitly called.
    */
   final public void run()
   {
     connectionEstablished();
 
+    // Indicates if the connection has been lost and must be reopened
+    boolean lost = false;  // added in version 2.4
+
     // The message from the server
     Object msg;
 
@@ -273,7 +671,10 @@ public abstract class AbstractClient implements Runnable
         
         try { // added in version 2.31
         
-          msg = input.readObject();
+          if (frameInput != null)  // added in version 2.4
+            msg = ObjectFrames.read(frameInput, connectionCodec);
+          else
+            msg = input.readObject();
 
           // Concrete subclasses do what they want with the
           // msg by implementing the following method
@@ -295,6 +696,7 @@ public abstract class AbstractClient implements Runnable
     {
       if(!readyToStop)
       {
+        lost = startReconnecting();  // added in version 2.4
         try
         {
           closeAll();
@@ -309,6 +711,9 @@ public abstract class AbstractClient implements Runnable
         clientReader = null; 
         connectionClosed();   // moved here in version 2.31
     }
+
+    if (lost)  // added in version 2.4
+      reconnect();
   }
 
 // METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
@@ -351,9 +756,214 @@ public abstract class AbstractClient implements Runnable
    */
   protected abstract void handleMessageFromServer(Object msg);
 
+  /**
+   * Hook method called before each attempt to reconnect, which will
+   * be made after the given delay. The default implementation does
+   * nothing. Added in version 2.4
+   *
+   * @param attempt the number of the attempt, starting at 1.
+   * @param delay the delay before the attempt, in ms.
+   */
+  protected void reconnecting(int attempt, long delay) {}
+
+  /**
+   * Hook method called once the client has reconnected, by the thread
+   * that reconnected it, before the messages of the resend buffer are
+   * sent. The messages this method sends, to log in again for example,
+   * are therefore sent first. The default implementation does nothing.
+   * Added in version 2.4
+   *
+   * @param attempts the number of attempts made.
+   */
+  protected void reconnected(int attempts) {}
+
+  /**
+   * Hook method called when the client gives up reconnecting, once the
+   * number of attempts allowed by the reconnect policy have failed.
+   * The messages of the resend buffer have been discarded.
+   * The default implementation does nothing. Added in version 2.4
+   *
+   * @param exception the exception raised by the last attempt.
+   */
+  protected void reconnectFailed(Exception exception) {}
+
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+  /**
+   * Marks the client as reconnecting, if the reconnect policy allows it.
+   * Called by the reading thread when the connection is lost.
+   *
+   * @return true if the client must reconnect.
+   */
+  private boolean startReconnecting()
+  {
+    if (!reconnectPolicy.isEnabled())
+      return false;
+
+    synchronized (resendBuffer)
+    {
+      reconnecting = true;
+      reconnectThread = Thread.currentThread();
+    }
+    return true;
+  }
+
+  /**
+   * Stops reconnecting and discards the messages of the resend buffer.
+   */
+  private void stopReconnecting()
+  {
+    synchronized (resendBuffer)
+    {
+      reconnecting = false;
+      reconnectThread = null;
+      resendBuffer.clear();
+      resendBuffer.notifyAll();
+    }
+  }
+
+  /**
+   * Keeps a message sent while reconnecting, to be sent once reconnected.
+   * The messages sent by the reconnecting thread itself are not kept.
+   *
+   * @return false if the client is not reconnecting anymore.
+   * @exception IOException if the resend buffer is full.
+   */
+  private boolean keepForResend(Object msg) throws IOException
+  {
+    synchronized (resendBuffer)
+    {
+      if (!reconnecting || Thread.currentThread() == reconnectThread)
+        return false;
+
+      if (resendBuffer.size() >= resendBufferCapacity)
+        throw new SocketException(resendBufferCapacity == 0
+          ? "socket does not exist, reconnecting" : "resend buffer full");
+
+      resendBuffer.addLast(msg);
+      return true;
+    }
+  }
+
+  /**
+   * Tries to reopen the connection, waiting before each attempt as
+   * decided by the reconnect policy, then sends the messages of the
+   * resend buffer. Called by the reading thread once the connection is
+   * lost and the hook methods have been called.
+   */
+  private void reconnect()
+  {
+    ReconnectPolicy policy = reconnectPolicy;
+    Exception lastException = null;
+
+    for (int attempt=1; policy.allowsAttempt(attempt); attempt++)
+    {
+      long delay = policy.getDelay(attempt);
+      reconnecting(attempt, delay);
+
+      synchronized (resendBuffer)
+      {
+        long deadline = System.currentTimeMillis() + delay;
+        long remaining = delay;
+        try
+        {
+          while (reconnecting && remaining > 0)
+          {
+            resendBuffer.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+          }
+        }
+        catch (InterruptedException ex)
+        {
+          reconnecting = false;
+          resendBuffer.clear();
+        }
+        if (!reconnecting)
+          return;  // closeConnection() has been called
+      }
+
+      try
+      {
+        openConnection();
+      }
+      catch (IOException ex)
+      {
+        lastException = ex;
+        continue;
+      }
+
+      synchronized (resendBuffer)
+      {
+        if (!reconnecting)
+        {
+          // closeConnection() has been called while opening
+          try
+          {
+            closeConnection();
+          }
+          catch (IOException ex) {}
+          return;
+        }
+      }
+
+      reconnected(attempt);
+      resend();
+      return;
+    }
+
+    synchronized (resendBuffer)
+    {
+      if (!reconnecting)
+        return;
+      reconnecting = false;
+      reconnectThread = null;
+      resendBuffer.clear();
+    }
+    reconnectFailed(lastException);
+  }
+
+  /**
+   * Sends the messages of the resend buffer, in order. The messages
+   * sent meanwhile by other threads are kept after them. If the
+   * connection is lost again, the remaining messages are kept for the
+   * next reconnection.
+   */
+  private void resend()
+  {
+    while (true)
+    {
+      Object msg;
+      synchronized (resendBuffer)
+      {
+        if (!reconnecting)
+          return;
+
+        if (resendBuffer.isEmpty())
+        {
+          reconnecting = false;
+          reconnectThread = null;
+          return;
+        }
+        msg = resendBuffer.removeFirst();
+      }
+
+      try
+      {
+        write(msg);
+      }
+      catch (IOException ex)
+      {
+        synchronized (resendBuffer)
+        {
+          if (reconnecting)
+            resendBuffer.addFirst(msg);
+        }
+        return;
+      }
+    }
+  }
+
   /**
    * Closes all aspects of the connection to the server.
    *
@@ -369,6 +979,10 @@ public abstract class AbstractClient implements Runnable
       if (clientSocket != null)
         clientSocket.close();
 
+      //Discard the bytes not flushed, the socket being closed
+      if (outputBuffer != null)
+        outputBuffer.close();
+
       //Close the output stream
       if (output != null)
         output.close();
@@ -376,6 +990,13 @@ public abstract class AbstractClient implements Runnable
       //Close the input stream
       if (input != null)
         input.close();
+
+      //Close the frame streams
+      if (frameOutput != null)
+        frameOutput.close();
+
+      if (frameInput != null)
+        frameInput.close();
     }
     finally
     {
@@ -385,6 +1006,9 @@ public abstract class AbstractClient implements Runnable
       // when they are garbage collected.
       output = null;
       input = null;
+      frameOutput = null;
+      frameInput = null;
+      outputBuffer = null;
       clientSocket = null;
     }
   }
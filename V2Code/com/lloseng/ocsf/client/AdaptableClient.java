@@ -70,6 +70,37 @@ class AdaptableClient extends AbstractClient
     client.connectionEstablished();
   }
 
+  /**
+   * Hook method called before each attempt to reconnect.
+   *
+   * @param attempt the number of the attempt.
+   * @param delay the delay before the attempt, in ms.
+   */
+  final protected void reconnecting(int attempt, long delay)
+  {
+    client.reconnecting(attempt, delay);
+  }
+
+  /**
+   * Hook method called once the client has reconnected.
+   *
+   * @param attempts the number of attempts made.
+   */
+  final protected void reconnected(int attempts)
+  {
+    client.reconnected(attempts);
+  }
+
+  /**
+   * Hook method called when the client gives up reconnecting.
+   *
+   * @param exception the exception raised by the last attempt.
+   */
+  final protected void reconnectFailed(Exception exception)
+  {
+    client.reconnectFailed(exception);
+  }
+
   /**
    * Handles a message sent from the server to this client.
    *
@@ -0,0 +1,1189 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.common.*;
+
+/**
+* The <code> AsyncClient </code> class is the non-blocking counterpart
+* of <code>AbstractClient</code>. None of its methods waits for the
+* network: <code>connect</code>, <code>send</code> and
+* <code>closeConnection</code> return a <code>CompletableFuture</code>
+* completed once the operation is done, and no thread is created per
+* connection. The connections of all the asynchronous clients are
+* multiplexed on a few reactor threads shared by the whole virtual
+* machine, so that a program can keep thousands of them open.<p>
+*
+* Messages are exchanged as length-prefixed frames, as defined by the
+* <code>ObjectFrames</code> class, whose body is encoded by the codec of
+* the client; a <code>SerializedCodec</code> by default. The server must
+* therefore use reactor threads, or a codec, with the same codec.<p>
+*
+* The messages received can be handled in two ways:
+* <ul>
+* <li> As with <code>AbstractClient</code>, by overriding the
+* <code>handleMessageFromServer</code> hook method.
+* <li> By subscribing to the client, which is a
+* <code>Flow.Publisher</code> of the messages received. A subscriber
+* only receives the messages it has requested; while it does not
+* request more, the client stops reading from the connection, so
+* that the server is slowed down instead of the messages piling
+* up in memory. The subscription completes when the connection is
+* closed, or ends with an error if the connection is lost. Only one
+* subscriber at a time is accepted; the messages received while there
+* is no subscriber are given to <code>handleMessageFromServer</code>.
+* </ul>
+* The hook methods and the methods of the subscriber are always called
+* by the reactor thread of the client, one at a time; they must not
+* block, since this thread also serves other connections. The futures
+* returned may be completed by this thread too, so the actions
+* attached to them must not block either.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.client.AbstractClient
+* @see com.lloseng.ocsf.common.ObjectFrames
+*/
+public class AsyncClient implements Flow.Publisher
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The maximum number of frames written by one gathering write.
+   */
+  private static final int MAX_GATHER = 64;
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The server's host name.
+   */
+  private String host;
+
+  /**
+   * The port number.
+   */
+  private int port;
+
+  /**
+   * The codec used for the next connection.
+   * Set to a <code>SerializedCodec</code> by default.
+   */
+  private MessageCodec codec = new SerializedCodec();
+
+  /**
+   * Indicates if the Nagle algorithm is disabled on the socket.
+   */
+  private boolean tcpNoDelay = false;
+
+  /**
+   * The reactor thread performing the I/O of this client.
+   */
+  private final ClientReactor.Loop loop;
+
+  /**
+   * The current connection, or null if the client is not connected
+   * nor connecting.
+   */
+  private volatile Connection connection;
+
+  /**
+   * The current subscription, or null.
+   */
+  private volatile Subscription subscription;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the client. The connection is opened by
+   * <code>connect</code>.
+   *
+   * @param  host  the server's host name.
+   * @param  port  the port number.
+   */
+  public AsyncClient(String host, int port)
+  {
+    this.host = host;
+    this.port = port;
+    loop = ClientReactor.getDefault().nextLoop();
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Opens the connection with the server. The host name is resolved
+   * by the calling thread; the connection is then established by the
+   * reactor thread. If the client is already connected or connecting,
+   * the future of this connection is returned.
+   *
+   * @return a future completed once the connection is established,
+   *   or completed exceptionally if it cannot be.
+   */
+  final public CompletableFuture connect()
+  {
+    Connection current;
+    synchronized (this)
+    {
+      current = connection;
+      if (current == null || current.closed)
+      {
+        current = new Connection(codec);
+        connection = current;
+      }
+      else
+        return current.established;
+    }
+
+    try
+    {
+      current.start(host, port, tcpNoDelay);
+    }
+    catch (IOException ex)
+    {
+      current.abort(ex);
+    }
+    return current.established;
+  }
+
+  /**
+   * Sends an object to the server. The message is encoded by the
+   * calling thread and written at once if the socket accepts it;
+   * otherwise it is queued and written by the reactor thread.
+   * The messages sent while the connection is being established are
+   * written once it is.
+   *
+   * @param msg the message to be sent.
+   * @return a future completed once the message has been written
+   *   on the socket, or completed exceptionally if it cannot be.
+   */
+  public CompletableFuture send(Object msg)
+  {
+    CompletableFuture future = new CompletableFuture();
+    Connection current = connection;
+
+    try
+    {
+      if (current == null)
+        throw new SocketException("socket does not exist");
+
+      current.send(ObjectFrames.encode(msg, current.codec), future);
+    }
+    catch (IOException ex)
+    {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  /**
+   * Closes the connection to the server. The frames not yet written
+   * are discarded and their futures completed exceptionally.
+   *
+   * @return a future completed once the connection is closed and the
+   *   <code>connectionClosed</code> hook has been called.
+   */
+  final public CompletableFuture closeConnection()
+  {
+    Connection current = connection;
+    if (current == null)
+      return CompletableFuture.completedFuture(null);
+
+    current.close();
+    return current.released;
+  }
+
+  /**
+   * Subscribes to the messages received from the server. The
+   * subscriber is told of its subscription by the reactor thread.
+   * If there is already a subscriber, the new one is given an error.
+   *
+   * @param subscriber the subscriber.
+   */
+  public void subscribe(final Flow.Subscriber subscriber)
+  {
+    if (subscriber == null)
+      throw new NullPointerException("null subscriber");
+
+    final Subscription accepted = new Subscription(subscriber);
+    final boolean rejected;
+    synchronized (this)
+    {
+      rejected = subscription != null;
+      if (!rejected)
+        subscription = accepted;
+    }
+
+    loop.execute(new Runnable()
+    {
+      public void run()
+      {
+        accepted.start(rejected);
+      }
+    });
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return true if the client is connnected.
+   */
+  final public boolean isConnected()
+  {
+    Connection current = connection;
+    return current != null && current.established.isDone()
+      && !current.established.isCompletedExceptionally() && !current.closed;
+  }
+
+  /**
+   * @return true if a subscriber is subscribed to the messages.
+   */
+  final public boolean isSubscribed()
+  {
+    return subscription != null;
+  }
+
+  /**
+   * Returns the number of messages sent on the current connection
+   * that have not been written on the socket yet.
+   *
+   * @return the number of frames waiting to be written.
+   */
+  final public int getPendingFrames()
+  {
+    Connection current = connection;
+    return current == null ? 0 : current.getPendingFrames();
+  }
+
+  /**
+   * @return the host name.
+   */
+  final public String getHost()
+  {
+    return host;
+  }
+
+  /**
+   * Sets the host name of the server for the next connection.
+   *
+   * @param host the host name.
+   */
+  final public void setHost(String host)
+  {
+    this.host = host;
+  }
+
+  /**
+   * @return the port number.
+   */
+  final public int getPort()
+  {
+    return port;
+  }
+
+  /**
+   * Sets the server port number for the next connection.
+   *
+   * @param port the port number.
+   */
+  final public void setPort(int port)
+  {
+    this.port = port;
+  }
+
+  /**
+   * Sets the codec used to exchange messages with the server.
+   * The change only takes effect at the time of the next call
+   * to <code>connect()</code>.
+   *
+   * @param codec the codec.
+   * @exception IllegalArgumentException if the codec is null.
+   * @see com.lloseng.ocsf.common.MessageCodec
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    if (codec == null)
+      throw new IllegalArgumentException("codec must not be null");
+    this.codec = codec;
+  }
+
+  /**
+   * @return the codec used for the next connection.
+   */
+  final public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Disables or enables the Nagle algorithm on the socket of the
+   * next connection. Disabling it lowers the latency of small
+   * messages sent one at a time.
+   *
+   * @param on true to disable the Nagle algorithm.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    tcpNoDelay = on;
+  }
+
+  /**
+   * @return true if the Nagle algorithm is disabled.
+   */
+  final public boolean isTcpNoDelay()
+  {
+    return tcpNoDelay;
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  /**
+   * Hook method called after the connection has been closed, once
+   * the subscriber, if any, has been told. It is not called if the
+   * connection could not be established.
+   * The default implementation does nothing.
+   */
+  protected void connectionClosed() {}
+
+  /**
+   * Hook method called when the connection is lost, before it is
+   * closed, when an object of unknown class is received, or when
+   * <code>handleMessageFromServer</code> throws a
+   * <code>RuntimeException</code>.
+   * The default implementation does nothing.
+   *
+   * @param exception the exception raised.
+   */
+  protected void connectionException(Exception exception) {}
+
+  /**
+   * Hook method called after a connection has been established,
+   * before the future returned by <code>connect</code> is completed.
+   * The default implementation does nothing.
+   */
+  protected void connectionEstablished() {}
+
+  /**
+   * Handles a message sent from the server to this client when
+   * there is no subscriber. The default implementation does nothing.
+   *
+   * @param msg   the message sent.
+   */
+  protected void handleMessageFromServer(Object msg) {}
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Gives a message received to the subscriber, or to
+   * <code>handleMessageFromServer</code> if there is none.
+   * Called by the reactor.
+   *
+   * @param msg the message received.
+   */
+  private void deliver(Object msg)
+  {
+    Subscription current = subscription;
+    if (current != null)
+    {
+      current.offer(msg);
+      return;
+    }
+
+    try
+    {
+      handleMessageFromServer(msg);
+    }
+    catch (RuntimeException ex)
+    {
+      connectionException(ex);
+    }
+  }
+
+  /**
+   * Resumes reading from the connection, if it was suspended because
+   * the subscriber had not requested the messages received.
+   * Called by the reactor.
+   */
+  private void resumeReading()
+  {
+    Connection current = connection;
+    if (current != null)
+      current.setReading(true);
+  }
+
+  /**
+   * Forgets a subscription that has ended, and resumes reading.
+   * Called by the reactor.
+   */
+  private void detach(Subscription ended)
+  {
+    synchronized (this)
+    {
+      if (subscription == ended)
+        subscription = null;
+    }
+    resumeReading();
+  }
+
+  /**
+   * Calls an exception hook, ignoring what it throws.
+   */
+  private void notifyException(Exception exception)
+  {
+    try
+    {
+      connectionException(exception);
+    }
+    catch (RuntimeException ex) {}
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * The state of one connection to the server. The channel is
+   * registered with the selector of the reactor of the client,
+   * which performs all the reads and the writes that cannot be
+   * done at once.
+   */
+  class Connection
+  {
+    /**
+     * The codec of the connection.
+     */
+    private final MessageCodec codec;
+
+    /**
+     * Completed once the connection is established.
+     */
+    private final CompletableFuture established = new CompletableFuture();
+
+    /**
+     * Completed once the connection is closed.
+     */
+    private final CompletableFuture released = new CompletableFuture();
+
+    /**
+     * The channel of the connection.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The key of the channel, set once registered.
+     */
+    private SelectionKey key;
+
+    /**
+     * Set once the channel is connected.
+     */
+    private boolean open = false;
+
+    /**
+     * Set when the connection has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Set once the connection has been released.
+     */
+    private boolean done = false;
+
+    /**
+     * Indicates if the reactor reads from the channel. Reading is
+     * suspended while the subscriber has not requested the messages
+     * received.
+     */
+    private boolean reading = true;
+
+    /**
+     * The bytes received and not yet decoded.
+     */
+    private ByteBuffer input = ByteBuffer.allocate(8192);
+
+    /**
+     * The frames waiting to be written.
+     */
+    private LinkedList output = new LinkedList();
+
+    /**
+     * The futures of the frames waiting to be written, in the
+     * same order.
+     */
+    private LinkedList completions = new LinkedList();
+
+    /**
+     * The array given to the gathering writes.
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    Connection(MessageCodec codec)
+    {
+      this.codec = codec;
+    }
+
+    /**
+     * Starts connecting to the server, then lets the reactor
+     * register the channel.
+     */
+    private void start(String host, int port, boolean tcpNoDelay)
+      throws IOException
+    {
+      InetSocketAddress address = new InetSocketAddress(host, port);
+      if (address.isUnresolved())
+        throw new UnknownHostException(host);
+
+      synchronized (this)
+      {
+        if (closed)
+          throw new ClosedChannelException();
+
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY,
+          Boolean.valueOf(tcpNoDelay));
+        channel.connect(address);
+      }
+
+      loop.execute(new Runnable()
+      {
+        public void run()
+        {
+          register();
+        }
+      });
+    }
+
+    /**
+     * Registers the channel with the selector of the reactor.
+     * Called by the reactor.
+     */
+    private void register()
+    {
+      boolean connected;
+      try
+      {
+        synchronized (this)
+        {
+          if (closed)
+            return;  // released by the task scheduled by close
+          connected = channel.isConnected();
+          key = channel.register(loop.getSelector(),
+            connected ? 0 : SelectionKey.OP_CONNECT, this);
+        }
+        if (connected)
+          opened();
+      }
+      catch (Throwable ex)
+      {
+        release(ex);
+      }
+    }
+
+    /**
+     * Starts reading and writing once the channel is connected, then
+     * tells the client. Called by the reactor.
+     */
+    private void opened()
+    {
+      synchronized (this)
+      {
+        open = true;
+        key.interestOps(interest());
+      }
+
+      try
+      {
+        connectionEstablished();
+      }
+      catch (RuntimeException ex)
+      {
+        notifyException(ex);
+      }
+      established.complete(null);
+    }
+
+    /**
+     * Completes the connection, reads or writes, depending on the
+     * readiness of the channel. Called by the reactor.
+     */
+    void process(SelectionKey key)
+    {
+      try
+      {
+        if (key.isValid() && key.isConnectable())
+        {
+          if (channel.finishConnect())
+            opened();
+          return;
+        }
+
+        if (key.isValid() && key.isWritable())
+          flush();
+
+        if (key.isValid() && key.isReadable())
+          read();
+      }
+      catch (Throwable ex)
+      {
+        release(ex);
+      }
+    }
+
+    /**
+     * Sends a frame, writing it at once if possible; otherwise it is
+     * queued and written by the reactor when the channel becomes
+     * writable.
+     */
+    private void send(ByteBuffer frame, CompletableFuture future)
+      throws IOException
+    {
+      boolean written = false;
+
+      synchronized (this)
+      {
+        if (closed)
+          throw new ClosedChannelException();
+
+        if (output.isEmpty() && open)
+        {
+          channel.write(frame);
+          written = !frame.hasRemaining();
+        }
+
+        if (!written)
+        {
+          output.add(frame);
+          completions.add(future);
+
+          if (output.size() == 1 && open)
+          {
+            try
+            {
+              key.interestOps(interest());
+            }
+            catch (CancelledKeyException ex)
+            {
+              throw new ClosedChannelException();
+            }
+            key.selector().wakeup();
+          }
+        }
+      }
+
+      if (written)
+        future.complete(null);
+    }
+
+    /**
+     * Writes the queued frames and completes the futures of those
+     * that have been written. Called by the reactor.
+     */
+    private void flush() throws IOException
+    {
+      List completed = new ArrayList();
+
+      synchronized (this)
+      {
+        while (!output.isEmpty())
+        {
+          int count = Math.min(output.size(), MAX_GATHER);
+          long length = 0;
+          Iterator frames = output.iterator();
+          for (int i=0; i<count; i++)
+          {
+            gather[i] = (ByteBuffer)frames.next();
+            length += gather[i].remaining();
+          }
+
+          long written = channel.write(gather, 0, count);
+          Arrays.fill(gather, 0, count, null);
+
+          while (!output.isEmpty()
+            && !((ByteBuffer)output.getFirst()).hasRemaining())
+          {
+            output.removeFirst();
+            completed.add(completions.removeFirst());
+          }
+          if (written < length)
+            break;  // the socket buffer is full
+        }
+        key.interestOps(interest());
+      }
+
+      for (int i=0; i<completed.size(); i++)
+      {
+        ((CompletableFuture)completed.get(i)).complete(null);
+      }
+    }
+
+    /**
+     * Reads the available bytes and delivers every complete frame.
+     * Reading is suspended if the subscriber has not requested all
+     * the messages delivered. Called by the reactor.
+     */
+    private void read() throws IOException
+    {
+      int count = channel.read(input);
+      if (count < 0)
+      {
+        release(null);  // end of stream: the server has disconnected
+        return;
+      }
+
+      input.flip();
+      while (!closed && input.remaining() >= ObjectFrames.HEADER_LENGTH)
+      {
+        int length =
+          ObjectFrames.checkLength(input.getInt(input.position()));
+        int frameLength = ObjectFrames.HEADER_LENGTH + length;
+
+        if (input.remaining() < frameLength)
+        {
+          if (frameLength > input.capacity())
+          {
+            // Enlarge the buffer so that the complete frame fits
+            ByteBuffer larger = ByteBuffer.allocate(frameLength);
+            larger.put(input);
+            input = larger;
+            return;
+          }
+          break;
+        }
+
+        int start = input.arrayOffset() + input.position()
+          + ObjectFrames.HEADER_LENGTH;
+        input.position(input.position() + frameLength);
+
+        Object msg;
+        try
+        {
+          msg = codec.decode(input.array(), start, length);
+        }
+        catch (ClassNotFoundException ex)
+        {
+          notifyException(ex);  // unknown class, frame skipped
+          continue;
+        }
+        deliver(msg);
+      }
+      input.compact();
+
+      Subscription current = subscription;
+      if (current != null && current.isBacklogged())
+        setReading(false);
+    }
+
+    /**
+     * Suspends or resumes reading from the channel.
+     *
+     * @param reading false to suspend reading.
+     */
+    synchronized void setReading(boolean reading)
+    {
+      if (this.reading == reading)
+        return;
+
+      this.reading = reading;
+      if (open && !closed)
+      {
+        try
+        {
+          key.interestOps(interest());
+        }
+        catch (CancelledKeyException ex) {}
+      }
+    }
+
+    /**
+     * Returns the operations the reactor must wait for.
+     */
+    private int interest()
+    {
+      int ops = reading ? SelectionKey.OP_READ : 0;
+      if (!output.isEmpty())
+        ops |= SelectionKey.OP_WRITE;
+      return ops;
+    }
+
+    /**
+     * @return the number of frames waiting to be written.
+     */
+    synchronized int getPendingFrames()
+    {
+      return output.size();
+    }
+
+    /**
+     * Closes the channel. The connection is released afterward by
+     * the reactor.
+     */
+    void close()
+    {
+      synchronized (this)
+      {
+        if (closed)
+          return;
+        closed = true;
+      }
+
+      try
+      {
+        if (channel != null)
+          channel.close();
+      }
+      catch (IOException ex) {}
+
+      loop.execute(new Runnable()
+      {
+        public void run()
+        {
+          release(null);
+        }
+      });
+    }
+
+    /**
+     * Releases a connection that could not be started.
+     */
+    private void abort(final IOException exception)
+    {
+      synchronized (this)
+      {
+        closed = true;
+      }
+      loop.execute(new Runnable()
+      {
+        public void run()
+        {
+          release(exception);
+        }
+      });
+    }
+
+    /**
+     * Closes the channel if needed, fails the frames not written,
+     * then tells the subscriber and the client once. Called by the
+     * reactor.
+     *
+     * @param exception the exception that caused the release, or null.
+     */
+    private void release(Throwable exception)
+    {
+      if (done)
+        return;
+
+      done = true;
+      boolean requested;
+      List unsent = new ArrayList();
+
+      synchronized (this)
+      {
+        requested = closed;
+        closed = true;
+        output.clear();
+        unsent.addAll(completions);
+        completions.clear();
+      }
+
+      if (key != null)
+        key.cancel();
+      try
+      {
+        if (channel != null)
+          channel.close();
+      }
+      catch (IOException ex) {}
+
+      synchronized (AsyncClient.this)
+      {
+        if (connection == this)
+          connection = null;
+      }
+
+      Exception failure = null;
+      if (exception instanceof Exception && !requested)
+        failure = (Exception)exception;
+      else if (exception != null && !requested)
+        failure = new IOException(exception);
+
+      IOException cause = new ClosedChannelException();
+      if (failure != null)
+        cause.initCause(failure);
+      for (int i=0; i<unsent.size(); i++)
+      {
+        ((CompletableFuture)unsent.get(i)).completeExceptionally(cause);
+      }
+
+      if (!open)
+      {
+        // Never established: only the connect future is told
+        established.completeExceptionally(
+          failure != null ? failure : new ClosedChannelException());
+        released.complete(null);
+        return;
+      }
+
+      if (failure != null)
+        notifyException(failure);
+
+      Subscription current = subscription;
+      if (current != null)
+        current.end(failure);
+
+      try
+      {
+        connectionClosed();
+      }
+      catch (RuntimeException ex) {}
+      released.complete(null);
+    }
+  }
+
+  /**
+   * The subscription of a subscriber to the messages received.
+   * Except <code>request</code> and <code>cancel</code>, its methods
+   * are called by the reactor, which is the only thread calling
+   * the subscriber.
+   */
+  private class Subscription implements Flow.Subscription
+  {
+    /**
+     * The subscriber.
+     */
+    private final Flow.Subscriber subscriber;
+
+    /**
+     * The messages received and not yet requested.
+     */
+    private final LinkedList inbox = new LinkedList();
+
+    /**
+     * The number of messages requested and not yet delivered.
+     */
+    private long demand = 0;
+
+    /**
+     * Set once the subscriber has been told of its subscription.
+     */
+    private boolean started = false;
+
+    /**
+     * Set once the subscription is over.
+     */
+    private boolean terminated = false;
+
+    /**
+     * Set when the connection has been closed, the subscription
+     * completing once the messages received have been delivered.
+     */
+    private boolean completing = false;
+
+    /**
+     * The exception that caused the connection to be lost, if any.
+     */
+    private Exception failure;
+
+    Subscription(Flow.Subscriber subscriber)
+    {
+      this.subscriber = subscriber;
+    }
+
+    public void request(final long n)
+    {
+      loop.execute(new Runnable()
+      {
+        public void run()
+        {
+          requested(n);
+        }
+      });
+    }
+
+    public void cancel()
+    {
+      loop.execute(new Runnable()
+      {
+        public void run()
+        {
+          cancelled();
+        }
+      });
+    }
+
+    /**
+     * Tells the subscriber of its subscription, or that it is
+     * rejected.
+     */
+    void start(boolean rejected)
+    {
+      if (rejected)
+      {
+        terminated = true;
+        subscriber.onSubscribe(this);
+        subscriber.onError(
+          new IllegalStateException("already subscribed"));
+        return;
+      }
+
+      started = true;
+      try
+      {
+        subscriber.onSubscribe(this);
+      }
+      catch (Throwable ex)
+      {
+        cancelled();
+        return;
+      }
+      if (completing)
+        finish();
+    }
+
+    /**
+     * Adds to the demand of the subscriber and delivers the messages
+     * waiting.
+     */
+    private void requested(long n)
+    {
+      if (terminated)
+        return;
+
+      if (n <= 0)
+      {
+        terminate(new IllegalArgumentException(
+          "non-positive request: " + n));
+        return;
+      }
+
+      demand += n;
+      if (demand < 0)
+        demand = Long.MAX_VALUE;  // unbounded
+      drain();
+    }
+
+    /**
+     * Ends the subscription at the request of the subscriber.
+     * The messages received but not requested are given to
+     * <code>handleMessageFromServer</code>.
+     */
+    private void cancelled()
+    {
+      if (terminated)
+        return;
+
+      terminated = true;
+      detach(this);
+      while (!inbox.isEmpty())
+      {
+        deliver(inbox.removeFirst());
+      }
+    }
+
+    /**
+     * Queues a message received and delivers it if requested.
+     */
+    void offer(Object msg)
+    {
+      inbox.add(msg);
+      drain();
+    }
+
+    /**
+     * @return true if messages are waiting to be requested.
+     */
+    boolean isBacklogged()
+    {
+      return !inbox.isEmpty();
+    }
+
+    /**
+     * Ends the subscription when the connection is closed. The
+     * messages received are still delivered on demand, unless the
+     * connection was lost.
+     *
+     * @param exception the exception that caused the end, or null.
+     */
+    void end(Exception exception)
+    {
+      if (terminated)
+        return;
+
+      completing = true;
+      failure = exception;
+      if (started)
+        finish();
+    }
+
+    /**
+     * Ends the subscription once the connection is closed: at once if
+     * it was lost, otherwise once the messages received are delivered.
+     */
+    private void finish()
+    {
+      if (failure != null)
+        terminate(failure);
+      else
+        drain();
+    }
+
+    /**
+     * Delivers the messages requested.
+     */
+    private void drain()
+    {
+      while (started && !terminated && demand > 0 && !inbox.isEmpty())
+      {
+        demand--;
+        try
+        {
+          subscriber.onNext(inbox.removeFirst());
+        }
+        catch (Throwable ex)
+        {
+          cancelled();
+          return;
+        }
+      }
+
+      if (terminated || !inbox.isEmpty())
+        return;
+
+      if (completing)
+        terminate(null);
+      else
+        resumeReading();
+    }
+
+    /**
+     * Ends the subscription, telling the subscriber.
+     *
+     * @param exception the exception ending it, or null if the
+     *   subscription completes normally.
+     */
+    private void terminate(Throwable exception)
+    {
+      terminated = true;
+      inbox.clear();
+      detach(this);
+
+      try
+      {
+        if (exception == null)
+          subscriber.onComplete();
+        else
+          subscriber.onError(exception);
+      }
+      catch (Throwable ex) {}
+    }
+  }
+}
+// End of AsyncClient class
@@ -0,0 +1,232 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+/**
+* The <code> ClientEvent </code> class is the superclass of the events
+* published on the event bus of an <code>ObservableClient</code>.
+* Each kind of event is a nested class, so that handlers can
+* classify an event with <code>instanceof</code> instead of comparing
+* strings. Events are immutable.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.client.ObservableClient#getEventBus
+*/
+public abstract class ClientEvent
+{
+  // Instance variables *********************************************
+
+  /**
+   * The client that published the event.
+   */
+  private final ObservableClient client;
+
+  // Constructor ****************************************************
+
+  /**
+   * Constructs an event.
+   *
+   * @param client the client publishing the event.
+   */
+  ClientEvent(ObservableClient client)
+  {
+    this.client = client;
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * @return the client that published the event.
+   */
+  final public ObservableClient getClient()
+  {
+    return client;
+  }
+
+  /**
+   * @return a string representation of the event.
+   */
+  public String toString()
+  {
+    String name = getClass().getName();
+    return name.substring(name.lastIndexOf('$')+1);
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * Published when the connection to the server has been established.
+   */
+  public static final class ConnectionEstablished extends ClientEvent
+  {
+    public ConnectionEstablished(ObservableClient client)
+    {
+      super(client);
+    }
+  }
+
+  /**
+   * Published when the connection to the server has been closed.
+   */
+  public static final class ConnectionClosed extends ClientEvent
+  {
+    public ConnectionClosed(ObservableClient client)
+    {
+      super(client);
+    }
+  }
+
+  /**
+   * Published when an exception has been raised by the thread reading
+   * from the server.
+   */
+  public static final class ConnectionException extends ClientEvent
+  {
+    private final Exception exception;
+
+    public ConnectionException(ObservableClient client, Exception exception)
+    {
+      super(client);
+      this.exception = exception;
+    }
+
+    /**
+     * @return the exception raised.
+     */
+    public Exception getException()
+    {
+      return exception;
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": " + exception;
+    }
+  }
+
+  /**
+   * Published before each attempt to reconnect to the server.
+   */
+  public static final class Reconnecting extends ClientEvent
+  {
+    private final int attempt;
+    private final long delay;
+
+    public Reconnecting(ObservableClient client, int attempt, long delay)
+    {
+      super(client);
+      this.attempt = attempt;
+      this.delay = delay;
+    }
+
+    /**
+     * @return the number of the attempt, starting at 1.
+     */
+    public int getAttempt()
+    {
+      return attempt;
+    }
+
+    /**
+     * @return the delay before the attempt, in ms.
+     */
+    public long getDelay()
+    {
+      return delay;
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": attempt " + attempt + " in " + delay
+        + " ms";
+    }
+  }
+
+  /**
+   * Published when the client has reconnected to the server.
+   */
+  public static final class Reconnected extends ClientEvent
+  {
+    private final int attempts;
+
+    public Reconnected(ObservableClient client, int attempts)
+    {
+      super(client);
+      this.attempts = attempts;
+    }
+
+    /**
+     * @return the number of attempts made.
+     */
+    public int getAttempts()
+    {
+      return attempts;
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": after " + attempts + " attempts";
+    }
+  }
+
+  /**
+   * Published when the client gives up reconnecting to the server.
+   */
+  public static final class ReconnectFailed extends ClientEvent
+  {
+    private final Exception exception;
+
+    public ReconnectFailed(ObservableClient client, Exception exception)
+    {
+      super(client);
+      this.exception = exception;
+    }
+
+    /**
+     * @return the exception raised by the last attempt.
+     */
+    public Exception getException()
+    {
+      return exception;
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": " + exception;
+    }
+  }
+
+  /**
+   * Published when a message has been received from the server.
+   */
+  public static final class MessageReceived extends ClientEvent
+  {
+    private final Object message;
+
+    public MessageReceived(ObservableClient client, Object message)
+    {
+      super(client);
+      this.message = message;
+    }
+
+    /**
+     * @return the message received.
+     */
+    public Object getMessage()
+    {
+      return message;
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": " + message;
+    }
+  }
+}
+// End of ClientEvent class
@@ -0,0 +1,645 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* The <code> ClientPool </code> class keeps the connections opened by
+* clients to servers so that they can be used again, instead of
+* opening a new connection, with its TCP setup and object stream
+* handshake, for every exchange with a server.<p>
+*
+* A client is taken from the pool with <code>acquire</code>, used
+* by one thread, then given back with <code>release</code>. The pool
+* returns a connected client already in the pool if there is one, or
+* creates and connects a new one by calling the
+* <code>createClient</code> hook, which must be defined by a concrete
+* subclass and may return an <code>AbstractClient</code> or an
+* <code>ObservableClient</code>. The pool limits the number of clients
+* connected to each host and port; when the limit is reached,
+* <code>acquire</code> waits until a client is released.<p>
+*
+* Before a client is returned, the <code>isHealthy</code> hook checks
+* that its connection can still be used; the connections lost, and
+* those that stayed unused for longer than the maximum idle time,
+* are closed and removed from the pool by a background thread.<p>
+*
+* A pool only gives each client to one thread at a time. To share a
+* single connection between threads, use the
+* <code>sendRequest</code> method of <code>ObservableSWRClient</code>,
+* which lets concurrent requests use the same connection.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.client.ObservableSWRClient#sendRequest
+*/
+public abstract class ClientPool
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The maximum number of clients connected to each host and port.
+   * Set to 8 by default.
+   */
+  private int maxSize = 8;
+
+  /**
+   * The time after which an unused connection is closed, in
+   * milliseconds. Set to one minute by default.
+   */
+  private long maxIdleTime = 60000;
+
+  /**
+   * The time <code>acquire</code> waits for a client when the
+   * maximum size is reached, in milliseconds. Set to 5 seconds
+   * by default.
+   */
+  private long maxWait = 5000;
+
+  /**
+   * The clients of each host and port, indexed by "host:port".
+   */
+  private Map hosts = new HashMap();
+
+  /**
+   * The host of each client acquired and not yet released.
+   */
+  private Map acquired = new IdentityHashMap();
+
+  /**
+   * The number of clients created.
+   */
+  private long createdCount = 0;
+
+  /**
+   * The number of times a client was used again.
+   */
+  private long reusedCount = 0;
+
+  /**
+   * The thread closing the connections unused or lost, created
+   * with the first client.
+   */
+  private Thread evictor;
+
+  /**
+   * Set when the pool has been closed.
+   */
+  private boolean closed = false;
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs an empty pool.
+   */
+  public ClientPool() {}
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Returns a connected client for a server. A connection in the pool
+   * is used if possible; otherwise a new client is created and
+   * connected, unless there are already as many clients connected
+   * to this server as allowed, in which case the method waits for
+   * a client to be released.
+   *
+   * @param host the server's host name.
+   * @param port the port number.
+   * @return an <code>AbstractClient</code> or an
+   *   <code>ObservableClient</code>, which must be given back to
+   *   <code>release</code> or <code>invalidate</code>.
+   * @exception IOException if the pool is closed, if no client became
+   *   available in time, or if the connection cannot be opened.
+   */
+  final public Object acquire(String host, int port) throws IOException
+  {
+    long deadline = System.currentTimeMillis() + maxWait;
+    Host pooled;
+
+    while (true)
+    {
+      Object client = null;
+      synchronized (this)
+      {
+        while (true)
+        {
+          if (closed)
+            throw new IOException("the pool is closed");
+
+          pooled = getHost(host, port);
+          if (!pooled.idle.isEmpty())
+          {
+            // The client used last is the one most likely to be alive
+            client = ((Idle)pooled.idle.removeLast()).client;
+            break;
+          }
+          if (pooled.size < maxSize)
+          {
+            pooled.size++;
+            createdCount++;
+            break;
+          }
+
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0)
+            throw new IOException("no client available for "
+              + pooled.key + " after " + maxWait + " ms");
+          try
+          {
+            wait(remaining);
+          }
+          catch (InterruptedException ex)
+          {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+
+      if (client == null)
+        return connect(pooled);
+
+      if (check(client))
+      {
+        synchronized (this)
+        {
+          acquired.put(client, pooled);
+          reusedCount++;
+        }
+        return client;
+      }
+      discard(pooled, client);
+    }
+  }
+
+  /**
+   * Gives back a client acquired from this pool, so that its
+   * connection can be used again. The client is closed instead if its
+   * connection has been lost or if the pool has been closed.
+   *
+   * @param client the client.
+   * @exception IllegalArgumentException if the client was not
+   *   acquired from this pool.
+   */
+  final public void release(Object client)
+  {
+    Host pooled;
+    synchronized (this)
+    {
+      pooled = remove(client);
+      if (!closed && isConnected(client))
+      {
+        pooled.idle.addLast(new Idle(client));
+        notifyAll();
+        return;
+      }
+    }
+    discard(pooled, client);
+  }
+
+  /**
+   * Closes a client acquired from this pool and removes it from the
+   * pool, when its connection should not be used again, for example
+   * after an error in the middle of an exchange.
+   *
+   * @param client the client.
+   * @exception IllegalArgumentException if the client was not
+   *   acquired from this pool.
+   */
+  final public void invalidate(Object client)
+  {
+    Host pooled;
+    synchronized (this)
+    {
+      pooled = remove(client);
+    }
+    discard(pooled, client);
+  }
+
+  /**
+   * Closes the pool and the connections not in use. The clients
+   * in use are closed when they are released.
+   */
+  final public void close()
+  {
+    List unused = new ArrayList();
+    synchronized (this)
+    {
+      if (closed)
+        return;
+
+      closed = true;
+      for (Iterator i = hosts.values().iterator(); i.hasNext(); )
+      {
+        Host pooled = (Host)i.next();
+        while (!pooled.idle.isEmpty())
+        {
+          unused.add(((Idle)pooled.idle.removeFirst()).client);
+          pooled.size--;
+        }
+      }
+      notifyAll();
+    }
+
+    for (int i=0; i<unused.size(); i++)
+    {
+      closeClient(unused.get(i));
+    }
+    if (evictor != null)
+      evictor.interrupt();
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return true if the pool has been closed.
+   */
+  final public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  /**
+   * Sets the maximum number of clients connected to the same host
+   * and port, whether in use or not.
+   *
+   * @param maxSize the maximum number of clients.
+   * @exception IllegalArgumentException if the size is not positive.
+   */
+  final public synchronized void setMaxSize(int maxSize)
+  {
+    if (maxSize <= 0)
+      throw new IllegalArgumentException("size must be positive");
+    this.maxSize = maxSize;
+    notifyAll();
+  }
+
+  /**
+   * @return the maximum number of clients per host and port.
+   */
+  final public synchronized int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Sets the time after which a connection not used is closed.
+   *
+   * @param millis the maximum idle time, in milliseconds.
+   * @exception IllegalArgumentException if the time is not positive.
+   */
+  final public synchronized void setMaxIdleTime(long millis)
+  {
+    if (millis <= 0)
+      throw new IllegalArgumentException("time must be positive");
+    maxIdleTime = millis;
+    if (evictor != null)
+      evictor.interrupt();  // the period of the checks changes
+  }
+
+  /**
+   * @return the maximum idle time, in milliseconds.
+   */
+  final public synchronized long getMaxIdleTime()
+  {
+    return maxIdleTime;
+  }
+
+  /**
+   * Sets the time <code>acquire</code> waits for a client when
+   * the maximum number of clients is reached.
+   *
+   * @param millis the maximum waiting time, in milliseconds.
+   */
+  final public synchronized void setMaxWait(long millis)
+  {
+    maxWait = Math.max(0, millis);
+  }
+
+  /**
+   * @return the maximum waiting time, in milliseconds.
+   */
+  final public synchronized long getMaxWait()
+  {
+    return maxWait;
+  }
+
+  /**
+   * @return the number of clients in use.
+   */
+  final public synchronized int getActiveCount()
+  {
+    return acquired.size();
+  }
+
+  /**
+   * @return the number of connected clients waiting to be used.
+   */
+  final public synchronized int getIdleCount()
+  {
+    int count = 0;
+    for (Iterator i = hosts.values().iterator(); i.hasNext(); )
+    {
+      count += ((Host)i.next()).idle.size();
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of clients created since the pool was
+   *   constructed.
+   */
+  final public synchronized long getCreatedCount()
+  {
+    return createdCount;
+  }
+
+  /**
+   * @return the number of times a connection in the pool was used
+   *   instead of opening a new one.
+   */
+  final public synchronized long getReusedCount()
+  {
+    return reusedCount;
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  /**
+   * Creates a client for a server. The client must not be connected;
+   * the pool opens its connection. This MUST be implemented by
+   * subclasses.
+   *
+   * @param host the server's host name.
+   * @param port the port number.
+   * @return an <code>AbstractClient</code> or an
+   *   <code>ObservableClient</code>.
+   */
+  protected abstract Object createClient(String host, int port);
+
+  /**
+   * Hook method called before a client of the pool is used again,
+   * to check that its connection still works. The default
+   * implementation only checks that the client is connected;
+   * it may be overridden, for example to exchange a message with
+   * the server.
+   *
+   * @param client the client.
+   * @return true if the client can be used.
+   */
+  protected boolean isHealthy(Object client)
+  {
+    return isConnected(client);
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Returns the clients of a host and port, creating the entry
+   * if needed.
+   */
+  private Host getHost(String host, int port)
+  {
+    String key = host + ":" + port;
+    Host pooled = (Host)hosts.get(key);
+    if (pooled == null)
+    {
+      pooled = new Host(key, host, port);
+      hosts.put(key, pooled);
+    }
+
+    if (evictor == null)
+    {
+      evictor = new Evictor();
+      evictor.start();
+    }
+    return pooled;
+  }
+
+  /**
+   * Creates and connects a client, the place of which has been
+   * reserved in the pool.
+   */
+  private Object connect(Host pooled) throws IOException
+  {
+    Object client = null;
+    try
+    {
+      client = createClient(pooled.host, pooled.port);
+      if (!(client instanceof AbstractClient)
+        && !(client instanceof ObservableClient))
+        throw new IllegalArgumentException("not a client: " + client);
+
+      if (client instanceof AbstractClient)
+        ((AbstractClient)client).openConnection();
+      else
+        ((ObservableClient)client).openConnection();
+    }
+    catch (IOException ex)
+    {
+      discard(pooled, null);
+      throw ex;
+    }
+    catch (RuntimeException ex)
+    {
+      discard(pooled, null);
+      throw ex;
+    }
+
+    synchronized (this)
+    {
+      acquired.put(client, pooled);
+    }
+    return client;
+  }
+
+  /**
+   * Calls the health check hook, an exception meaning that the
+   * client cannot be used.
+   */
+  private boolean check(Object client)
+  {
+    try
+    {
+      return isHealthy(client);
+    }
+    catch (RuntimeException ex)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Forgets a client acquired from this pool.
+   */
+  private Host remove(Object client)
+  {
+    Host pooled = (Host)acquired.remove(client);
+    if (pooled == null)
+      throw new IllegalArgumentException("client not acquired from "
+        + "this pool: " + client);
+    return pooled;
+  }
+
+  /**
+   * Closes a client and frees its place in the pool.
+   *
+   * @param pooled the host of the client.
+   * @param client the client, or null if it could not be created.
+   */
+  private void discard(Host pooled, Object client)
+  {
+    synchronized (this)
+    {
+      pooled.size--;
+      notifyAll();
+    }
+    if (client != null)
+      closeClient(client);
+  }
+
+  /**
+   * Closes the connections lost or unused for too long.
+   * Called by the evictor thread.
+   */
+  private void evict()
+  {
+    List expired = new ArrayList();
+    synchronized (this)
+    {
+      long limit = System.currentTimeMillis() - maxIdleTime;
+      for (Iterator i = hosts.values().iterator(); i.hasNext(); )
+      {
+        Host pooled = (Host)i.next();
+        for (Iterator j = pooled.idle.iterator(); j.hasNext(); )
+        {
+          Idle idle = (Idle)j.next();
+          if (idle.since < limit || !isConnected(idle.client))
+          {
+            j.remove();
+            pooled.size--;
+            expired.add(idle.client);
+          }
+        }
+        if (pooled.size == 0)
+          i.remove();
+      }
+      if (!expired.isEmpty())
+        notifyAll();
+    }
+
+    for (int i=0; i<expired.size(); i++)
+    {
+      closeClient(expired.get(i));
+    }
+  }
+
+  /**
+   * @return true if a client is connected.
+   */
+  private static boolean isConnected(Object client)
+  {
+    if (client instanceof AbstractClient)
+      return ((AbstractClient)client).isConnected();
+    return ((ObservableClient)client).isConnected();
+  }
+
+  /**
+   * Closes the connection of a client, ignoring errors.
+   */
+  private static void closeClient(Object client)
+  {
+    try
+    {
+      if (client instanceof AbstractClient)
+        ((AbstractClient)client).closeConnection();
+      else
+        ((ObservableClient)client).closeConnection();
+    }
+    catch (IOException ex) {}
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * The clients connected to one host and port.
+   */
+  private static class Host
+  {
+    /**
+     * The "host:port" key of the entry.
+     */
+    final String key;
+
+    final String host;
+    final int port;
+
+    /**
+     * The clients not in use, the one released last at the end.
+     */
+    final LinkedList idle = new LinkedList();
+
+    /**
+     * The number of clients connected or connecting, in use or not.
+     */
+    int size = 0;
+
+    Host(String key, String host, int port)
+    {
+      this.key = key;
+      this.host = host;
+      this.port = port;
+    }
+  }
+
+  /**
+   * A client not in use, with the time it was released.
+   */
+  private static class Idle
+  {
+    final Object client;
+    final long since = System.currentTimeMillis();
+
+    Idle(Object client)
+    {
+      this.client = client;
+    }
+  }
+
+  /**
+   * The thread closing the connections unused for too long, and
+   * those that have been lost, twice per maximum idle time.
+   */
+  private class Evictor extends Thread
+  {
+    Evictor()
+    {
+      super("ClientPool evictor");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (!isClosed())
+      {
+        try
+        {
+          Thread.sleep(Math.max(1, getMaxIdleTime() / 2));
+        }
+        catch (InterruptedException ex)
+        {
+          continue;  // closed, or the idle time has changed
+        }
+        evict();
+      }
+    }
+  }
+}
+// End of ClientPool class
@@ -0,0 +1,209 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+* The <code> ClientReactor </code> class multiplexes the connections
+* of the <code>AsyncClient</code> instances on a small fixed number
+* of reactor threads shared by all the clients of the virtual
+* machine. Each client is assigned to one reactor, in a round-robin
+* fashion, when it is created; all its I/O and all its hook methods
+* are then executed by the thread of this reactor.<p>
+*
+* The reactors are created when the first asynchronous client is
+* constructed, one per available processor. Their threads are
+* daemon threads that are never stopped.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.client.AsyncClient
+*/
+final class ClientReactor
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The reactors shared by the asynchronous clients, created when
+   * first needed.
+   */
+  private static ClientReactor shared;
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The reactor threads.
+   */
+  private Loop[] loops;
+
+  /**
+   * The index of the next reactor to which a client is assigned.
+   */
+  private int next = 0;
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs and starts the reactor threads.
+   *
+   * @param threads the number of reactor threads.
+   * @exception IOException if a selector cannot be opened.
+   */
+  private ClientReactor(int threads) throws IOException
+  {
+    loops = new Loop[threads];
+    for (int i=0; i<threads; i++)
+    {
+      loops[i] = new Loop(i+1);
+    }
+    for (int i=0; i<threads; i++)
+    {
+      loops[i].start();
+    }
+  }
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Returns the reactors shared by the asynchronous clients,
+   * creating them if needed.
+   *
+   * @return the shared reactors.
+   * @exception IllegalStateException if a selector cannot be opened.
+   */
+  static synchronized ClientReactor getDefault()
+  {
+    if (shared == null)
+    {
+      try
+      {
+        shared = new ClientReactor(Runtime.getRuntime().availableProcessors());
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException("cannot open a selector: " + ex);
+      }
+    }
+    return shared;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Returns the reactor to which the next client is assigned.
+   *
+   * @return a reactor thread.
+   */
+  synchronized Loop nextLoop()
+  {
+    Loop loop = loops[next];
+    next = (next+1) % loops.length;
+    return loop;
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A reactor thread: runs the tasks given to it, then waits on its
+   * selector and lets the connections ready perform their I/O.
+   */
+  static class Loop extends Thread
+  {
+    /**
+     * The selector of this reactor.
+     */
+    private Selector selector;
+
+    /**
+     * The tasks waiting to be run by this reactor.
+     */
+    private List tasks = new ArrayList();
+
+    Loop(int number) throws IOException
+    {
+      super("AsyncClient reactor " + number);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    /**
+     * @return the selector of this reactor.
+     */
+    Selector getSelector()
+    {
+      return selector;
+    }
+
+    /**
+     * Asks the reactor to run a task. Tasks are run in the order
+     * they are given, before the I/O of the channels ready.
+     *
+     * @param task the task to be run.
+     */
+    void execute(Runnable task)
+    {
+      synchronized (tasks)
+      {
+        tasks.add(task);
+      }
+      selector.wakeup();
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        try
+        {
+          selector.select();
+        }
+        catch (IOException ex)
+        {
+          return;  // the selector is no longer usable
+        }
+        runTasks();
+
+        Iterator keys = selector.selectedKeys().iterator();
+        while (keys.hasNext())
+        {
+          SelectionKey key = (SelectionKey)keys.next();
+          keys.remove();
+
+          ((AsyncClient.Connection)key.attachment()).process(key);
+        }
+      }
+    }
+
+    /**
+     * Runs the pending tasks. An exception thrown by a task does
+     * not stop the reactor.
+     */
+    private void runTasks()
+    {
+      Runnable[] pending;
+      synchronized (tasks)
+      {
+        pending = (Runnable[])tasks.toArray(new Runnable[tasks.size()]);
+        tasks.clear();
+      }
+
+      for (int i=0; i<pending.length; i++)
+      {
+        try
+        {
+          pending[i].run();
+        }
+        catch (RuntimeException ex) {}
+      }
+    }
+  }
+}
+// End of ClientReactor class
@@ -7,11 +7,24 @@ package com.lloseng.ocsf.client;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import com.lloseng.ocsf.common.EventBus;
+import com.lloseng.ocsf.common.FlushPolicy;
+import com.lloseng.ocsf.common.MessageCodec;
+import com.lloseng.ocsf.common.ReconnectPolicy;
+import com.lloseng.ocsf.common.ResetPolicy;
 
 /**
  * This class acts as a subclass of <code>AbstractClient</code>
  * and is also an <code>Observable</code> class.
- * Each time a new message is received, observers are notified.
+ * Each time a new message is received, observers are notified.<p>
+ *
+ * Since version 2.4, each notification is also published, as a
+ * <code>ClientEvent</code>, on the event bus returned by
+ * <code>getEventBus()</code>. The handlers of the bus are called
+ * without locking the client and receive typed events instead of
+ * the <code>"#OC:"</code> strings. The client can also reconnect by
+ * itself when the connection is lost, see
+ * <code>setReconnectPolicy()</code>.
  *
  * @author Dr Robert Lagani&egrave;re
  * @author Dr Timothy C. Lethbridge
@@ -32,6 +45,24 @@ public class ObservableClient extends Observable
    */
   public static final String CONNECTION_ESTABLISHED = "#OC:Connection established.";
 
+  /**
+   * Indicates an attempt to reconnect to the server.
+   * Added in version 2.4
+   */
+  public static final String RECONNECTING = "#OC:Reconnecting.";
+
+  /**
+   * Indicates that the client has reconnected to the server.
+   * Added in version 2.4
+   */
+  public static final String RECONNECTED = "#OC:Reconnected.";
+
+  /**
+   * Indicates that the client has given up reconnecting to the server.
+   * Added in version 2.4
+   */
+  public static final String RECONNECT_FAILED = "#OC:Reconnect failed.";
+
   //Instance variables **********************************************
 
   /**
@@ -39,6 +70,18 @@ public class ObservableClient extends Observable
    */
   private AdaptableClient service;
 
+  /**
+   * The bus on which the events of the client are published.
+   * Added in version 2.4
+   */
+  private final EventBus eventBus = new EventBus();
+
+  /**
+   * Indicates if observers have been registered with
+   * <code>addObserver</code>. Added in version 2.4
+   */
+  private volatile boolean observed = false;
+
   //Constructor *****************************************************
 
   public ObservableClient(String host, int port)
@@ -85,6 +128,15 @@ public class ObservableClient extends Observable
     return service.isConnected();
   }
 
+  /**
+   * @return true if the connection has been lost and the client is
+   *   reconnecting.
+   */
+  final public boolean isReconnecting()
+  {
+    return service.isReconnecting();
+  }
+
   /**
    * @return the port number.
    */
@@ -104,6 +156,94 @@ public class ObservableClient extends Observable
     service.setPort(port);
   }
 
+  /**
+   * Sets whether messages are exchanged as length-prefixed frames.
+   * Only has effect if the client is not currently connected.
+   *
+   * @param framed true to exchange frames.
+   */
+  final public void setFramed(boolean framed)
+  {
+    service.setFramed(framed);
+  }
+
+  /**
+   * Sets the codec used to exchange messages with the server.
+   * Only has effect if the client is not currently connected.
+   *
+   * @param codec the codec, or null to use object streams.
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    service.setCodec(codec);
+  }
+
+  /**
+   * Sets the policy deciding when the messages written to the server
+   * are actually sent. Only has effect if the client is not currently
+   * connected.
+   *
+   * @param policy the flush policy.
+   */
+  final public void setFlushPolicy(FlushPolicy policy)
+  {
+    service.setFlushPolicy(policy);
+  }
+
+  /**
+   * Sets the policy deciding when the object stream is reset.
+   * Only has effect if the client is not currently connected.
+   *
+   * @param policy the reset policy.
+   */
+  final public void setResetPolicy(ResetPolicy policy)
+  {
+    service.setResetPolicy(policy);
+  }
+
+  /**
+   * Sets the policy deciding whether the client reconnects when the
+   * connection is lost.
+   *
+   * @param policy the reconnect policy.
+   */
+  final public void setReconnectPolicy(ReconnectPolicy policy)
+  {
+    service.setReconnectPolicy(policy);
+  }
+
+  /**
+   * Sets the maximum number of messages kept while the client
+   * reconnects, to be sent once it has reconnected.
+   *
+   * @param capacity the capacity of the resend buffer, or 0.
+   */
+  final public void setResendBufferCapacity(int capacity)
+  {
+    service.setResendBufferCapacity(capacity);
+  }
+
+  /**
+   * Sets whether the Nagle algorithm is disabled on the socket.
+   * Only has effect if the client is not currently connected.
+   *
+   * @param on true to set TCP_NODELAY on the socket.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    service.setTcpNoDelay(on);
+  }
+
+  /**
+   * Sends the messages written but still held in the output buffer.
+   *
+   * @exception IOException if an I/O error occurs when sending.
+   */
+  final public void flush() throws IOException
+  {
+    service.flush();
+  }
+
   /**
    * @return the host name.
    */
@@ -132,6 +272,72 @@ public class ObservableClient extends Observable
   }
 
 
+  /**
+   * Returns the bus on which the events of the client are published.
+   * Added in version 2.4
+   *
+   * @return the event bus.
+   * @see com.lloseng.ocsf.client.ClientEvent
+   */
+  final public EventBus getEventBus()
+  {
+    return eventBus;
+  }
+
+  /**
+   * Adds an observer, which will be notified of the events of the
+   * client with the arguments defined by this class.
+   *
+   * @param observer the observer.
+   */
+  public synchronized void addObserver(Observer observer)
+  {
+    super.addObserver(observer);
+    observed = countObservers() > 0;
+  }
+
+  /**
+   * Removes an observer.
+   *
+   * @param observer the observer.
+   */
+  public synchronized void deleteObserver(Observer observer)
+  {
+    super.deleteObserver(observer);
+    observed = countObservers() > 0;
+  }
+
+  /**
+   * Removes every observer.
+   */
+  public synchronized void deleteObservers()
+  {
+    super.deleteObservers();
+    observed = false;
+  }
+
+  /**
+   * Publishes an event on the event bus, then notifies the observers,
+   * if any, with the argument they expect. Added in version 2.4
+   *
+   * @param event the event, or null if it does not need to be published.
+   * @param arg the argument given to the observers.
+   */
+  final protected void notifyObservers(ClientEvent event, Object arg)
+  {
+    if (event != null)
+      eventBus.publish(event);
+
+    if (observed)
+    {
+      synchronized (this)
+      {
+        setChanged();
+        notifyObservers(arg);
+      }
+    }
+  }
+
   /**
    * This method is used to handle messages from the server.  This method
    * can be overriden but should always call notifyObservers().
@@ -140,8 +346,8 @@ public class ObservableClient extends Observable
    */
   protected void handleMessageFromServer(Object message)
   {
-    setChanged();
-    notifyObservers(message);
+    notifyObservers(eventBus.hasSubscribers()
+      ? new ClientEvent.MessageReceived(this, message) : null, message);
   }
 
   /**
@@ -149,8 +355,8 @@ public class ObservableClient extends Observable
    */
   protected void connectionClosed()
   {
-    setChanged();
-    notifyObservers(CONNECTION_CLOSED);
+    notifyObservers(new ClientEvent.ConnectionClosed(this),
+      CONNECTION_CLOSED);
   }
 
   /**
@@ -161,8 +367,8 @@ public class ObservableClient extends Observable
    */
   protected void connectionException(Exception exception)
   {
-    setChanged();
-    notifyObservers(exception);
+    notifyObservers(new ClientEvent.ConnectionException(this, exception),
+      exception);
   }
 
   /**
@@ -170,7 +376,44 @@ public class ObservableClient extends Observable
    */
   protected void connectionEstablished()
   {
-    setChanged();
-    notifyObservers(CONNECTION_ESTABLISHED);
+    notifyObservers(new ClientEvent.ConnectionEstablished(this),
+      CONNECTION_ESTABLISHED);
+  }
+
+  /**
+   * Hook method called before each attempt to reconnect.
+   * Added in version 2.4
+   *
+   * @param attempt the number of the attempt, starting at 1.
+   * @param delay the delay before the attempt, in ms.
+   */
+  protected void reconnecting(int attempt, long delay)
+  {
+    notifyObservers(new ClientEvent.Reconnecting(this, attempt, delay),
+      RECONNECTING);
+  }
+
+  /**
+   * Hook method called once the client has reconnected, before the
+   * messages kept meanwhile are sent. Added in version 2.4
+   *
+   * @param attempts the number of attempts made.
+   */
+  protected void reconnected(int attempts)
+  {
+    notifyObservers(new ClientEvent.Reconnected(this, attempts),
+      RECONNECTED);
+  }
+
+  /**
+   * Hook method called when the client gives up reconnecting.
+   * Added in version 2.4
+   *
+   * @param exception the exception raised by the last attempt.
+   */
+  protected void reconnectFailed(Exception exception)
+  {
+    notifyObservers(new ClientEvent.ReconnectFailed(this, exception),
+      RECONNECT_FAILED);
   }
 }
@@ -7,6 +7,10 @@ package com.lloseng.ocsf.client;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.BiConsumer;
+import com.lloseng.ocsf.common.CorrelatedMessage;
 
 /**
  * This class acts as a subclass of <code>AbstractClient</code>
@@ -14,7 +18,14 @@ import java.net.*;
  * Each time a new message is received, observers are notified.
  * This class contains two blocking methods that can be used
  * when a user wishes to send a message and then wait for a reply
- * from the server.
+ * from the server.<p>
+ *
+ * Since version 2.4, requests can also be pipelined with
+ * <code>sendRequest</code>: each request is wrapped in a
+ * <code>CorrelatedMessage</code> carrying an identifier, and the future
+ * returned is completed when the server answers with the reply made by
+ * that message. Any number of requests can then wait for their reply
+ * at the same time, without blocking the calling thread.
  *
  * @author Dr Robert Lagani&egrave;re
  * @version April 2002
@@ -37,6 +48,17 @@ public class ObservableSWRClient extends ObservableClient
   private Exception exception;
   private Object received;
 
+  /**
+   * The futures of the requests waiting for their reply, by
+   * correlation identifier. Added in version 2.4
+   */
+  private final ConcurrentHashMap pendingRequests = new ConcurrentHashMap();
+
+  /**
+   * The identifier of the next request. Added in version 2.4
+   */
+  private final AtomicLong nextCorrelationId = new AtomicLong();
+
   //Constructor *****************************************************
 
   public ObservableSWRClient(String host, int port)
@@ -158,6 +180,133 @@ public class ObservableSWRClient extends ObservableClient
       return received;
   }
 
+  /**
+   * Sends a request to the server without waiting for the reply.
+   * The request is sent as a <code>CorrelatedMessage</code>, which the
+   * server must answer with the message returned by its
+   * <code>reply</code> or <code>fail</code> method. The reply is not
+   * passed to the observers. Unlike <code>sendAndWaitForReply</code>,
+   * this method can be called by several threads at once and does not
+   * wait for the replies to previous requests.
+   * If the connection closes before the reply is received, the future
+   * is completed exceptionally. Added in version 2.4
+   *
+   * @param message the request.
+   * @return the future completed with the reply, or exceptionally with
+   *   the exception sent by the server.
+   */
+  public CompletableFuture sendRequest(Object message)
+  {
+    return sendRequest(newCorrelationId(), message);
+  }
+
+  /**
+   * Sends a request to the server without waiting for the reply, and
+   * gives up waiting after a delay. The future is then completed
+   * exceptionally with a <code>TimeoutException</code>, and a reply
+   * received later is passed to the observers. Added in version 2.4
+   *
+   * @param message the request.
+   * @param timeout the delay in ms.
+   * @return the future completed with the reply.
+   * @see #sendRequest(Object)
+   */
+  public CompletableFuture sendRequest(Object message, long timeout)
+  {
+    final Long id = newCorrelationId();
+    final CompletableFuture future = sendRequest(id, message);
+    future.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete(
+      new BiConsumer()
+      {
+        public void accept(Object reply, Object failure)
+        {
+          if (failure != null)
+            pendingRequests.remove(id, future);
+        }
+      });
+    return future;
+  }
+
+  /**
+   * Returns the number of requests waiting for their reply.
+   * Added in version 2.4
+   *
+   * @return the number of pending requests.
+   */
+  public int getPendingRequests()
+  {
+    return pendingRequests.size();
+  }
+
+  /**
+   * Returns the identifier of a new request.
+   */
+  private Long newCorrelationId()
+  {
+    return Long.valueOf(nextCorrelationId.incrementAndGet());
+  }
+
+  /**
+   * Sends a request with a given identifier, and keeps its future
+   * until the reply is received.
+   *
+   * @param id the identifier of the request.
+   * @param message the request.
+   * @return the future completed with the reply.
+   */
+  private CompletableFuture sendRequest(Long id, Object message)
+  {
+    CompletableFuture future = new CompletableFuture();
+    pendingRequests.put(id, future);
+
+    try
+    {
+      sendToServer(new CorrelatedMessage(id.longValue(), message));
+    }
+    catch (IOException ex)
+    {
+      pendingRequests.remove(id);
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  /**
+   * Completes the future of the request a reply answers.
+   *
+   * @param reply the reply.
+   * @return false if no request waits for this reply.
+   */
+  private boolean completeRequest(CorrelatedMessage reply)
+  {
+    CompletableFuture future = (CompletableFuture)pendingRequests.remove(
+      Long.valueOf(reply.getCorrelationId()));
+    if (future == null)
+      return false;
+
+    if (reply.isFailed())
+      future.completeExceptionally((Throwable)reply.getBody());
+    else
+      future.complete(reply.getBody());
+    return true;
+  }
+
+  /**
+   * Completes exceptionally the futures of all the pending requests.
+   *
+   * @param cause the exception.
+   */
+  private void failRequests(Throwable cause)
+  {
+    for (Iterator i = pendingRequests.keySet().iterator(); i.hasNext(); )
+    {
+      CompletableFuture future =
+        (CompletableFuture)pendingRequests.remove(i.next());
+      if (future != null)
+        future.completeExceptionally(cause);
+    }
+  }
+
   /**
    * Cancels the exchange with the server.
    *
@@ -206,15 +355,21 @@ public class ObservableSWRClient extends ObservableClient
   /**
    * This method is used to handle messages from the server.  This method
    * can be overriden but should always call notifyObservers().
+   * Since version 2.4, a reply to a pending request completes the future
+   * of that request instead of being passed to the observers.
    *
    * @param message The message received from the client.
    */
   protected void handleMessageFromServer(Object message)
   {
+    if (message instanceof CorrelatedMessage  // added in version 2.4
+      && completeRequest((CorrelatedMessage)message))
+      return;
+
     receive(message);
 
-    setChanged();
-    notifyObservers(message);
+    notifyObservers(getEventBus().hasSubscribers()
+      ? new ClientEvent.MessageReceived(this, message) : null, message);
   }
 
   /**
@@ -223,9 +378,10 @@ public class ObservableSWRClient extends ObservableClient
   protected void connectionClosed()
   {
     notify(null);
+    failRequests(new SocketException("connection closed"));  // added in version 2.4
 
-    setChanged();
-    notifyObservers(CONNECTION_CLOSED);
+    notifyObservers(new ClientEvent.ConnectionClosed(this),
+      CONNECTION_CLOSED);
   }
 
   /**
@@ -238,8 +394,8 @@ public class ObservableSWRClient extends ObservableClient
   {
     notify(exception);
 
-    setChanged();
-    notifyObservers(exception);
+    notifyObservers(new ClientEvent.ConnectionException(this, exception),
+      exception);
   }
 
   /**
@@ -249,7 +405,7 @@ public class ObservableSWRClient extends ObservableClient
   {
     receive(CONNECTION_ESTABLISHED);
 
-    setChanged();
-    notifyObservers(CONNECTION_ESTABLISHED);
+    notifyObservers(new ClientEvent.ConnectionEstablished(this),
+      CONNECTION_ESTABLISHED);
   }
 }
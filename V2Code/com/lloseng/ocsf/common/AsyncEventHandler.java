@@ -0,0 +1,460 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.util.*;
+
+/**
+* The <code> AsyncEventHandler </code> class isolates a slow event
+* handler, or a slow <code>Observer</code>, from the threads that
+* publish the events. The events are put in a bounded queue owned
+* by the handler and delivered, in order, by a thread dedicated to
+* it, so that publishing an event only takes the time needed to
+* queue it.<p>
+*
+* When the queue is full, the overflow policy decides what happens
+* to a new event:
+* <ul>
+* <li> <code>OVERFLOW_BLOCK</code> makes the publishing thread wait
+* until there is room in the queue, slowing down the publisher to the
+* pace of the handler. No event is lost.
+* <li> <code>OVERFLOW_DROP_OLDEST</code> discards the oldest event
+* queued to make room for the new one.
+* <li> <code>OVERFLOW_CONFLATE</code> discards all the events queued,
+* so that the handler only receives the latest one. This suits the
+* handlers only interested in the current state, such as a display.
+* </ul>
+* The number of events discarded is given by
+* <code>getDroppedCount</code>.<p>
+*
+* A <code>RuntimeException</code> thrown by the wrapped handler or
+* observer does not stop the delivery of the next events. It is
+* counted, as returned by <code>getExceptionCount</code>, and given to
+* the <code>handlerException</code> hook method, as the event bus does
+* for the handlers it calls.<p>
+*
+* An asynchronous handler can subscribe to an <code>EventBus</code>
+* or, when it wraps an <code>Observer</code>, be added as an observer
+* to an observable server or client.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.EventBus
+* @see com.lloseng.ocsf.server.ObservableServer#addObserver(Observer, int, int)
+*/
+public class AsyncEventHandler implements EventHandler, Observer
+{
+  // Class variables ************************************************
+
+  /**
+   * Overflow policy by which the publishing thread waits for room
+   * in the queue.
+   */
+  public static final int OVERFLOW_BLOCK = 0;
+
+  /**
+   * Overflow policy by which the oldest event queued is discarded.
+   */
+  public static final int OVERFLOW_DROP_OLDEST = 1;
+
+  /**
+   * Overflow policy by which the events queued are replaced by the
+   * new one.
+   */
+  public static final int OVERFLOW_CONFLATE = 2;
+
+  // Instance variables *********************************************
+
+  /**
+   * The handler the events are delivered to, or null if an observer
+   * is wrapped.
+   */
+  private final EventHandler handler;
+
+  /**
+   * The observer the notifications are delivered to, or null if a
+   * handler is wrapped.
+   */
+  private final Observer observer;
+
+  /**
+   * The maximum number of events queued.
+   */
+  private final int capacity;
+
+  /**
+   * What to do with a new event when the queue is full.
+   */
+  private final int overflowPolicy;
+
+  /**
+   * The events waiting to be delivered. When an observer is
+   * wrapped, each observable is queued before its argument.
+   */
+  private final LinkedList queue = new LinkedList();
+
+  /**
+   * The number of events discarded.
+   */
+  private long droppedCount = 0;
+
+  /**
+   * The number of exceptions thrown by the handler or the observer.
+   * Only written by the delivery thread.
+   */
+  private volatile long exceptionCount = 0;
+
+  /**
+   * Set once the handler has been closed.
+   */
+  private boolean closed = false;
+
+  /**
+   * The thread delivering the events.
+   */
+  private final Thread thread;
+
+  // Constructors ***************************************************
+
+  /**
+   * Constructs an asynchronous handler delivering the events to
+   * another handler, with a platform thread.
+   *
+   * @param handler the handler receiving the events.
+   * @param capacity the maximum number of events queued.
+   * @param overflowPolicy the overflow policy.
+   */
+  public AsyncEventHandler(EventHandler handler, int capacity,
+    int overflowPolicy)
+  {
+    this(handler, null, capacity, overflowPolicy, false);
+  }
+
+  /**
+   * Constructs an asynchronous handler delivering the events to
+   * another handler.
+   *
+   * @param handler the handler receiving the events.
+   * @param capacity the maximum number of events queued.
+   * @param overflowPolicy the overflow policy.
+   * @param virtualThread true to deliver the events with a virtual
+   *   thread.
+   * @exception UnsupportedOperationException if virtual threads
+   *   are requested and not supported by the platform.
+   */
+  public AsyncEventHandler(EventHandler handler, int capacity,
+    int overflowPolicy, boolean virtualThread)
+  {
+    this(handler, null, capacity, overflowPolicy, virtualThread);
+  }
+
+  /**
+   * Constructs an asynchronous handler delivering the notifications
+   * it receives as an observer to another observer, with a platform
+   * thread.
+   *
+   * @param observer the observer receiving the notifications.
+   * @param capacity the maximum number of notifications queued.
+   * @param overflowPolicy the overflow policy.
+   */
+  public AsyncEventHandler(Observer observer, int capacity,
+    int overflowPolicy)
+  {
+    this(null, observer, capacity, overflowPolicy, false);
+  }
+
+  /**
+   * Constructs an asynchronous handler delivering the notifications
+   * it receives as an observer to another observer.
+   *
+   * @param observer the observer receiving the notifications.
+   * @param capacity the maximum number of notifications queued.
+   * @param overflowPolicy the overflow policy.
+   * @param virtualThread true to deliver the notifications with a
+   *   virtual thread.
+   * @exception UnsupportedOperationException if virtual threads
+   *   are requested and not supported by the platform.
+   */
+  public AsyncEventHandler(Observer observer, int capacity,
+    int overflowPolicy, boolean virtualThread)
+  {
+    this(null, observer, capacity, overflowPolicy, virtualThread);
+  }
+
+  /**
+   * Constructs the handler and starts its thread.
+   */
+  private AsyncEventHandler(EventHandler handler, Observer observer,
+    int capacity, int overflowPolicy, boolean virtualThread)
+  {
+    if (handler == null && observer == null)
+      throw new NullPointerException("null handler");
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive");
+    if (overflowPolicy < OVERFLOW_BLOCK || overflowPolicy > OVERFLOW_CONFLATE)
+      throw new IllegalArgumentException("unknown overflow policy: "
+        + overflowPolicy);
+
+    this.handler = handler;
+    this.observer = observer;
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+
+    Runnable delivery = new Runnable()
+    {
+      public void run()
+      {
+        deliver();
+      }
+    };
+    String name = "AsyncEventHandler "
+      + (handler != null ? handler : (Object)observer);
+
+    if (virtualThread)
+      thread = VirtualThreads.start(name, delivery);
+    else
+    {
+      thread = new Thread(delivery, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * Queues an event, to be delivered to the handler wrapped.
+   *
+   * @param event the event.
+   */
+  public void handleEvent(Object event)
+  {
+    offer(null, event);
+  }
+
+  /**
+   * Queues a notification, to be delivered to the observer wrapped.
+   *
+   * @param observable the observable notifying.
+   * @param arg the argument of the notification.
+   */
+  public void update(Observable observable, Object arg)
+  {
+    offer(observable, arg);
+  }
+
+  /**
+   * Stops the handler. The events already queued are delivered;
+   * the events received afterward are ignored.
+   */
+  public synchronized void close()
+  {
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * @return true if the handler has been closed.
+   */
+  final public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  /**
+   * @return the number of events waiting to be delivered.
+   */
+  final public synchronized int getQueueSize()
+  {
+    return observer == null ? queue.size() : queue.size() / 2;
+  }
+
+  /**
+   * @return the maximum number of events queued.
+   */
+  final public int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * @return the overflow policy.
+   */
+  final public int getOverflowPolicy()
+  {
+    return overflowPolicy;
+  }
+
+  /**
+   * @return the number of events discarded because the queue was full.
+   */
+  final public synchronized long getDroppedCount()
+  {
+    return droppedCount;
+  }
+
+  /**
+   * @return the number of <code>RuntimeException</code> thrown by the
+   *   handler or the observer wrapped.
+   */
+  final public long getExceptionCount()
+  {
+    return exceptionCount;
+  }
+
+  /**
+   * @return the handler wrapped, or null if an observer is wrapped.
+   */
+  final public EventHandler getHandler()
+  {
+    return handler;
+  }
+
+  /**
+   * @return the observer wrapped, or null if a handler is wrapped.
+   */
+  final public Observer getObserver()
+  {
+    return observer;
+  }
+
+  /**
+   * @return a string representation of the handler.
+   */
+  public String toString()
+  {
+    return "AsyncEventHandler(" + (handler != null ? handler : (Object)observer)
+      + ")";
+  }
+
+  /**
+   * Queues an event, applying the overflow policy if the queue is full.
+   * The delivery thread itself never waits, so that a handler
+   * publishing events cannot block itself.
+   */
+  private synchronized void offer(Observable observable, Object event)
+  {
+    if (closed)
+      return;
+
+    if (getQueueSize() >= capacity)
+    {
+      switch (overflowPolicy)
+      {
+        case OVERFLOW_BLOCK:
+          if (Thread.currentThread() == thread)
+            break;
+
+          try
+          {
+            while (!closed && getQueueSize() >= capacity)
+            {
+              wait();
+            }
+          }
+          catch (InterruptedException ex)
+          {
+            Thread.currentThread().interrupt();
+            droppedCount++;
+            return;
+          }
+          if (closed)
+            return;
+          break;
+
+        case OVERFLOW_DROP_OLDEST:
+          removeFirst();
+          droppedCount++;
+          break;
+
+        default:
+          droppedCount += getQueueSize();
+          queue.clear();
+      }
+    }
+
+    if (observer != null)
+      queue.addLast(observable);
+    queue.addLast(event);
+    notifyAll();
+  }
+
+  /**
+   * Removes the oldest event queued.
+   */
+  private void removeFirst()
+  {
+    if (observer != null)
+      queue.removeFirst();
+    queue.removeFirst();
+  }
+
+  /**
+   * Delivers the events queued until the handler is closed.
+   * Called by the delivery thread.
+   */
+  private void deliver()
+  {
+    while (true)
+    {
+      Observable observable = null;
+      Object event;
+
+      synchronized (this)
+      {
+        while (queue.isEmpty() && !closed)
+        {
+          try
+          {
+            wait();
+          }
+          catch (InterruptedException ex) {}
+        }
+        if (queue.isEmpty())
+          return;  // closed, and all events delivered
+
+        if (observer != null)
+          observable = (Observable)queue.removeFirst();
+        event = queue.removeFirst();
+        notifyAll();  // there is room for a blocked publisher
+      }
+
+      try
+      {
+        if (observer != null)
+          observer.update(observable, event);
+        else
+          handler.handleEvent(event);
+      }
+      catch (RuntimeException ex)  // the thread must go on
+      {
+        exceptionCount++;
+        try
+        {
+          handlerException(event, ex);
+        }
+        catch (RuntimeException exc) {}
+      }
+    }
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  /**
+   * Hook method called by the delivery thread when the handler or
+   * the observer wrapped throws an exception. The next events are
+   * delivered once it returns. The default implementation does
+   * nothing.
+   *
+   * @param event the event, or the argument of the notification,
+   *   being delivered.
+   * @param exception the exception thrown.
+   */
+  protected void handlerException(Object event, RuntimeException exception) {}
+}
+// End of AsyncEventHandler class
@@ -0,0 +1,361 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* The <code> CompactBinaryCodec </code> class encodes messages made of
+* simple values in a compact binary format. Each value starts with a
+* one-byte tag; integers and lengths are written as variable-length
+* quantities, so that small values take a single byte.<p>
+*
+* The supported values are <code>null</code>, the wrappers of the
+* primitive types, <code>String</code>, <code>byte[]</code>, and
+* lists and maps of supported values. Lists and object arrays are
+* received as <code>ArrayList</code> instances, maps as
+* <code>LinkedHashMap</code> instances. No class is ever loaded when
+* decoding, which makes this codec safe to use with untrusted peers.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class CompactBinaryCodec implements MessageCodec
+{
+  // Class variables ************************************************
+
+  private static final int NULL = 0;
+  private static final int TRUE = 1;
+  private static final int FALSE = 2;
+  private static final int BYTE = 3;
+  private static final int SHORT = 4;
+  private static final int CHAR = 5;
+  private static final int INT = 6;
+  private static final int LONG = 7;
+  private static final int FLOAT = 8;
+  private static final int DOUBLE = 9;
+  private static final int STRING = 10;
+  private static final int BYTES = 11;
+  private static final int LIST = 12;
+  private static final int MAP = 13;
+
+  /**
+   * The maximum nesting of lists and maps.
+   */
+  private static final int MAX_DEPTH = 64;
+
+  // Instance methods ***********************************************
+
+  /**
+   * Writes the compact encoding of a message.
+   *
+   * @param message the message to be encoded.
+   * @param out the stream receiving the body of the frame.
+   * @exception NotSerializableException if the message contains
+   *    an unsupported value.
+   * @exception IOException if an I/O error occurs.
+   */
+  public void encode(Object message, OutputStream out) throws IOException
+  {
+    write(message, out, 0);
+  }
+
+  /**
+   * Decodes the body of a frame.
+   *
+   * @param body the array containing the body.
+   * @param offset the offset of the body in the array.
+   * @param length the length of the body.
+   * @return the decoded message.
+   * @exception IOException if the body is not valid.
+   */
+  public Object decode(byte[] body, int offset, int length)
+    throws IOException
+  {
+    Reader reader = new Reader(body, offset, offset + length);
+    Object message = reader.read(0);
+
+    if (reader.position != reader.end)
+      throw new StreamCorruptedException("unexpected bytes after message");
+
+    return message;
+  }
+
+  /**
+   * Writes one value with its tag.
+   */
+  private static void write(Object value, OutputStream out, int depth)
+    throws IOException
+  {
+    if (depth > MAX_DEPTH)
+      throw new NotSerializableException("values nested too deeply");
+
+    if (value == null)
+    {
+      out.write(NULL);
+    }
+    else if (value instanceof String)
+    {
+      out.write(STRING);
+      writeBytes(((String)value).getBytes("UTF-8"), out);
+    }
+    else if (value instanceof Integer)
+    {
+      out.write(INT);
+      writeVarLong(zigZag(((Integer)value).intValue()), out);
+    }
+    else if (value instanceof Long)
+    {
+      out.write(LONG);
+      writeVarLong(zigZag(((Long)value).longValue()), out);
+    }
+    else if (value instanceof Boolean)
+    {
+      out.write(((Boolean)value).booleanValue() ? TRUE : FALSE);
+    }
+    else if (value instanceof Double)
+    {
+      out.write(DOUBLE);
+      writeFixed(Double.doubleToLongBits(((Double)value).doubleValue()), 8, out);
+    }
+    else if (value instanceof Float)
+    {
+      out.write(FLOAT);
+      writeFixed(Float.floatToIntBits(((Float)value).floatValue()), 4, out);
+    }
+    else if (value instanceof Short)
+    {
+      out.write(SHORT);
+      writeVarLong(zigZag(((Short)value).shortValue()), out);
+    }
+    else if (value instanceof Byte)
+    {
+      out.write(BYTE);
+      out.write(((Byte)value).byteValue());
+    }
+    else if (value instanceof Character)
+    {
+      out.write(CHAR);
+      writeVarLong(((Character)value).charValue(), out);
+    }
+    else if (value instanceof byte[])
+    {
+      out.write(BYTES);
+      writeBytes((byte[])value, out);
+    }
+    else if (value instanceof Object[])
+    {
+      write(Arrays.asList((Object[])value), out, depth);
+    }
+    else if (value instanceof List)
+    {
+      List list = (List)value;
+      out.write(LIST);
+      writeVarLong(list.size(), out);
+      for (Iterator i = list.iterator(); i.hasNext(); )
+      {
+        write(i.next(), out, depth+1);
+      }
+    }
+    else if (value instanceof Map)
+    {
+      Map map = (Map)value;
+      out.write(MAP);
+      writeVarLong(map.size(), out);
+      for (Iterator i = map.entrySet().iterator(); i.hasNext(); )
+      {
+        Map.Entry entry = (Map.Entry)i.next();
+        write(entry.getKey(), out, depth+1);
+        write(entry.getValue(), out, depth+1);
+      }
+    }
+    else
+    {
+      throw new NotSerializableException(value.getClass().getName());
+    }
+  }
+
+  private static void writeBytes(byte[] bytes, OutputStream out)
+    throws IOException
+  {
+    writeVarLong(bytes.length, out);
+    out.write(bytes);
+  }
+
+  /**
+   * Writes an unsigned value, 7 bits per byte, least significant first.
+   */
+  private static void writeVarLong(long value, OutputStream out)
+    throws IOException
+  {
+    while ((value & ~0x7FL) != 0)
+    {
+      out.write((int)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int)value);
+  }
+
+  /**
+   * Writes the given number of bytes of a value, most significant first.
+   */
+  private static void writeFixed(long value, int bytes, OutputStream out)
+    throws IOException
+  {
+    for (int shift = (bytes-1)*8; shift >= 0; shift -= 8)
+    {
+      out.write((int)(value >>> shift));
+    }
+  }
+
+  /**
+   * Maps signed values to unsigned ones so that small negative
+   * numbers also have a short encoding.
+   */
+  private static long zigZag(long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  // Inner class ****************************************************
+
+  /**
+   * Reads the values of a frame body.
+   */
+  private static class Reader
+  {
+    private byte[] bytes;
+    private int position;
+    private int end;
+
+    Reader(byte[] bytes, int position, int end)
+    {
+      this.bytes = bytes;
+      this.position = position;
+      this.end = end;
+    }
+
+    Object read(int depth) throws IOException
+    {
+      if (depth > MAX_DEPTH)
+        throw new StreamCorruptedException("values nested too deeply");
+
+      int tag = next();
+      switch (tag)
+      {
+        case NULL:
+          return null;
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case BYTE:
+          return Byte.valueOf((byte)next());
+        case SHORT:
+          return Short.valueOf((short)unZigZag(readVarLong()));
+        case CHAR:
+          return Character.valueOf((char)readVarLong());
+        case INT:
+          return Integer.valueOf((int)unZigZag(readVarLong()));
+        case LONG:
+          return Long.valueOf(unZigZag(readVarLong()));
+        case FLOAT:
+          return Float.valueOf(Float.intBitsToFloat((int)readFixed(4)));
+        case DOUBLE:
+          return Double.valueOf(Double.longBitsToDouble(readFixed(8)));
+        case STRING:
+        {
+          int length = readLength(1);
+          position += length;
+          return new String(bytes, position - length, length, "UTF-8");
+        }
+        case BYTES:
+        {
+          byte[] value = new byte[readLength(1)];
+          System.arraycopy(bytes, position, value, 0, value.length);
+          position += value.length;
+          return value;
+        }
+        case LIST:
+        {
+          int size = readLength(1);
+          List list = new ArrayList(size);
+          for (int i=0; i<size; i++)
+          {
+            list.add(read(depth+1));
+          }
+          return list;
+        }
+        case MAP:
+        {
+          int size = readLength(2);
+          Map map = new LinkedHashMap();
+          for (int i=0; i<size; i++)
+          {
+            Object key = read(depth+1);
+            map.put(key, read(depth+1));
+          }
+          return map;
+        }
+        default:
+          throw new StreamCorruptedException("unknown tag: " + tag);
+      }
+    }
+
+    private int next() throws IOException
+    {
+      if (position >= end)
+        throw new EOFException();
+
+      return bytes[position++] & 0xFF;
+    }
+
+    private long readVarLong() throws IOException
+    {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7)
+      {
+        int b = next();
+        value |= (long)(b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+          return value;
+      }
+      throw new StreamCorruptedException("malformed variable-length value");
+    }
+
+    private long readFixed(int count) throws IOException
+    {
+      long value = 0;
+      for (int i=0; i<count; i++)
+      {
+        value = (value << 8) | next();
+      }
+      return value;
+    }
+
+    /**
+     * Reads a length and checks that the remaining bytes can hold
+     * that many elements of the given minimal size.
+     */
+    private int readLength(int elementSize) throws IOException
+    {
+      long length = readVarLong();
+      if (length < 0 || length * elementSize > end - position)
+        throw new StreamCorruptedException("invalid length: " + length);
+
+      return (int)length;
+    }
+
+    private static long unZigZag(long value)
+    {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
+// End of CompactBinaryCodec class
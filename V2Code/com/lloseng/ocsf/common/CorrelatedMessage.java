@@ -0,0 +1,136 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+
+/**
+* The <code> CorrelatedMessage </code> class wraps a request, or the
+* reply to a request, with the identifier the client gave to the
+* request. The server answers a request by sending the message
+* returned by <code>reply</code> or <code>fail</code>, which carries
+* the same identifier, so that the client can match the reply with
+* its request while other requests are still waiting for theirs.<p>
+*
+* Correlated messages are serializable objects; they can be exchanged
+* with object streams or with the <code>SerializedCodec</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.client.ObservableSWRClient#sendRequest
+*/
+public final class CorrelatedMessage implements Serializable
+{
+  // Class variables ************************************************
+
+  /**
+   * The version of the serialized form, so that clients and servers
+   * compiled separately can exchange correlated messages.
+   */
+  private static final long serialVersionUID = 3432742648808456520L;
+
+  // Instance variables *********************************************
+
+  /**
+   * The identifier of the request.
+   */
+  private final long correlationId;
+
+  /**
+   * The request, the reply, or the exception raised by the request.
+   */
+  private final Object body;
+
+  /**
+   * Indicates that the body is the exception raised by the request.
+   */
+  private final boolean failed;
+
+  // Constructor ****************************************************
+
+  /**
+   * Constructs a request.
+   *
+   * @param correlationId the identifier of the request.
+   * @param body the request.
+   */
+  public CorrelatedMessage(long correlationId, Object body)
+  {
+    this(correlationId, body, false);
+  }
+
+  /**
+   * Constructs a message.
+   */
+  private CorrelatedMessage(long correlationId, Object body, boolean failed)
+  {
+    this.correlationId = correlationId;
+    this.body = body;
+    this.failed = failed;
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * @return the identifier of the request.
+   */
+  public long getCorrelationId()
+  {
+    return correlationId;
+  }
+
+  /**
+   * @return the request, the reply, or the exception raised by
+   *   the request.
+   */
+  public Object getBody()
+  {
+    return body;
+  }
+
+  /**
+   * @return true if the body is the exception raised by the request.
+   */
+  public boolean isFailed()
+  {
+    return failed;
+  }
+
+  /**
+   * Returns the reply to this request.
+   *
+   * @param reply the reply.
+   * @return the message to be sent to the client.
+   */
+  public CorrelatedMessage reply(Object reply)
+  {
+    return new CorrelatedMessage(correlationId, reply, false);
+  }
+
+  /**
+   * Returns the message telling the client that this request failed.
+   * The exception is rethrown to the client, so it must be
+   * serializable.
+   *
+   * @param exception the exception raised by the request.
+   * @return the message to be sent to the client.
+   */
+  public CorrelatedMessage fail(Throwable exception)
+  {
+    return new CorrelatedMessage(correlationId, exception, true);
+  }
+
+  /**
+   * @return a string representation of the message.
+   */
+  public String toString()
+  {
+    return "#" + correlationId + (failed ? " failed: " : ": ") + body;
+  }
+}
+// End of CorrelatedMessage class
@@ -0,0 +1,285 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+* The <code> EventBus </code> class delivers the events published by
+* an observable server or client to the handlers that subscribed to
+* them. It replaces, for the code that does not need the
+* <code>Observer</code> interface, the delivery made by
+* <code>java.util.Observable</code>, which locks the observable and
+* copies its list of observers for every notification.<p>
+*
+* The handlers are kept in an array that is replaced, using a
+* compare-and-set operation, each time a handler subscribes or
+* unsubscribes. Publishing an event therefore takes no lock and
+* allocates nothing: the current array is an immutable snapshot.
+* Events can be published by several threads at once; each handler
+* must then be prepared to be called concurrently.<p>
+*
+* By default, the handlers are called by the thread publishing the
+* event, in the order they subscribed. When an executor is set, each
+* event is instead handed to the executor, which calls the handlers;
+* with an executor running several threads, the events may then be
+* handled in a different order than they were published. To isolate
+* one slow handler from the others, subscribe it wrapped in an
+* <code>AsyncEventHandler</code>, which gives it its own queue and
+* thread.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.EventHandler
+* @see com.lloseng.ocsf.common.AsyncEventHandler
+*/
+public class EventBus
+{
+  // Class variables ************************************************
+
+  /**
+   * The snapshot of a bus without handlers.
+   */
+  private static final EventHandler[] EMPTY = new EventHandler[0];
+
+  // Instance variables *********************************************
+
+  /**
+   * The current snapshot of the handlers. The array referred to is
+   * never modified.
+   */
+  private final AtomicReference handlers = new AtomicReference(EMPTY);
+
+  /**
+   * The executor calling the handlers, or null to call them in the
+   * publishing thread.
+   */
+  private volatile Executor executor = null;
+
+  // Constructor ****************************************************
+
+  /**
+   * Constructs a bus without handlers.
+   */
+  public EventBus() {}
+
+  // Instance methods ***********************************************
+
+  /**
+   * Subscribes a handler to the events published on this bus.
+   *
+   * @param handler the handler.
+   * @return false if the handler had already subscribed.
+   */
+  public boolean subscribe(EventHandler handler)
+  {
+    if (handler == null)
+      throw new NullPointerException("null handler");
+
+    while (true)
+    {
+      EventHandler[] current = getHandlers();
+      if (indexOf(current, handler) >= 0)
+        return false;
+
+      EventHandler[] updated = new EventHandler[current.length+1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      updated[current.length] = handler;
+
+      if (handlers.compareAndSet(current, updated))
+        return true;
+    }
+  }
+
+  /**
+   * Unsubscribes a handler. An event being delivered when this method
+   * is called may still be given to the handler.
+   *
+   * @param handler the handler.
+   * @return false if the handler had not subscribed.
+   */
+  public boolean unsubscribe(EventHandler handler)
+  {
+    while (true)
+    {
+      EventHandler[] current = getHandlers();
+      int index = indexOf(current, handler);
+      if (index < 0)
+        return false;
+
+      EventHandler[] updated = EMPTY;
+      if (current.length > 1)
+      {
+        updated = new EventHandler[current.length-1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index+1, updated, index,
+          current.length-index-1);
+      }
+
+      if (handlers.compareAndSet(current, updated))
+        return true;
+    }
+  }
+
+  /**
+   * Unsubscribes every handler.
+   */
+  public void unsubscribeAll()
+  {
+    handlers.set(EMPTY);
+  }
+
+  /**
+   * Delivers an event to the handlers subscribed. A
+   * <code>RuntimeException</code> thrown by a handler does not prevent
+   * the other handlers from receiving the event; it is given to the
+   * <code>handlerException</code> hook method.
+   *
+   * @param event the event.
+   */
+  public void publish(Object event)
+  {
+    EventHandler[] current = getHandlers();
+    if (current.length > 0)
+      publish(current, event);
+  }
+
+  /**
+   * Delivers an event to some handlers, whether they have subscribed
+   * or not, as <code>publish</code> would: with the executor, if one
+   * is set, and giving a <code>RuntimeException</code> to the
+   * <code>handlerException</code> hook method. This method is used by
+   * publishers that choose themselves the handlers of an event, and
+   * keep the arrays of handlers they publish to. The array is not
+   * copied and must not be modified afterward.
+   *
+   * @param handlers the handlers.
+   * @param event the event.
+   */
+  public void publishTo(EventHandler[] handlers, Object event)
+  {
+    if (handlers.length > 0)
+      publish(handlers, event);
+  }
+
+  /**
+   * Returns true if at least one handler has subscribed, so that
+   * publishers can avoid creating events nobody receives.
+   *
+   * @return true if there are handlers.
+   */
+  final public boolean hasSubscribers()
+  {
+    return getHandlers().length > 0;
+  }
+
+  /**
+   * @return the number of handlers subscribed.
+   */
+  final public int getSubscriberCount()
+  {
+    return getHandlers().length;
+  }
+
+  /**
+   * Sets the executor calling the handlers. With a single-thread
+   * executor, the events are handled in the order they were
+   * published, without delaying the publishing threads.
+   *
+   * @param executor the executor, or null to call the handlers in the
+   *   thread publishing the event.
+   */
+  final public void setExecutor(Executor executor)
+  {
+    this.executor = executor;
+  }
+
+  /**
+   * @return the executor calling the handlers, or null.
+   */
+  final public Executor getExecutor()
+  {
+    return executor;
+  }
+
+  /**
+   * Delivers an event to some handlers, with the executor if one is set.
+   */
+  private void publish(final EventHandler[] current, final Object event)
+  {
+    Executor delivery = executor;
+    if (delivery == null)
+    {
+      deliver(current, event);
+      return;
+    }
+
+    delivery.execute(new Runnable()
+    {
+      public void run()
+      {
+        deliver(current, event);
+      }
+    });
+  }
+
+  /**
+   * Returns the current snapshot of the handlers.
+   * The returned array must not be modified.
+   */
+  private EventHandler[] getHandlers()
+  {
+    return (EventHandler[])handlers.get();
+  }
+
+  /**
+   * Calls each handler with an event.
+   */
+  private void deliver(EventHandler[] current, Object event)
+  {
+    for (int i=0; i<current.length; i++)
+    {
+      try
+      {
+        current[i].handleEvent(event);
+      }
+      catch (RuntimeException ex)
+      {
+        handlerException(current[i], event, ex);
+      }
+    }
+  }
+
+  /**
+   * Returns the position of a handler in an array, or -1.
+   */
+  private static int indexOf(EventHandler[] current, EventHandler handler)
+  {
+    for (int i=0; i<current.length; i++)
+    {
+      if (current[i] == handler)
+        return i;
+    }
+    return -1;
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  /**
+   * Hook method called when a handler throws an exception.
+   * The default implementation does nothing.
+   *
+   * @param handler the handler.
+   * @param event the event it was handling.
+   * @param exception the exception thrown.
+   */
+  protected void handlerException(EventHandler handler, Object event,
+    RuntimeException exception) {}
+}
+// End of EventBus class
@@ -0,0 +1,32 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+/**
+* The <code> EventHandler </code> interface is implemented by the
+* objects that subscribe to an <code>EventBus</code>. The events
+* published by the observable servers and clients of the framework are
+* instances of <code>ServerEvent</code> and <code>ClientEvent</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.EventBus
+* @see com.lloseng.ocsf.server.ServerEvent
+* @see com.lloseng.ocsf.client.ClientEvent
+*/
+public interface EventHandler
+{
+  /**
+   * Handles an event published on the bus to which the handler
+   * has subscribed.
+   *
+   * @param event the event.
+   */
+  public void handleEvent(Object event);
+}
+// End of EventHandler interface
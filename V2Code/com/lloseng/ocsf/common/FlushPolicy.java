@@ -0,0 +1,168 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+/**
+* The <code> FlushPolicy </code> class defines when the messages
+* written on a buffered connection are actually sent. Three policies
+* are available:
+* <ul>
+* <li> <code>immediate()</code>: each message is sent as soon as it
+* has been written. This is the default, and the behaviour of the
+* previous versions, except that a message is now sent in one write
+* instead of several small ones.
+* <li> <code>onIdle()</code>: the messages are sent when no other
+* message is waiting to be written, so that a burst of messages
+* is sent in a few large writes.
+* <li> <code>batched(maxBytes, maxDelay)</code>: the messages are sent
+* when <code>maxBytes</code> bytes are waiting, or at the latest
+* <code>maxDelay</code> milliseconds after the first of them has
+* been written.
+* </ul>
+* Instances are immutable and can be shared.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.FlushingOutputStream
+*/
+public final class FlushPolicy
+{
+  // Class variables ************************************************
+
+  /**
+   * The size of the buffer of the immediate and on-idle policies.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private static final int IMMEDIATE = 0;
+  private static final int ON_IDLE = 1;
+  private static final int BATCHED = 2;
+
+  private static final FlushPolicy IMMEDIATE_POLICY =
+    new FlushPolicy(IMMEDIATE, DEFAULT_BUFFER_SIZE, 0);
+
+  private static final FlushPolicy ON_IDLE_POLICY =
+    new FlushPolicy(ON_IDLE, DEFAULT_BUFFER_SIZE, 0);
+
+  // Instance variables *********************************************
+
+  /**
+   * The kind of policy.
+   */
+  private final int kind;
+
+  /**
+   * The size of the buffer.
+   */
+  private final int bufferSize;
+
+  /**
+   * The maximum delay before sending, in ms.
+   */
+  private final long maxDelay;
+
+  // Constructor ****************************************************
+
+  private FlushPolicy(int kind, int bufferSize, long maxDelay)
+  {
+    this.kind = kind;
+    this.bufferSize = bufferSize;
+    this.maxDelay = maxDelay;
+  }
+
+  // Class methods **************************************************
+
+  /**
+   * Returns the policy sending each message as soon as it is written.
+   *
+   * @return the immediate policy.
+   */
+  public static FlushPolicy immediate()
+  {
+    return IMMEDIATE_POLICY;
+  }
+
+  /**
+   * Returns the policy sending the messages when no other message
+   * is waiting to be written.
+   *
+   * @return the on-idle policy.
+   */
+  public static FlushPolicy onIdle()
+  {
+    return ON_IDLE_POLICY;
+  }
+
+  /**
+   * Returns a policy sending the messages by batches.
+   *
+   * @param maxBytes the number of bytes that causes a batch to be sent.
+   * @param maxDelay the maximum time, in ms, a message may wait.
+   * @return the batched policy.
+   */
+  public static FlushPolicy batched(int maxBytes, long maxDelay)
+  {
+    if (maxBytes < 1 || maxDelay < 1)
+      throw new IllegalArgumentException("the limits must be positive");
+
+    return new FlushPolicy(BATCHED, maxBytes, maxDelay);
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * @return true if each message is sent as soon as it is written.
+   */
+  public boolean isImmediate()
+  {
+    return kind == IMMEDIATE;
+  }
+
+  /**
+   * @return true if the messages are sent by batches.
+   */
+  public boolean isBatched()
+  {
+    return kind == BATCHED;
+  }
+
+  /**
+   * @return the size of the buffer holding the messages not sent yet.
+   */
+  public int getBufferSize()
+  {
+    return bufferSize;
+  }
+
+  /**
+   * @return the maximum delay, in ms, of the batched policy.
+   */
+  public long getMaxDelay()
+  {
+    return maxDelay;
+  }
+
+  /**
+   * Returns a description of the policy.
+   *
+   * @return the description.
+   */
+  public String toString()
+  {
+    switch (kind)
+    {
+      case IMMEDIATE:
+        return "immediate";
+      case ON_IDLE:
+        return "on idle";
+      default:
+        return "batched (" + bufferSize + " bytes, " + maxDelay + " ms)";
+    }
+  }
+}
+// End of FlushPolicy class
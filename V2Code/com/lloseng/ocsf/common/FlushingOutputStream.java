@@ -0,0 +1,241 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+* The <code> FlushingOutputStream </code> class buffers the bytes
+* written on a socket and flushes them according to a
+* <code>FlushPolicy</code>. The framework calls
+* <code>beginMessage</code> before waiting for the right to write
+* a message and <code>endMessage</code> once the message has been
+* written; this is how the stream knows whether other messages are
+* about to follow.<p>
+*
+* Closing this stream discards the bytes that have not been flushed:
+* the socket is already closed at that time and waiting for a stuck
+* peer is not an option.<p>
+*
+* With the batched policy, the flush made once the maximum delay has
+* elapsed is scheduled by a timer thread shared by all the streams,
+* which only hands it to an executor: the timer never writes to a
+* socket, so a peer that does not read can only block the thread
+* flushing its own stream. By default the executor creates threads as
+* needed; a stream has at most one delayed flush running.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.FlushPolicy
+*/
+public class FlushingOutputStream extends BufferedOutputStream
+{
+  // Class variables ************************************************
+
+  /**
+   * The thread timing the delayed flushes of the batched policy.
+   */
+  private static ScheduledExecutorService timer = null;
+
+  /**
+   * The threads making the delayed flushes of the streams constructed
+   * without an executor.
+   */
+  private static ExecutorService flushThreads = null;
+
+  // Instance variables *********************************************
+
+  /**
+   * The flush policy.
+   */
+  private final FlushPolicy policy;
+
+  /**
+   * The executor making the delayed flushes, or null to use the
+   * shared flush threads.
+   */
+  private final Executor executor;
+
+  /**
+   * The number of messages about to be written.
+   */
+  private int waiting = 0;
+
+  /**
+   * Indicates if a delayed flush has been scheduled.
+   */
+  private boolean flushScheduled = false;
+
+  /**
+   * The task flushing the stream after the maximum delay.
+   */
+  private final Runnable delayedFlush = new Runnable()
+  {
+    public void run()
+    {
+      synchronized (FlushingOutputStream.this)
+      {
+        flushScheduled = false;
+        try
+        {
+          flush();
+        }
+        catch (IOException ex) {}  // the reading thread will notice it
+      }
+    }
+  };
+
+  /**
+   * The task run by the timer, handing the delayed flush to the
+   * executor.
+   */
+  private final Runnable dispatchFlush = new Runnable()
+  {
+    public void run()
+    {
+      try
+      {
+        (executor != null ? executor : getFlushThreads()).execute(delayedFlush);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        synchronized (FlushingOutputStream.this)
+        {
+          flushScheduled = false;  // flushed by the next message
+        }
+      }
+    }
+  };
+
+  // Constructor ****************************************************
+
+  /**
+   * Constructs a buffered stream.
+   *
+   * @param out the stream of the socket.
+   * @param policy the flush policy.
+   */
+  public FlushingOutputStream(OutputStream out, FlushPolicy policy)
+  {
+    this(out, policy, null);
+  }
+
+  /**
+   * Constructs a buffered stream whose delayed flushes are made by
+   * an executor.
+   *
+   * @param out the stream of the socket.
+   * @param policy the flush policy.
+   * @param executor the executor making the delayed flushes, or null
+   *   to use threads shared by the streams.
+   */
+  public FlushingOutputStream(OutputStream out, FlushPolicy policy,
+    Executor executor)
+  {
+    super(out, policy.getBufferSize());
+    this.policy = policy;
+    this.executor = executor;
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * Indicates that a message is about to be written. Must be called
+   * before acquiring the lock under which the message is written.
+   */
+  public synchronized void beginMessage()
+  {
+    waiting++;
+  }
+
+  /**
+   * Indicates that a message has been written, and flushes the
+   * stream if the policy requires it.
+   *
+   * @param more true if the caller knows that other messages
+   *   will be written shortly.
+   * @exception IOException if an I/O error occurs when flushing.
+   */
+  public synchronized void endMessage(boolean more) throws IOException
+  {
+    waiting--;
+
+    if (policy.isImmediate())
+    {
+      flush();
+    }
+    else if (policy.isBatched())
+    {
+      if (count > 0 && !flushScheduled)
+      {
+        flushScheduled = true;
+        getTimer().schedule(dispatchFlush, policy.getMaxDelay(),
+          TimeUnit.MILLISECONDS);
+      }
+    }
+    else if (!more && waiting == 0)
+    {
+      flush();
+    }
+  }
+
+  /**
+   * Closes the underlying stream, discarding the bytes not flushed.
+   *
+   * @exception IOException if an I/O error occurs.
+   */
+  public synchronized void close() throws IOException
+  {
+    count = 0;
+    out.close();
+  }
+
+  /**
+   * Returns the thread timing the delayed flushes, creating it if needed.
+   */
+  private static synchronized ScheduledExecutorService getTimer()
+  {
+    if (timer == null)
+    {
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "OCSF flush timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return timer;
+  }
+
+  /**
+   * Returns the shared flush threads, creating the pool if needed.
+   * The threads are created as needed and terminate when idle.
+   */
+  private static synchronized ExecutorService getFlushThreads()
+  {
+    if (flushThreads == null)
+    {
+      flushThreads = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        60, TimeUnit.SECONDS, new SynchronousQueue(), new ThreadFactory()
+        {
+          public Thread newThread(Runnable task)
+          {
+            Thread thread = new Thread(task, "OCSF flusher");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return flushThreads;
+  }
+}
+// End of FlushingOutputStream class
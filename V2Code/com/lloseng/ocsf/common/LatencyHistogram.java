@@ -0,0 +1,219 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.util.concurrent.atomic.*;
+
+/**
+* The <code> LatencyHistogram </code> class records durations, or any
+* other non-negative values, and reports their distribution.
+* As in a high dynamic range histogram, the values are counted in
+* buckets whose width doubles with each power of two, each power of
+* two being divided into 32 sub-buckets. Any value is thus recorded
+* with a relative error under about 3%, in a fixed amount of memory
+* and without any lock, so that the threads of a server can record
+* their measures concurrently.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class LatencyHistogram
+{
+  // Class variables ************************************************
+
+  /**
+   * The number of bits of the values kept exactly. Values under
+   * 2 to this power have their own bucket.
+   */
+  private static final int PRECISION = 6;
+
+  /**
+   * The number of values having their own bucket.
+   */
+  private static final int EXACT = 1 << PRECISION;
+
+  /**
+   * The number of sub-buckets of each following power of two.
+   */
+  private static final int SUB_BUCKETS = EXACT / 2;
+
+  /**
+   * The number of buckets needed to cover every positive long.
+   */
+  private static final int BUCKETS = EXACT + (63-PRECISION) * SUB_BUCKETS;
+
+  // Instance variables *********************************************
+
+  /**
+   * The number of values recorded in each bucket.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /**
+   * The number of values recorded.
+   */
+  private final LongAdder count = new LongAdder();
+
+  /**
+   * The sum of the values recorded.
+   */
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * The largest value recorded.
+   */
+  private final AtomicLong max = new AtomicLong();
+
+  // Instance methods ***********************************************
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   *
+   * @param value the value, typically a duration in nanoseconds.
+   */
+  public void record(long value)
+  {
+    if (value < 0)
+      value = 0;
+
+    counts.incrementAndGet(indexOf(value));
+    count.increment();
+    sum.add(value);
+
+    long current;
+    while (value > (current = max.get()))
+    {
+      if (max.compareAndSet(current, value))
+        break;
+    }
+  }
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return the count.
+   */
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   *
+   * @return the mean, or 0 if no value has been recorded.
+   */
+  public double getMean()
+  {
+    long n = count.sum();
+    return n == 0 ? 0 : (double)sum.sum() / n;
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return the maximum, or 0 if no value has been recorded.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * Returns the value under which the given percentage of the values
+   * recorded fall. The value returned is the upper bound of the bucket
+   * concerned, so it may exceed the exact percentile by the precision
+   * of the histogram, but never exceeds the maximum.
+   *
+   * @param percentile the percentage, between 0 and 100.
+   * @return the value at this percentile, or 0 if no value has been
+   *   recorded.
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i=0; i<BUCKETS; i++)
+    {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0)
+      return 0;
+
+    long rank = (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * total);
+    if (rank < 1)
+      rank = 1;
+
+    long seen = 0;
+    for (int i=0; i<BUCKETS; i++)
+    {
+      seen += snapshot[i];
+      if (seen >= rank)
+        return Math.min(highestValueOf(i), max.get());
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets all the values recorded. Values recorded while the
+   * histogram is being reset may be partly forgotten.
+   */
+  public void reset()
+  {
+    for (int i=0; i<BUCKETS; i++)
+    {
+      counts.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+
+  /**
+   * Returns a summary of the distribution.
+   *
+   * @return the count, mean, median, 99th percentile and maximum.
+   */
+  public String toString()
+  {
+    return "count=" + getCount()
+      + " mean=" + Math.round(getMean())
+      + " p50=" + getValueAtPercentile(50)
+      + " p99=" + getValueAtPercentile(99)
+      + " max=" + getMax();
+  }
+
+  /**
+   * Returns the bucket of a value.
+   */
+  private static int indexOf(long value)
+  {
+    if (value < EXACT)
+      return (int)value;
+
+    int highest = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int)(value >>> (highest - PRECISION + 1));
+    return EXACT + (highest - PRECISION) * SUB_BUCKETS
+      + subBucket - SUB_BUCKETS;
+  }
+
+  /**
+   * Returns the highest value counted in a bucket.
+   */
+  private static long highestValueOf(int index)
+  {
+    if (index < EXACT)
+      return index;
+
+    int highest = (index - EXACT) / SUB_BUCKETS + PRECISION;
+    long subBucket = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << (highest - PRECISION + 1)) - 1;
+  }
+}
+// End of LatencyHistogram class
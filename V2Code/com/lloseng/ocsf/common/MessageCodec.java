@@ -0,0 +1,58 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+
+/**
+* The <code> MessageCodec </code> interface must be implemented by
+* the classes that convert the messages exchanged by clients and
+* servers to and from bytes. A codec only produces the body of a
+* frame; the framework adds the length prefix, as defined by
+* <code>ObjectFrames</code>, so that a message can be decoded as
+* soon as all its bytes have been received.<p>
+*
+* A codec is shared by all the connections of a server or a client;
+* implementations must therefore be thread-safe, which is simplest
+* achieved by keeping no state at all.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.SerializedCodec
+* @see com.lloseng.ocsf.common.RawBytesCodec
+* @see com.lloseng.ocsf.common.Utf8StringCodec
+* @see com.lloseng.ocsf.common.CompactBinaryCodec
+*/
+public interface MessageCodec
+{
+  /**
+   * Writes the encoded form of a message.
+   *
+   * @param message the message to be encoded.
+   * @param out the stream receiving the body of the frame.
+   * @exception NotSerializableException if this codec cannot
+   *    encode the message.
+   * @exception IOException if an I/O error occurs.
+   */
+  void encode(Object message, OutputStream out) throws IOException;
+
+  /**
+   * Decodes the body of a frame.
+   *
+   * @param body the array containing the body.
+   * @param offset the offset of the body in the array.
+   * @param length the length of the body.
+   * @return the decoded message.
+   * @exception IOException if the body is not valid.
+   * @exception ClassNotFoundException if the class of the
+   *    message is unknown.
+   */
+  Object decode(byte[] body, int offset, int length)
+    throws IOException, ClassNotFoundException;
+}
+// End of MessageCodec interface
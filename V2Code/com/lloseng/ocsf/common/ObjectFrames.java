@@ -0,0 +1,163 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+* The <code> ObjectFrames </code> class encodes and decodes the
+* length-prefixed frames exchanged by clients and servers that
+* use a <code>MessageCodec</code>. Each frame is made of a 4-byte
+* big-endian length followed by that many bytes containing one
+* message, as encoded by the codec.
+* Since every frame is self-contained, it can be decoded
+* as soon as all its bytes have been received, which is
+* what a non-blocking reader needs.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public final class ObjectFrames
+{
+  // Class variables ************************************************
+
+  /**
+   * The number of bytes of the length prefix.
+   */
+  public static final int HEADER_LENGTH = 4;
+
+  /**
+   * The largest frame body accepted. Larger lengths are considered to
+   * be a protocol error when reading, and are refused when encoding.
+   */
+  public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+  // Constructor ****************************************************
+
+  /**
+   * This class only contains static methods.
+   */
+  private ObjectFrames() {}
+
+  // Class methods **************************************************
+
+  /**
+   * Encodes a message into a frame.
+   * The returned buffer is positionned at the start of the frame
+   * and contains the length prefix.
+   *
+   * @param msg the message to be encoded.
+   * @param codec the codec producing the body of the frame.
+   * @return a buffer containing the complete frame.
+   * @exception IOException if the message cannot be encoded, or if
+   *   its body is longer than <code>MAX_FRAME_LENGTH</code>, in which
+   *   case the peer would refuse the frame.
+   */
+  public static ByteBuffer encode(Object msg, MessageCodec codec)
+    throws IOException
+  {
+    FrameBuffer bytes = new FrameBuffer();
+    codec.encode(msg, bytes);
+
+    return bytes.toFrame();
+  }
+
+  /**
+   * Writes a frame on a stream. The stream is not flushed.
+   *
+   * @param out the stream to write on.
+   * @param frame the frame, as returned by <code>encode</code>.
+   * @exception IOException if an I/O error occurs.
+   */
+  public static void write(OutputStream out, ByteBuffer frame)
+    throws IOException
+  {
+    out.write(frame.array(), frame.arrayOffset() + frame.position(),
+      frame.remaining());
+  }
+
+  /**
+   * Writes one frame containing a message on a stream.
+   * The stream is not flushed. Nothing is written if the message
+   * cannot be encoded.
+   *
+   * @param out the stream to write on.
+   * @param msg the message to be written.
+   * @param codec the codec producing the body of the frame.
+   * @exception IOException if an I/O error occurs.
+   */
+  public static void write(OutputStream out, Object msg, MessageCodec codec)
+    throws IOException
+  {
+    write(out, encode(msg, codec));
+  }
+
+  /**
+   * Reads one frame from a stream and decodes it.
+   * This method blocks until the complete frame has been received.
+   *
+   * @param in the stream to read from.
+   * @param codec the codec decoding the body of the frame.
+   * @return the decoded message.
+   * @exception IOException if an I/O error occurs or if the
+   *   frame is invalid.
+   * @exception ClassNotFoundException if the class of the message is unknown.
+   */
+  public static Object read(DataInputStream in, MessageCodec codec)
+    throws IOException, ClassNotFoundException
+  {
+    int length = checkLength(in.readInt());
+    byte[] body = new byte[length];
+    in.readFully(body);
+
+    return codec.decode(body, 0, length);
+  }
+
+  /**
+   * Verifies that a length read from a frame header is acceptable.
+   *
+   * @param length the length read.
+   * @return the same length.
+   * @exception IOException if the length is negative or too large.
+   */
+  public static int checkLength(int length) throws IOException
+  {
+    if (length < 0 || length > MAX_FRAME_LENGTH)
+      throw new StreamCorruptedException("invalid frame length: " + length);
+
+    return length;
+  }
+
+  // Inner class ****************************************************
+
+  /**
+   * A byte array stream that reserves room for the length prefix
+   * and gives access to its internal array without copying it.
+   */
+  private static class FrameBuffer extends ByteArrayOutputStream
+  {
+    FrameBuffer()
+    {
+      super(256);
+      count = HEADER_LENGTH;
+    }
+
+    ByteBuffer toFrame() throws IOException
+    {
+      if (count - HEADER_LENGTH > MAX_FRAME_LENGTH)
+        throw new IOException("frame too long: " + (count - HEADER_LENGTH)
+          + " bytes");
+
+      ByteBuffer frame = ByteBuffer.wrap(buf, 0, count);
+      frame.putInt(0, count - HEADER_LENGTH);
+      return frame;
+    }
+  }
+}
+// End of ObjectFrames class
@@ -0,0 +1,57 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+
+/**
+* The <code> RawBytesCodec </code> class exchanges byte arrays as they
+* are. It is meant for applications that define their own encoding:
+* only <code>byte[]</code> messages can be sent, and every message
+* received is a <code>byte[]</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class RawBytesCodec implements MessageCodec
+{
+  /**
+   * Writes the bytes of a message.
+   *
+   * @param message the byte array to be sent.
+   * @param out the stream receiving the body of the frame.
+   * @exception NotSerializableException if the message is not
+   *    a byte array.
+   * @exception IOException if an I/O error occurs.
+   */
+  public void encode(Object message, OutputStream out) throws IOException
+  {
+    if (!(message instanceof byte[]))
+      throw new NotSerializableException(
+        message == null ? "null" : message.getClass().getName());
+
+    out.write((byte[])message);
+  }
+
+  /**
+   * Returns a copy of the body of a frame.
+   *
+   * @param body the array containing the body.
+   * @param offset the offset of the body in the array.
+   * @param length the length of the body.
+   * @return the bytes received.
+   */
+  public Object decode(byte[] body, int offset, int length)
+  {
+    byte[] message = new byte[length];
+    System.arraycopy(body, offset, message, 0, length);
+
+    return message;
+  }
+}
+// End of RawBytesCodec class
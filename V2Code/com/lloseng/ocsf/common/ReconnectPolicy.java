@@ -0,0 +1,219 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.util.concurrent.*;
+
+/**
+* The <code> ReconnectPolicy </code> class defines whether, and when,
+* a client whose connection to the server has been lost tries to
+* reconnect. The available policies are:
+* <ul>
+* <li> <code>never()</code>: the client stays disconnected until the
+* application opens the connection again, as in the previous versions.
+* This is the default.
+* <li> <code>exponential(initialDelay, maxDelay)</code>: the client
+* tries to reconnect until it succeeds. The delay before each attempt
+* doubles, starting at <code>initialDelay</code>, up to
+* <code>maxDelay</code>.
+* <li> <code>exponential(initialDelay, maxDelay, maxAttempts, jitter)</code>:
+* the same, but the client gives up after <code>maxAttempts</code>
+* failed attempts, and only part of each delay is random.
+* </ul>
+* The delays are randomised, so that the clients of a server that
+* restarts do not all reconnect at the same instant. With a jitter of
+* <code>j</code>, a delay <code>d</code> becomes a random value between
+* <code>d * (1 - j)</code> and <code>d</code>. The default jitter, 1,
+* spreads the attempts over the whole interval.
+* Instances are immutable and can be shared.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.client.AbstractClient#setReconnectPolicy
+*/
+public final class ReconnectPolicy
+{
+  // Class variables ************************************************
+
+  private static final ReconnectPolicy NEVER_POLICY =
+    new ReconnectPolicy(0, 0, 0, 0);
+
+  // Instance variables *********************************************
+
+  /**
+   * The delay before the first attempt, in ms, or 0 if the client
+   * never reconnects.
+   */
+  private final long initialDelay;
+
+  /**
+   * The maximum delay between two attempts, in ms.
+   */
+  private final long maxDelay;
+
+  /**
+   * The number of attempts after which the client gives up, or 0.
+   */
+  private final int maxAttempts;
+
+  /**
+   * The random part of each delay, between 0 and 1.
+   */
+  private final double jitter;
+
+  // Constructor ****************************************************
+
+  private ReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts,
+    double jitter)
+  {
+    this.initialDelay = initialDelay;
+    this.maxDelay = maxDelay;
+    this.maxAttempts = maxAttempts;
+    this.jitter = jitter;
+  }
+
+  // Class methods **************************************************
+
+  /**
+   * Returns the policy never reconnecting.
+   *
+   * @return the never policy.
+   */
+  public static ReconnectPolicy never()
+  {
+    return NEVER_POLICY;
+  }
+
+  /**
+   * Returns a policy reconnecting until it succeeds, with delays
+   * growing exponentially and fully randomised.
+   *
+   * @param initialDelay the delay before the first attempt, in ms.
+   * @param maxDelay the maximum delay between two attempts, in ms.
+   * @return the policy.
+   */
+  public static ReconnectPolicy exponential(long initialDelay, long maxDelay)
+  {
+    return exponential(initialDelay, maxDelay, 0, 1.0);
+  }
+
+  /**
+   * Returns a policy reconnecting with delays growing exponentially.
+   *
+   * @param initialDelay the delay before the first attempt, in ms.
+   * @param maxDelay the maximum delay between two attempts, in ms.
+   * @param maxAttempts the number of failed attempts after which the
+   *   client gives up, or 0 to try until it succeeds.
+   * @param jitter the random part of each delay, between 0 and 1.
+   * @return the policy.
+   */
+  public static ReconnectPolicy exponential(long initialDelay, long maxDelay,
+    int maxAttempts, double jitter)
+  {
+    if (initialDelay < 1 || maxDelay < initialDelay)
+      throw new IllegalArgumentException("invalid delays");
+    if (maxAttempts < 0)
+      throw new IllegalArgumentException("maxAttempts must not be negative");
+    if (!(jitter >= 0.0 && jitter <= 1.0))
+      throw new IllegalArgumentException("jitter must be between 0 and 1");
+
+    return new ReconnectPolicy(initialDelay, maxDelay, maxAttempts, jitter);
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * @return true if the client tries to reconnect.
+   */
+  public boolean isEnabled()
+  {
+    return initialDelay > 0;
+  }
+
+  /**
+   * Returns true if the client may make another attempt.
+   *
+   * @param attempt the number of the attempt, starting at 1.
+   * @return true if the attempt is allowed.
+   */
+  public boolean allowsAttempt(int attempt)
+  {
+    return isEnabled() && (maxAttempts == 0 || attempt <= maxAttempts);
+  }
+
+  /**
+   * Returns the randomised delay before an attempt.
+   *
+   * @param attempt the number of the attempt, starting at 1.
+   * @return the delay, in ms.
+   */
+  public long getDelay(int attempt)
+  {
+    if (!isEnabled())
+      return 0;
+
+    long delay = initialDelay;
+    for (int i=1; i<attempt && delay < maxDelay; i++)
+    {
+      delay *= 2;
+    }
+    delay = Math.min(delay, maxDelay);
+
+    double random = ThreadLocalRandom.current().nextDouble();
+    return delay - (long)(delay * jitter * random);
+  }
+
+  /**
+   * @return the delay before the first attempt, in ms.
+   */
+  public long getInitialDelay()
+  {
+    return initialDelay;
+  }
+
+  /**
+   * @return the maximum delay between two attempts, in ms.
+   */
+  public long getMaxDelay()
+  {
+    return maxDelay;
+  }
+
+  /**
+   * @return the number of attempts after which the client gives up,
+   *   or 0 if it tries until it succeeds.
+   */
+  public int getMaxAttempts()
+  {
+    return maxAttempts;
+  }
+
+  /**
+   * @return the random part of each delay, between 0 and 1.
+   */
+  public double getJitter()
+  {
+    return jitter;
+  }
+
+  /**
+   * Returns a description of the policy.
+   *
+   * @return the description.
+   */
+  public String toString()
+  {
+    if (!isEnabled())
+      return "never";
+
+    return "exponential (" + initialDelay + " to " + maxDelay + " ms, "
+      + (maxAttempts == 0 ? "unlimited" : String.valueOf(maxAttempts))
+      + " attempts, jitter " + jitter + ")";
+  }
+}
+// End of ReconnectPolicy class
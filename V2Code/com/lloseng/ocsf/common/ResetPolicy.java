@@ -0,0 +1,175 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+/**
+* The <code> ResetPolicy </code> class defines when the object stream
+* of a connection is reset. An <code>ObjectOutputStream</code> keeps a
+* reference to every object it has written, so that an object sent
+* twice is received as the same instance. On a long-lived connection
+* this table keeps growing, and an object modified after having been
+* sent is sent again as a reference to its first, stale, state.
+* Resetting the stream clears the table on both sides of the
+* connection. The available policies are:
+* <ul>
+* <li> <code>never()</code>: the stream is never reset, as in the
+* previous versions.
+* <li> <code>everyMessage()</code>: the stream is reset after each
+* message, so that every message is self-contained. This is the
+* policy to use when objects are modified and sent again.
+* <li> <code>everyMessages(n)</code>: the stream is reset after
+* <code>n</code> messages.
+* <li> <code>everyBytes(n)</code>: the stream is reset once
+* <code>n</code> bytes have been written since the last reset.
+* This is the default, with a limit of one megabyte.
+* </ul>
+* Instances are immutable and can be shared.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.ResettingObjectOutputStream
+*/
+public final class ResetPolicy
+{
+  // Class variables ************************************************
+
+  private static final int NEVER = 0;
+  private static final int MESSAGES = 1;
+  private static final int BYTES = 2;
+
+  private static final ResetPolicy NEVER_POLICY = new ResetPolicy(NEVER, 0);
+
+  private static final ResetPolicy EVERY_MESSAGE_POLICY =
+    new ResetPolicy(MESSAGES, 1);
+
+  private static final ResetPolicy DEFAULT_POLICY =
+    new ResetPolicy(BYTES, 1024 * 1024);
+
+  // Instance variables *********************************************
+
+  /**
+   * The kind of policy.
+   */
+  private final int kind;
+
+  /**
+   * The number of messages or bytes after which the stream is reset.
+   */
+  private final long limit;
+
+  // Constructor ****************************************************
+
+  private ResetPolicy(int kind, long limit)
+  {
+    this.kind = kind;
+    this.limit = limit;
+  }
+
+  // Class methods **************************************************
+
+  /**
+   * Returns the policy never resetting the stream.
+   *
+   * @return the never policy.
+   */
+  public static ResetPolicy never()
+  {
+    return NEVER_POLICY;
+  }
+
+  /**
+   * Returns the policy resetting the stream after each message.
+   *
+   * @return the every message policy.
+   */
+  public static ResetPolicy everyMessage()
+  {
+    return EVERY_MESSAGE_POLICY;
+  }
+
+  /**
+   * Returns a policy resetting the stream after a number of messages.
+   *
+   * @param messages the number of messages between two resets.
+   * @return the policy.
+   */
+  public static ResetPolicy everyMessages(int messages)
+  {
+    if (messages < 1)
+      throw new IllegalArgumentException("messages must be positive");
+
+    return new ResetPolicy(MESSAGES, messages);
+  }
+
+  /**
+   * Returns a policy resetting the stream once a number of bytes
+   * have been written since the last reset. The stream is only
+   * reset between two messages.
+   *
+   * @param bytes the number of bytes between two resets.
+   * @return the policy.
+   */
+  public static ResetPolicy everyBytes(long bytes)
+  {
+    if (bytes < 1)
+      throw new IllegalArgumentException("bytes must be positive");
+
+    return new ResetPolicy(BYTES, bytes);
+  }
+
+  /**
+   * Returns the default policy, resetting the stream every megabyte.
+   *
+   * @return the default policy.
+   */
+  public static ResetPolicy getDefault()
+  {
+    return DEFAULT_POLICY;
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * Returns true if the stream must be reset.
+   *
+   * @param messages the messages written since the last reset.
+   * @param bytes the bytes written since the last reset.
+   * @return true if the stream must be reset.
+   */
+  boolean isDue(long messages, long bytes)
+  {
+    switch (kind)
+    {
+      case MESSAGES:
+        return messages >= limit;
+      case BYTES:
+        return bytes >= limit;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns a description of the policy.
+   *
+   * @return the description.
+   */
+  public String toString()
+  {
+    switch (kind)
+    {
+      case MESSAGES:
+        return limit == 1 ? "every message" : "every " + limit + " messages";
+      case BYTES:
+        return "every " + limit + " bytes";
+      default:
+        return "never";
+    }
+  }
+}
+// End of ResetPolicy class
@@ -0,0 +1,167 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+
+/**
+* The <code> ResettingObjectOutputStream </code> class is the object
+* stream used by the connections that do not use a codec. Messages
+* are written with <code>writeMessage</code>, which resets the stream
+* when the <code>ResetPolicy</code> requires it, so that the table
+* of the objects already written does not grow without bound.<p>
+*
+* The stream also keeps track of the number of objects written since
+* the last reset, which is the number of entries the table of each
+* side of the connection holds, apart from the class descriptors.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.ResetPolicy
+*/
+public class ResettingObjectOutputStream extends ObjectOutputStream
+{
+  // Instance variables *********************************************
+
+  /**
+   * The reset policy.
+   */
+  private final ResetPolicy policy;
+
+  /**
+   * Counts the bytes written on the underlying stream.
+   */
+  private final ByteCounter counter;
+
+  /**
+   * The number of messages written since the last reset.
+   */
+  private long messages = 0;
+
+  /**
+   * The number of objects written since the last reset.
+   */
+  private volatile long handles = 0;
+
+  /**
+   * The number of resets.
+   */
+  private volatile long resets = 0;
+
+  // Constructors ***************************************************
+
+  /**
+   * Constructs an object stream.
+   *
+   * @param out the stream to write on.
+   * @param policy the reset policy.
+   * @exception IOException if an I/O error occurs when writing the
+   *   stream header.
+   */
+  public ResettingObjectOutputStream(OutputStream out, ResetPolicy policy)
+    throws IOException
+  {
+    this(new ByteCounter(out), policy);
+  }
+
+  private ResettingObjectOutputStream(ByteCounter counter, ResetPolicy policy)
+    throws IOException
+  {
+    super(counter);
+    this.counter = counter;
+    this.policy = policy;
+    enableReplaceObject(true);  // to count the objects written
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * Writes a message, then resets the stream if the policy requires it.
+   * The caller must prevent concurrent writes on this stream.
+   *
+   * @param msg the message to be written.
+   * @exception IOException if an I/O error occurs.
+   */
+  public void writeMessage(Object msg) throws IOException
+  {
+    writeObject(msg);
+    messages++;
+
+    if (policy.isDue(messages, counter.count))
+    {
+      reset();
+      resets++;
+      messages = 0;
+      handles = 0;
+      counter.count = 0;
+    }
+  }
+
+  /**
+   * Returns the number of objects written since the last reset.
+   * This is the number of objects the two sides of the connection
+   * keep a reference to.
+   *
+   * @return the number of objects in the table of the stream.
+   */
+  public long getHandleCount()
+  {
+    return handles;
+  }
+
+  /**
+   * Returns the number of times the stream has been reset.
+   *
+   * @return the number of resets.
+   */
+  public long getResetCount()
+  {
+    return resets;
+  }
+
+  /**
+   * Called once for each object that is not already in the table,
+   * right before it is added to it.
+   *
+   * @param obj the object about to be written.
+   * @return the same object.
+   */
+  protected Object replaceObject(Object obj)
+  {
+    handles++;
+    return obj;
+  }
+
+  // Inner class ****************************************************
+
+  /**
+   * A stream counting the bytes written through it.
+   */
+  private static class ByteCounter extends FilterOutputStream
+  {
+    long count = 0;
+
+    ByteCounter(OutputStream out)
+    {
+      super(out);
+    }
+
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      count++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
+// End of ResettingObjectOutputStream class
@@ -0,0 +1,58 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+
+/**
+* The <code> SerializedCodec </code> class encodes messages with
+* Java serialization. Each message is written with its own
+* <code>ObjectOutputStream</code>, so any <code>Serializable</code>
+* object can be exchanged, at the cost of the stream header and
+* class descriptors being sent with every message.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class SerializedCodec implements MessageCodec
+{
+  /**
+   * Writes the serialized form of a message.
+   *
+   * @param message the message to be encoded.
+   * @param out the stream receiving the body of the frame.
+   * @exception IOException if the message cannot be serialized.
+   */
+  public void encode(Object message, OutputStream out) throws IOException
+  {
+    ObjectOutputStream objects = new ObjectOutputStream(out);
+    objects.writeObject(message);
+    objects.flush();
+  }
+
+  /**
+   * Deserializes the body of a frame.
+   *
+   * @param body the array containing the body.
+   * @param offset the offset of the body in the array.
+   * @param length the length of the body.
+   * @return the decoded message.
+   * @exception IOException if the body is not a serialized object.
+   * @exception ClassNotFoundException if the class of the
+   *    message is unknown.
+   */
+  public Object decode(byte[] body, int offset, int length)
+    throws IOException, ClassNotFoundException
+  {
+    ObjectInputStream in =
+      new ObjectInputStream(new ByteArrayInputStream(body, offset, length));
+
+    return in.readObject();
+  }
+}
+// End of SerializedCodec class
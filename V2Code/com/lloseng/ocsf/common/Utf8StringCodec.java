@@ -0,0 +1,57 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.io.*;
+
+/**
+* The <code> Utf8StringCodec </code> class exchanges strings encoded
+* in UTF-8. It is the natural choice for applications, such as
+* a simple chat, whose messages are all <code>String</code>
+* instances: no serialization is involved and the frames contain
+* nothing but the characters of the message.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class Utf8StringCodec implements MessageCodec
+{
+  /**
+   * Writes the UTF-8 encoding of a message.
+   *
+   * @param message the string to be sent.
+   * @param out the stream receiving the body of the frame.
+   * @exception NotSerializableException if the message is not
+   *    a string.
+   * @exception IOException if an I/O error occurs.
+   */
+  public void encode(Object message, OutputStream out) throws IOException
+  {
+    if (!(message instanceof String))
+      throw new NotSerializableException(
+        message == null ? "null" : message.getClass().getName());
+
+    out.write(((String)message).getBytes("UTF-8"));
+  }
+
+  /**
+   * Decodes the body of a frame as a UTF-8 string.
+   *
+   * @param body the array containing the body.
+   * @param offset the offset of the body in the array.
+   * @param length the length of the body.
+   * @return the string received.
+   * @exception IOException if the encoding is not supported.
+   */
+  public Object decode(byte[] body, int offset, int length)
+    throws IOException
+  {
+    return new String(body, offset, length, "UTF-8");
+  }
+}
+// End of Utf8StringCodec class
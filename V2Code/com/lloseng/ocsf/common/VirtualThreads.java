@@ -0,0 +1,116 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.common;
+
+import java.lang.reflect.*;
+
+/**
+* The <code> VirtualThreads </code> class starts tasks on virtual
+* threads when the Java platform provides them. The framework is
+* compiled for older platforms, so the virtual thread builder
+* is looked up by reflection once, when this class is loaded.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public final class VirtualThreads
+{
+  // Class variables ************************************************
+
+  /**
+   * The <code>Thread.ofVirtual()</code> method, or null if unavailable.
+   */
+  private static final Method OF_VIRTUAL;
+
+  /**
+   * The <code>Thread.Builder.name(String)</code> method.
+   */
+  private static final Method NAME;
+
+  /**
+   * The <code>Thread.Builder.start(Runnable)</code> method.
+   */
+  private static final Method START;
+
+  static
+  {
+    Method ofVirtual = null;
+    Method name = null;
+    Method start = null;
+    try
+    {
+      Class builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+      name = builder.getMethod("name", new Class[] {String.class});
+      start = builder.getMethod("start", new Class[] {Runnable.class});
+    }
+    catch (Exception ex)
+    {
+      ofVirtual = null;  // virtual threads are not supported
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    START = start;
+  }
+
+  // Constructor ****************************************************
+
+  /**
+   * This class only contains static methods.
+   */
+  private VirtualThreads() {}
+
+  // Class methods **************************************************
+
+  /**
+   * Returns true if the platform provides virtual threads.
+   *
+   * @return true if virtual threads are supported.
+   */
+  public static boolean isSupported()
+  {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Starts a task on a new virtual thread.
+   *
+   * @param name the name of the thread.
+   * @param task the task to be run.
+   * @return the started thread.
+   * @exception UnsupportedOperationException if virtual threads
+   *    are not supported.
+   */
+  public static Thread start(String name, Runnable task)
+  {
+    if (!isSupported())
+      throw new UnsupportedOperationException(
+        "virtual threads are not supported by this platform");
+
+    try
+    {
+      Object builder = OF_VIRTUAL.invoke(null, new Object[0]);
+      builder = NAME.invoke(builder, new Object[] {name});
+      return (Thread)START.invoke(builder, new Object[] {task});
+    }
+    catch (InvocationTargetException ex)
+    {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new IllegalStateException(cause.toString());
+    }
+    catch (IllegalAccessException ex)
+    {
+      throw new UnsupportedOperationException(ex.toString());
+    }
+  }
+}
+// End of VirtualThreads class
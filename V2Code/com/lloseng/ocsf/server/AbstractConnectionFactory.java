@@ -21,7 +21,13 @@ import java.io.*;
 * instances instead of having a centralized handling
 * through the 
 * <code>AbstractServer.handleMessageFromClient()</code>
-* method.
+* method.<p>
+*
+* Since version 2.4, the constructor of <code>ConnectionToClient</code>
+* decides how the created connection runs: as a thread of the given
+* group, on a virtual thread or on a reactor of the server, depending
+* on how the server has been configured. A factory therefore works
+* unchanged in all these modes.<p>
 *
 * Project Name: OCSF (Object Client-Server Framework)<p>
 *
@@ -44,6 +50,7 @@ public abstract class AbstractConnectionFactory
    * and return the created instance.
    *
    * @param group the thread group that contains the connections.
+   *   It is not used when the connections run on virtual threads.
    * @param clientSocket contains the client's socket.
    * @param server a reference to the server that created this instance.
    * @exception IOException if an I/O error occur when creating the connection.
@@ -5,8 +5,13 @@
 package com.lloseng.ocsf.server;
 
 import java.net.*;
+import java.nio.channels.*;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.*;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+import com.lloseng.ocsf.common.*;
 
 /**
 * The <code> AbstractServer </code> class maintains a thread that waits
@@ -56,6 +61,64 @@ import java.io.*;
 * the <code>run</code> method.
 * <li> Method <code>isListening()</code> has been modified.
 * <li> Instance variable <code>readToStop</code> is now initialized to <code>true</code>
+* </ul>
+* The modifications made to this class in version 2.4 are:
+* <ul>
+* <li> Method <code>setReactorThreads()</code> has been added. When
+* reactor threads are used, the connections are multiplexed
+* on these threads by a <code>SelectorEngine</code> instead of
+* each running its own thread.
+* <li> Method <code>setVirtualThreads()</code> has been added. The
+* connections can run on virtual threads.
+* <li> The connections are kept in a lock-free registry instead of
+* being enumerated from the client thread group. Method
+* <code>getClientConnections()</code> is not synchronized anymore
+* and <code>sendToAllClients()</code> iterates over a snapshot of
+* the registry, only rebuilt after clients connect or disconnect.
+* <li> Method <code>sendToAllClientsAsync()</code> has been added,
+* together with methods <code>setOutboundQueueCapacity()</code> and
+* <code>setSlowConsumerPolicy()</code>. The messages are queued per
+* client and written by writer threads, so that a slow client
+* cannot delay the others.
+* <li> The broadcast methods encode the message only once for all
+* the connections exchanging frames, which then write the
+* same bytes.
+* <li> Method <code>setCodec()</code> has been added. With a codec,
+* messages are exchanged as length-prefixed frames instead of
+* using object streams.
+* <li> Method <code>setDispatchMode()</code> has been added. Messages
+* can now be handled concurrently, without the global lock of
+* <code>receiveMessageFromClient()</code>.
+* <li> Methods <code>setFlushPolicy()</code> and <code>setTcpNoDelay()</code>
+* have been added. The output to the clients is buffered, so that
+* many small messages can be sent in a few large writes.
+* <li> The listening thread no longer polls the server socket, and
+* is woken up as soon as <code>stopListening()</code> is called: with
+* reactor threads it waits for connections with a selector, otherwise
+* it blocks in <code>accept()</code> and is woken up by a connection
+* from the server itself. The timeout set by
+* <code>setTimeout()</code> is not used anymore. Method
+* <code>setAcceptorThreads()</code> has been added, and the default
+* backlog is now 128.
+* <li> Dispatch mode <code>WORKER_POOL_DISPATCH</code> and method
+* <code>setWorkerThreads()</code> have been added. The messages are then
+* handled by a pool of worker threads instead of the threads reading
+* them, still in order for each client.
+* <li> Methods <code>setWriteBufferWaterMarks()</code> and
+* <code>clientWritabilityChanged()</code> have been added. Together with
+* the new sending methods of <code>ConnectionToClient</code>, they let
+* producers throttle themselves when a client stops reading.
+* <li> Method <code>setResetPolicy()</code> has been added. The object
+* streams are now reset every megabyte by default, so that they do not
+* keep every object sent alive.
+* <li> Methods <code>joinGroup()</code>, <code>leaveGroup()</code>,
+* <code>sendToGroup()</code> and <code>sendToGroupAsync()</code> have been
+* added. A message sent to a named group of clients only visits the
+* members of that group.
+* <li> Methods <code>getMetrics()</code> and <code>registerMetrics()</code>
+* have been added. The server counts the connections, messages, bytes
+* and exceptions, and measures the time spent handling messages and
+* broadcasts.
 * </ul><p>
 *
 * Project Name: OCSF (Object Client-Server Framework)<p>
@@ -70,6 +133,55 @@ import java.io.*;
 */
 public abstract class AbstractServer implements Runnable
 {
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * Dispatch mode in which the messages of all the clients are handled
+   * one at a time, under the lock of the server. This is the default.
+   * Added in version 2.4
+   */
+  public static final int SERIALIZED_DISPATCH = 0;
+
+  /**
+   * Dispatch mode in which messages from different clients are handled
+   * in parallel while the messages of one client are handled one at a
+   * time, in the order they were received. Added in version 2.4
+   */
+  public static final int PER_CLIENT_DISPATCH = 1;
+
+  /**
+   * Dispatch mode in which messages are handled without any
+   * locking by the framework. Added in version 2.4
+   */
+  public static final int CONCURRENT_DISPATCH = 2;
+
+  /**
+   * Dispatch mode in which the messages are handed to a pool of worker
+   * threads shared by all the clients. The messages of one client are
+   * handled one at a time, in the order they were received, while
+   * different clients are handled in parallel. Added in version 2.4
+   */
+  public static final int WORKER_POOL_DISPATCH = 3;
+
+  /**
+   * Slow consumer policy by which a message is not sent to a client
+   * whose outbound queue is full. This is the default. Added in version 2.4
+   */
+  public static final int SLOW_CONSUMER_DROP = 0;
+
+  /**
+   * Slow consumer policy by which a client whose outbound queue is full
+   * is disconnected. Added in version 2.4
+   */
+  public static final int SLOW_CONSUMER_DISCONNECT = 1;
+
+  /**
+   * Slow consumer policy by which the messages waiting in a full
+   * outbound queue are replaced by the new message, so that the client
+   * only receives the latest one. Added in version 2.4
+   */
+  public static final int SLOW_CONSUMER_COALESCE = 2;
+
   // INSTANCE VARIABLES *********************************************
 
   /**
@@ -88,20 +200,39 @@ public abstract class AbstractServer implements Runnable
   private int port;
 
   /**
-   * The server timeout while for accepting connections.
-   * After timing out, the server will check to see if a command to
-   * stop the server has been issued; it not it will resume accepting
-   * connections.
-   * Set to half a second by default.
+   * The number of threads accepting the connections.
+   * Set to 1 by default. Added in version 2.4
+   */
+  private int acceptorThreads = 1;
+
+  /**
+   * The selectors on which the accepting threads wait, so that they
+   * can be woken up. Guarded by the list. Added in version 2.4
+   */
+  private final List acceptSelectors = new ArrayList();
+
+  /**
+   * The number of accepting threads blocked in <code>accept()</code>
+   * when each connection runs its own thread. Guarded by
+   * <code>acceptSelectors</code>. Added in version 2.4
+   */
+  private int blockedAcceptors = 0;
+
+  /**
+   * The addresses of the connections opened by
+   * <code>stopListening</code> to wake the blocked accepting threads
+   * up, which are closed when accepted. Guarded by
+   * <code>acceptSelectors</code>. Added in version 2.4
    */
-  private int timeout = 500;
+  private final Set wakeupAddresses = new HashSet();
 
   /**
    * The maximum queue length; i.e. the maximum number of clients that
    * can be waiting to connect.
-   * Set to 10 by default.
+   * Set to 128 by default since version 2.4, so that the connection
+   * attempts made when many clients reconnect at once are not refused.
    */
-  private int backlog = 10;
+  private int backlog = 128;
 
   /**
    * The thread group associated with client threads. Each member of the
@@ -113,7 +244,7 @@ public abstract class AbstractServer implements Runnable
    * Indicates if the listening thread is ready to stop.  Set to
    * false by default.
    */
-  private boolean readyToStop = true; // modified in version 2.31
+  private volatile boolean readyToStop = true; // modified in version 2.31
 
   /**
    * The factory used to create new connections to clients.
@@ -121,7 +252,146 @@ public abstract class AbstractServer implements Runnable
    * instances will be created. Added in version 2.3
    */
   private AbstractConnectionFactory connectionFactory = null;
-  
+
+  /**
+   * The number of reactor threads used to handle the connections.
+   * Is 0 by default, meaning that each connection runs its
+   * own thread. Added in version 2.4
+   */
+  private int reactorThreads = 0;
+
+  /**
+   * The engine multiplexing the connections on the reactor threads.
+   * Is null when each connection runs its own thread. Added in version 2.4
+   */
+  private volatile SelectorEngine selectorEngine = null;
+
+  /**
+   * Indicates if the connections run on virtual threads instead of
+   * threads of the client thread group.
+   * Set to false by default. Added in version 2.4
+   */
+  private volatile boolean virtualThreads = false;
+
+  /**
+   * The registry of the connected clients, whatever the way they run.
+   * Replaces the enumeration of the client thread group. Added in version 2.4
+   */
+  private ConnectionRegistry clients = new ConnectionRegistry();
+
+  /**
+   * The named groups of clients, each mapped to the registry of its
+   * members. Groups are created when joined and removed once empty;
+   * changes are made while holding the map. Added in version 2.4
+   */
+  private final ConcurrentHashMap groups = new ConcurrentHashMap();
+
+  /**
+   * The metrics of the server. Added in version 2.4
+   */
+  private final ServerMetrics metrics = new ServerMetrics(this);
+
+  /**
+   * The name under which the metrics are registered as an MBean, or
+   * null if they are not registered. Guarded by the metrics.
+   * Added in version 2.4
+   */
+  private ObjectName metricsName = null;
+
+  /**
+   * The way received messages are dispatched to
+   * <code>handleMessageFromClient</code>.
+   * Set to <code>SERIALIZED_DISPATCH</code> by default. Added in version 2.4
+   */
+  private volatile int dispatchMode = SERIALIZED_DISPATCH;
+
+  /**
+   * The codec used to exchange messages with the clients.
+   * Is null by default, meaning that object streams are used.
+   * Added in version 2.4
+   */
+  private volatile MessageCodec codec = null;
+
+  /**
+   * The maximum number of messages queued for one client by the
+   * asynchronous broadcasts. Set to 256 by default. Added in version 2.4
+   */
+  private volatile int outboundQueueCapacity = 256;
+
+  /**
+   * The number of messages waiting to be sent to a client above which
+   * the connection is not writable anymore. Set to 64 by default.
+   * Added in version 2.4
+   */
+  private volatile int highWaterMark = 64;
+
+  /**
+   * The number of messages waiting to be sent to a client under which
+   * an unwritable connection becomes writable again. Set to 16 by default.
+   * Added in version 2.4
+   */
+  private volatile int lowWaterMark = 16;
+
+  /**
+   * The policy applied when the outbound queue of a client is full.
+   * Set to <code>SLOW_CONSUMER_DROP</code> by default. Added in version 2.4
+   */
+  private volatile int slowConsumerPolicy = SLOW_CONSUMER_DROP;
+
+  /**
+   * The policy deciding when the buffered output to a client is sent.
+   * Set to <code>FlushPolicy.immediate()</code> by default.
+   * Added in version 2.4
+   */
+  private volatile FlushPolicy flushPolicy = FlushPolicy.immediate();
+
+  /**
+   * The policy deciding when the object streams are reset.
+   * Set to <code>ResetPolicy.getDefault()</code> by default.
+   * Added in version 2.4
+   */
+  private volatile ResetPolicy resetPolicy = ResetPolicy.getDefault();
+
+  /**
+   * Indicates if the Nagle algorithm is disabled on the client sockets.
+   * Set to false by default. Added in version 2.4
+   */
+  private volatile boolean tcpNoDelay = false;
+
+  /**
+   * The threads writing the queued messages to the clients.
+   * Created when first needed. Added in version 2.4
+   */
+  private ExecutorService writerThreads = null;
+
+  /**
+   * Hands tasks to the writer threads. Added in version 2.4
+   */
+  private final Executor writerExecutor = new Executor()
+  {
+    public void execute(Runnable task)
+    {
+      scheduleWriter(task);
+    }
+  };
+
+  /**
+   * The threads handling the messages in the worker pool dispatch mode.
+   * Created when first needed. Added in version 2.4
+   */
+  private ThreadPoolExecutor workerThreads = null;
+
+  /**
+   * The number of worker threads. Set to the number of processors
+   * by default. Added in version 2.4
+   */
+  private int workerThreadCount = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The lock guarding the creation of the writer and worker threads.
+   */
+  private final Object writerLock = new Object();
+
 // CONSTRUCTOR ******************************************************
 
   /**
@@ -141,7 +411,7 @@ public abstract class AbstractServer implements Runnable
         public void uncaughtException(
           Thread thread, Throwable exception)
         {
-          clientException((ConnectionToClient)thread, exception);
+          notifyClientException((ConnectionToClient)thread, exception);
         }
       };
   }
@@ -161,13 +431,37 @@ public abstract class AbstractServer implements Runnable
   {
     if (!isListening())
     {
-      if (serverSocket == null)
+      if (serverSocket == null && reactorThreads == 0)
       {
+        // The connections running their own thread use the streams of
+        // plain sockets: those of the sockets of a channel cannot be
+        // read and written at the same time before Java 13.
         serverSocket = new ServerSocket(getPort(), backlog);
       }
+      else if (serverSocket == null)
+      {
+        // The channel is selected by the accepting threads, and the
+        // reactors need the channels of the accepted sockets
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        serverSocket = channel.socket();
+        try
+        {
+          serverSocket.bind(new InetSocketAddress(getPort()), backlog);
+          channel.configureBlocking(false);
+        }
+        catch (IOException ex)
+        {
+          serverSocket.close();
+          serverSocket = null;
+          throw ex;
+        }
+      }
+
+      if (reactorThreads > 0 && selectorEngine == null)
+      {
+        selectorEngine = new SelectorEngine(this, reactorThreads);
+      }
 
-      serverSocket.setSoTimeout(timeout);
-      
       connectionListener = new Thread(this);
       connectionListener.start();
     }
@@ -179,6 +473,22 @@ public abstract class AbstractServer implements Runnable
   final public void stopListening()
   {
     readyToStop = true;
+
+    int blocked;
+    synchronized (acceptSelectors)  // added in version 2.4
+    {
+      for (Iterator i = acceptSelectors.iterator(); i.hasNext(); )
+      {
+        ((Selector)i.next()).wakeup();
+      }
+      blocked = blockedAcceptors;
+    }
+
+    // A thread blocked in accept() is woken up by a connection
+    for (int i=0; i<blocked; i++)
+    {
+      wakeUpAcceptor();
+    }
   }
 
   /**
@@ -199,6 +509,7 @@ public abstract class AbstractServer implements Runnable
       return;
     stopListening();
 
+    SelectorEngine engine = null;
     try
     {
       serverSocket.close();
@@ -208,17 +519,40 @@ public abstract class AbstractServer implements Runnable
       synchronized (this)
       {
         // Close the client sockets of the already connected clients
-        Thread[] clientThreadList = getClientConnections();
-        for (int i=0; i<clientThreadList.length; i++)
+        ConnectionToClient[] clientList = clients.snapshot();
+        for (int i=0; i<clientList.length; i++)
         {
           try
           {
-            ((ConnectionToClient)clientThreadList[i]).close();
+            clientList[i].close();
           }
           // Ignore all exceptions when closing clients.
           catch(Exception ex) {}
         }
         serverSocket = null;
+
+        synchronized (acceptSelectors)  // added in version 2.4
+        {
+          wakeupAddresses.clear();
+        }
+
+        engine = selectorEngine;  // added in version 2.4
+        selectorEngine = null;
+
+      }
+
+      synchronized (writerLock)  // added in version 2.4
+      {
+        if (writerThreads != null)
+        {
+          writerThreads.shutdown();
+          writerThreads = null;
+        }
+        if (workerThreads != null)
+        {
+          workerThreads.shutdown();
+          workerThreads = null;
+        }
       }
 
       try
@@ -228,6 +562,10 @@ public abstract class AbstractServer implements Runnable
       catch(InterruptedException ex) {}
       catch(NullPointerException ex) {} // When thread already dead.
 
+      // Stop the reactors once their clients are released
+      if (engine != null)  // added in version 2.4
+        engine.close();
+
       serverClosed();
     }
   }
@@ -245,16 +583,178 @@ public abstract class AbstractServer implements Runnable
    */
   public void sendToAllClients(Object msg)
   {
-    Thread[] clientThreadList = getClientConnections();
+    sendToClients(clients.snapshot(), msg);  // modified in version 2.4
+  }
+
+
+  /**
+   * Sends a message to every client connected to the server without
+   * waiting for the message to be written. The message is added to the
+   * outbound queue of each client and written by a writer thread of
+   * the server, so that a client that does not read its messages
+   * cannot delay the delivery to the others. When the queue of a client
+   * is full, the slow consumer policy is applied to that client.
+   * The messages are sent with <code>sendToClient</code>; a message
+   * sent directly with that method may therefore be written before
+   * the messages still queued for the client.
+   * This method can be overriden, as <code>sendToAllClients</code>.
+   * Added in version 2.4
+   *
+   * @param msg   Object The message to be sent
+   */
+  public void sendToAllClientsAsync(Object msg)
+  {
+    sendToClientsAsync(clients.snapshot(), msg);
+  }
+
+  /**
+   * Sends a message to every client of a group. Only the members of
+   * the group are visited, so the cost of this method depends on the
+   * size of the group and not on the number of connected clients.
+   * Nothing is sent if the group does not exist. As with
+   * <code>sendToAllClients</code>, any exception thrown while sending
+   * the message to a particular client is ignored.
+   * This method can be overriden, as <code>sendToAllClients</code>.
+   * Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @param msg   Object The message to be sent
+   */
+  public void sendToGroup(String group, Object msg)
+  {
+    ConnectionRegistry members = (ConnectionRegistry)groups.get(group);
+    if (members != null)
+      sendToClients(members.snapshot(), msg);
+  }
+
+  /**
+   * Sends a message to every client of a group without waiting for the
+   * message to be written. The message is queued for each member as by
+   * <code>sendToAllClientsAsync</code>.
+   * This method can be overriden, as <code>sendToAllClients</code>.
+   * Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @param msg   Object The message to be sent
+   */
+  public void sendToGroupAsync(String group, Object msg)
+  {
+    ConnectionRegistry members = (ConnectionRegistry)groups.get(group);
+    if (members != null)
+      sendToClientsAsync(members.snapshot(), msg);
+  }
+
+  /**
+   * Adds a client to a group, creating the group if needed.
+   * A client that is not connected anymore cannot join a group.
+   * The client leaves all its groups when it disconnects.
+   * Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @param client the connection to the client.
+   * @return true if the client joined the group, false if it was
+   *   already a member or is not connected.
+   */
+  final public boolean joinGroup(String group, ConnectionToClient client)
+  {
+    synchronized (groups)
+    {
+      if (!clients.contains(client))
+        return false;
+
+      ConnectionRegistry members = (ConnectionRegistry)groups.get(group);
+      if (members == null)
+      {
+        members = new ConnectionRegistry();
+        groups.put(group, members);
+      }
+
+      if (!members.add(client))
+        return false;
+
+      client.getGroupNames().add(group);
+      return true;
+    }
+  }
+
+  /**
+   * Removes a client from a group. The group is removed once its
+   * last member has left. Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @param client the connection to the client.
+   * @return true if the client has left the group, false if it was
+   *   not a member.
+   */
+  final public boolean leaveGroup(String group, ConnectionToClient client)
+  {
+    synchronized (groups)
+    {
+      if (!client.getGroupNames().remove(group))
+        return false;
+
+      removeFromGroup(group, client);
+      return true;
+    }
+  }
+
+  /**
+   * Sends a message to each client of a list.
+   *
+   * @param clientList the clients.
+   * @param msg the message.
+   */
+  private void sendToClients(ConnectionToClient[] clientList, Object msg)
+  {
+    long start = System.nanoTime();
+
+    // The message is encoded once for all the clients (added in version 2.4)
+    BroadcastMessage broadcast = new BroadcastMessage(msg);
 
-    for (int i=0; i<clientThreadList.length; i++)
+    for (int i=0; i<clientList.length; i++)
     {
       try
       {
-        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);
+        clientList[i].sendBroadcast(broadcast);
       }
       catch (Exception ex) {}
     }
+    metrics.broadcastDone(System.nanoTime() - start);
+  }
+
+  /**
+   * Queues a message for each client of a list.
+   *
+   * @param clientList the clients.
+   * @param msg the message.
+   */
+  private void sendToClientsAsync(ConnectionToClient[] clientList,
+    Object msg)
+  {
+    long start = System.nanoTime();
+    int capacity = outboundQueueCapacity;
+    int policy = slowConsumerPolicy;
+    BroadcastMessage broadcast = new BroadcastMessage(msg);
+
+    for (int i=0; i<clientList.length; i++)
+    {
+      clientList[i].sendQueued(broadcast, capacity, policy);
+    }
+    metrics.broadcastDone(System.nanoTime() - start);
+  }
+
+  /**
+   * Removes a client from the registry of a group, and the group
+   * if it is now empty. Must be called while holding the groups.
+   *
+   * @param group the name of the group.
+   * @param client the connection to the client.
+   */
+  private void removeFromGroup(String group, ConnectionToClient client)
+  {
+    ConnectionRegistry members = (ConnectionRegistry)groups.get(group);
+    if (members != null && members.remove(client) && members.size() == 0)
+      groups.remove(group);
   }
 
 
@@ -293,12 +793,13 @@ public abstract class AbstractServer implements Runnable
    * @return an array of <code>Thread</code> containing
    * <code>ConnectionToClient</code> instances.
    */
-  synchronized final public Thread[] getClientConnections()
+  final public Thread[] getClientConnections()
   {
-    Thread[] clientThreadList = new
-      Thread[clientThreadGroup.activeCount()];
+    // Copied from the registry since version 2.4
+    ConnectionToClient[] clientList = clients.snapshot();
+    Thread[] clientThreadList = new Thread[clientList.length];
 
-    clientThreadGroup.enumerate(clientThreadList);
+    System.arraycopy(clientList, 0, clientThreadList, 0, clientList.length);
 
     return clientThreadList;
   }
@@ -310,7 +811,110 @@ public abstract class AbstractServer implements Runnable
    */
   final public int getNumberOfClients()
   {
-    return clientThreadGroup.activeCount();
+    return clients.size();  // modified in version 2.4
+  }
+
+  /**
+   * Returns the metrics of the server. The metrics are kept for the
+   * whole life of the server, including when it is closed and listens
+   * again. Added in version 2.4
+   *
+   * @return the metrics.
+   */
+  final public ServerMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * Registers the metrics of the server with the platform MBean server,
+   * under the name <code>com.lloseng.ocsf:type=AbstractServer,port=</code>
+   * followed by the port of the server. Added in version 2.4
+   *
+   * @return the name of the MBean.
+   * @exception JMException if the MBean cannot be registered, for
+   *   example if another server uses the same port.
+   */
+  final public ObjectName registerMetrics() throws JMException
+  {
+    return registerMetrics(new ObjectName(
+      "com.lloseng.ocsf:type=AbstractServer,port=" + getPort()));
+  }
+
+  /**
+   * Registers the metrics of the server with the platform MBean server.
+   * Metrics already registered are first unregistered.
+   * Added in version 2.4
+   *
+   * @param name the name of the MBean.
+   * @return the name of the MBean.
+   * @exception JMException if the MBean cannot be registered.
+   */
+  final public ObjectName registerMetrics(ObjectName name)
+    throws JMException
+  {
+    synchronized (metrics)
+    {
+      unregisterMetrics();
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+      metricsName = name;
+      return name;
+    }
+  }
+
+  /**
+   * Unregisters the metrics of the server from the platform MBean
+   * server, if they were registered. Added in version 2.4
+   *
+   * @exception JMException if the MBean cannot be unregistered.
+   */
+  final public void unregisterMetrics() throws JMException
+  {
+    synchronized (metrics)
+    {
+      if (metricsName == null)
+        return;
+
+      ObjectName name = metricsName;
+      metricsName = null;
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+  }
+
+  /**
+   * Returns an array containing the clients of a group.
+   * As with <code>getClientConnections()</code>, the array is
+   * a snapshot of the group. Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @return an array of <code>Thread</code> containing
+   * <code>ConnectionToClient</code> instances; empty if the group
+   * does not exist.
+   */
+  final public Thread[] getGroupMembers(String group)
+  {
+    ConnectionRegistry members = (ConnectionRegistry)groups.get(group);
+    ConnectionToClient[] clientList = members == null ?
+      new ConnectionToClient[0] : members.snapshot();
+    Thread[] clientThreadList = new Thread[clientList.length];
+
+    System.arraycopy(clientList, 0, clientThreadList, 0, clientList.length);
+
+    return clientThreadList;
+  }
+
+  /**
+   * Returns the names of the groups having at least one client.
+   * Added in version 2.4
+   *
+   * @return the names of the groups.
+   */
+  final public String[] getGroups()
+  {
+    synchronized (groups)
+    {
+      return (String[])groups.keySet().toArray(new String[0]);
+    }
   }
 
   /**
@@ -337,21 +941,37 @@ public abstract class AbstractServer implements Runnable
 
   /**
    * Sets the timeout time when accepting connections.
-   * The default is half a second. This means that stopping the
-   * server may take up to timeout duration to actually stop.
-   * The server must be stopped and restarted for the timeout
-   * change to be effective.
+   * Has no effect since version 2.4: the listening thread does not
+   * poll the server socket anymore, and stops as soon as
+   * <code>stopListening()</code> is called.
    *
    * @param timeout the timeout time in ms.
    */
   final public void setTimeout(int timeout)
   {
-    this.timeout = timeout;
+  }
+
+  /**
+   * Sets the number of threads accepting the connections. With more
+   * than one thread, the connection attempts made at the same time,
+   * for example when many clients reconnect after a failure, are
+   * accepted in parallel. The listening thread is one of them.
+   * The default is 1. The server must be stopped and restarted for
+   * the change to be in effect. Added in version 2.4
+   *
+   * @param threads the number of accepting threads.
+   */
+  final public void setAcceptorThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be positive");
+
+    this.acceptorThreads = threads;
   }
 
   /**
    * Sets the maximum number of waiting connections accepted by the
-   * operating system. The default is 20.
+   * operating system. The default is 128.
    * The server must be closed and restarted for the backlog
    * change to be in effect.
    *
@@ -377,11 +997,359 @@ public abstract class AbstractServer implements Runnable
     this.connectionFactory = factory;
   }
 
-// RUN METHOD -------------------------------------------------------
-
   /**
-   * Runs the listening thread that allows clients to connect.
-   * Not to be called.
+   * Sets the number of reactor threads used to handle the connections.
+   * When this number is positive, the connections do not run their
+   * own thread anymore: all of them are multiplexed, using
+   * non-blocking channels, on this fixed number of threads.
+   * This allows a large number of mostly idle clients to be
+   * connected at the same time. The hook methods are called
+   * as usual, from the reactor thread of the connection concerned.
+   * The clients must exchange length-prefixed frames, as defined by
+   * <code>com.lloseng.ocsf.common.ObjectFrames</code>; when no codec
+   * has been set, the messages are serialized in these frames.
+   * The default is 0, meaning one thread per connection.
+   * The server must be closed and restarted for the change
+   * to be in effect. Added in version 2.4
+   *
+   * @param threads the number of reactor threads, or 0.
+   */
+  final public void setReactorThreads(int threads)
+  {
+    if (threads < 0)
+      throw new IllegalArgumentException("negative number of threads");
+
+    this.reactorThreads = threads;
+  }
+
+  /**
+   * Sets whether the connections run on virtual threads.
+   * Virtual threads keep the blocking programming model of
+   * <code>ConnectionToClient</code> while allowing a very large
+   * number of clients to be connected at the same time.
+   * The connections created afterward, including those created by
+   * a connection factory, run on virtual threads instead of threads
+   * of the client thread group. This setting has no effect when the
+   * server uses reactor threads. Added in version 2.4
+   *
+   * @param virtualThreads true to run the connections on virtual threads.
+   * @exception UnsupportedOperationException if virtual threads are
+   *    not supported by the Java platform.
+   */
+  final public void setVirtualThreads(boolean virtualThreads)
+  {
+    if (virtualThreads && !VirtualThreads.isSupported())
+      throw new UnsupportedOperationException(
+        "virtual threads are not supported by this platform");
+
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Returns true if the connections run on virtual threads.
+   *
+   * @return true if virtual threads are used.
+   */
+  final public boolean isUsingVirtualThreads()
+  {
+    return virtualThreads;
+  }
+
+  /**
+   * Sets the maximum number of messages that can be queued for one
+   * client by the asynchronous broadcasts. The default is 256.
+   * Added in version 2.4
+   *
+   * @param capacity the capacity of the outbound queues.
+   */
+  final public void setOutboundQueueCapacity(int capacity)
+  {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be positive");
+
+    this.outboundQueueCapacity = capacity;
+  }
+
+  /**
+   * Returns the maximum number of messages that can be queued for
+   * one client.
+   *
+   * @return the capacity of the outbound queues.
+   */
+  final public int getOutboundQueueCapacity()
+  {
+    return outboundQueueCapacity;
+  }
+
+  /**
+   * Sets the water marks deciding when a connection is writable.
+   * A connection becomes unwritable once <code>high</code> messages
+   * are waiting to be sent to its client, and writable again once no
+   * more than <code>low</code> are. The defaults are 16 and 64.
+   * The change is immediately in effect. Added in version 2.4
+   *
+   * @param low the low water mark.
+   * @param high the high water mark.
+   * @see ConnectionToClient#isWritable
+   */
+  final public void setWriteBufferWaterMarks(int low, int high)
+  {
+    if (low < 0 || high <= low)
+      throw new IllegalArgumentException("invalid water marks");
+
+    this.lowWaterMark = low;
+    this.highWaterMark = high;
+  }
+
+  /**
+   * @return the low water mark of the connections.
+   */
+  final public int getLowWaterMark()
+  {
+    return lowWaterMark;
+  }
+
+  /**
+   * @return the high water mark of the connections.
+   */
+  final public int getHighWaterMark()
+  {
+    return highWaterMark;
+  }
+
+  /**
+   * Sets the policy applied to a client whose outbound queue is full:
+   * <code>SLOW_CONSUMER_DROP</code>, the default, does not send the new
+   * message to that client; <code>SLOW_CONSUMER_DISCONNECT</code> closes
+   * the connection with the client; <code>SLOW_CONSUMER_COALESCE</code>
+   * replaces the queued messages by the new one.
+   * Added in version 2.4
+   *
+   * @param policy the slow consumer policy.
+   */
+  final public void setSlowConsumerPolicy(int policy)
+  {
+    if (policy != SLOW_CONSUMER_DROP && policy != SLOW_CONSUMER_DISCONNECT
+      && policy != SLOW_CONSUMER_COALESCE)
+      throw new IllegalArgumentException("unknown policy: " + policy);
+
+    this.slowConsumerPolicy = policy;
+  }
+
+  /**
+   * Sets the codec used to exchange messages with the clients.
+   * With a codec, each message is sent as a length-prefixed frame
+   * whose body is produced by the codec, instead of being written on
+   * an <code>ObjectOutputStream</code>. The clients must use the same
+   * codec. The default is null, meaning that object streams are used.
+   * The change is in effect for the connections accepted afterward.
+   * Added in version 2.4
+   *
+   * @param codec the codec, or null.
+   * @see com.lloseng.ocsf.common.MessageCodec
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    this.codec = codec;
+  }
+
+  /**
+   * Returns the codec used to exchange messages with the clients.
+   *
+   * @return the codec, or null if object streams are used.
+   */
+  final public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Sets the policy deciding when the messages written to a client
+   * are actually sent. With the default, <code>FlushPolicy.immediate()</code>,
+   * each message is sent as soon as it is written. The other policies
+   * gather several messages in one write, at the cost of some latency.
+   * The connections handled by reactor threads never wait: with any
+   * other policy than the immediate one, their messages are gathered
+   * until the reactor writes them.
+   * The change is in effect for the connections accepted afterward.
+   * Added in version 2.4
+   *
+   * @param policy the flush policy.
+   * @see com.lloseng.ocsf.common.FlushPolicy
+   */
+  final public void setFlushPolicy(FlushPolicy policy)
+  {
+    if (policy == null)
+      throw new IllegalArgumentException("policy must not be null");
+
+    this.flushPolicy = policy;
+  }
+
+  /**
+   * Returns the policy deciding when the messages written to a client
+   * are sent.
+   *
+   * @return the flush policy.
+   */
+  final public FlushPolicy getFlushPolicy()
+  {
+    return flushPolicy;
+  }
+
+  /**
+   * Sets the policy deciding when the object stream of a client is
+   * reset. By default, the stream is reset once a megabyte has been
+   * written, which bounds the memory kept by the streams of both
+   * sides. Use <code>ResetPolicy.everyMessage()</code> if objects are
+   * modified and sent again, or <code>ResetPolicy.never()</code> to
+   * keep the behaviour of the previous versions. Connections
+   * exchanging frames are not concerned. The change is in effect
+   * for the connections accepted afterward. Added in version 2.4
+   *
+   * @param policy the reset policy.
+   * @see com.lloseng.ocsf.common.ResetPolicy
+   */
+  final public void setResetPolicy(ResetPolicy policy)
+  {
+    if (policy == null)
+      throw new IllegalArgumentException("policy must not be null");
+
+    this.resetPolicy = policy;
+  }
+
+  /**
+   * Returns the policy deciding when the object streams are reset.
+   *
+   * @return the reset policy.
+   */
+  final public ResetPolicy getResetPolicy()
+  {
+    return resetPolicy;
+  }
+
+  /**
+   * Sets whether the Nagle algorithm is disabled on the client sockets.
+   * Disabling it lowers the latency of the messages sent immediately,
+   * and is usually combined with a policy gathering the small
+   * messages. The change is in effect for the connections accepted
+   * afterward. Added in version 2.4
+   *
+   * @param on true to set TCP_NODELAY on the sockets.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    this.tcpNoDelay = on;
+  }
+
+  /**
+   * @return true if TCP_NODELAY is set on the client sockets.
+   */
+  final public boolean isTcpNoDelay()
+  {
+    return tcpNoDelay;
+  }
+
+  /**
+   * Sets the way received messages are dispatched to
+   * <code>handleMessageFromClient</code>.
+   * With <code>SERIALIZED_DISPATCH</code>, the default, the handler
+   * is called under the lock of the server, so that only one message
+   * is handled at a time. With <code>PER_CLIENT_DISPATCH</code>, the
+   * lock is that of the connection: the messages of one client are
+   * handled one at a time and in order, while the other clients are
+   * handled in parallel. With <code>WORKER_POOL_DISPATCH</code>, the
+   * messages are handled in the same order, but by the worker threads
+   * of the server instead of the threads reading them, so that a slow
+   * handler does not delay the reading of the messages and the number
+   * of threads running handlers does not depend on the number of
+   * clients. With <code>CONCURRENT_DISPATCH</code> no lock
+   * is taken at all. In these three modes, the handler and
+   * everything it shares with the other clients must be thread-safe.
+   * The change is immediately in effect. Added in version 2.4
+   *
+   * @param mode one of the four dispatch modes.
+   */
+  final public void setDispatchMode(int mode)
+  {
+    if (mode != SERIALIZED_DISPATCH && mode != PER_CLIENT_DISPATCH
+      && mode != CONCURRENT_DISPATCH && mode != WORKER_POOL_DISPATCH)
+      throw new IllegalArgumentException("unknown dispatch mode: " + mode);
+
+    this.dispatchMode = mode;
+  }
+
+  /**
+   * Returns the way received messages are dispatched.
+   *
+   * @return the dispatch mode.
+   */
+  final public int getDispatchMode()
+  {
+    return dispatchMode;
+  }
+
+  /**
+   * Sets the number of worker threads handling the messages in the
+   * worker pool dispatch mode. The default is the number of
+   * processors. The change is immediately in effect.
+   * Added in version 2.4
+   *
+   * @param threads the number of worker threads.
+   */
+  final public void setWorkerThreads(int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be positive");
+
+    synchronized (writerLock)
+    {
+      int previous = workerThreadCount;
+      workerThreadCount = threads;
+      if (workerThreads == null)
+        return;
+
+      if (threads > previous)
+      {
+        workerThreads.setMaximumPoolSize(threads);
+        workerThreads.setCorePoolSize(threads);
+      }
+      else
+      {
+        workerThreads.setCorePoolSize(threads);
+        workerThreads.setMaximumPoolSize(threads);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of worker threads.
+   *
+   * @return the number of worker threads.
+   */
+  final public int getWorkerThreads()
+  {
+    synchronized (writerLock)
+    {
+      return workerThreadCount;
+    }
+  }
+
+  /**
+   * Returns the engine handling the connections on reactor threads,
+   * or null if each connection runs its own thread.
+   *
+   * @return the selector engine.
+   */
+  final SelectorEngine getSelectorEngine()
+  {
+    return selectorEngine;
+  }
+
+// RUN METHOD -------------------------------------------------------
+
+  /**
+   * Runs the listening thread that allows clients to connect.
+   * Not to be called.
    */
   final public void run()
   {
@@ -389,43 +1357,36 @@ public abstract class AbstractServer implements Runnable
     readyToStop= false;  // added in version 2.31
     serverStarted();
 
+    // The other accepting threads, added in version 2.4
+    Thread[] acceptors = new Thread[acceptorThreads-1];
+
     try
     {
-      // Repeatedly waits for a new client connection, accepts it, and
-      // starts a new thread to handle data exchange.
-      while(!readyToStop)
+      for (int i=0; i<acceptors.length; i++)
       {
-        try
+        acceptors[i] = new Thread(new Runnable()
         {
-          // Wait here for new connection attempts, or a timeout
-          Socket clientSocket = serverSocket.accept();
-
-          // When a client is accepted, create a thread to handle
-          // the data exchange, then add it to thread group
-
-          synchronized(this)
+          public void run()
           {
-            if (!readyToStop)  // added in version 2.2
+            try
             {
-              if (connectionFactory == null) {
-
-                new ConnectionToClient(
-                  this.clientThreadGroup, clientSocket, this);
-                  
-              } else {        // added in version 2.3
-
-                connectionFactory.createConnection(
-                  this.clientThreadGroup, clientSocket, this);
+              acceptConnections();
+            }
+            catch (IOException exception)
+            {
+              if (!readyToStop)
+              {
+                listeningException(exception);
+                stopListening();
               }
             }
           }
-        }
-        catch (InterruptedIOException exception)
-        {
-          // This will be thrown when a timeout occurs.
-          // The server will continue to listen if not ready to stop.
-        }
+        }, "AbstractServer acceptor");
+        acceptors[i].setDaemon(true);
+        acceptors[i].start();
       }
+
+      acceptConnections();
     }
     catch (IOException exception)
     {
@@ -438,6 +1399,16 @@ public abstract class AbstractServer implements Runnable
     finally
     {
       readyToStop = true;
+      stopListening();  // wakes up the other accepting threads
+
+      for (int i=0; i<acceptors.length && acceptors[i] != null; i++)
+      {
+        try
+        {
+          acceptors[i].join();
+        }
+        catch (InterruptedException ex) {}
+      }
       connectionListener = null;
 
       // call the hook method to notify that the server has stopped
@@ -445,14 +1416,195 @@ public abstract class AbstractServer implements Runnable
     }
   }
 
+  /**
+   * Accepts connections until the server stops listening.
+   * With reactor threads, the thread waits on its own selector, which
+   * is woken up by <code>stopListening</code>; when a client connects,
+   * all the accepting threads are woken up but only one accepts the
+   * connection. Otherwise the thread blocks in <code>accept()</code>.
+   * Several threads may run this method at the same time.
+   * Added in version 2.4
+   *
+   * @exception IOException if an I/O error occurs when accepting
+   *   a connection or when creating it.
+   */
+  private void acceptConnections() throws IOException
+  {
+    ServerSocketChannel channel = serverSocket.getChannel();
+    if (channel == null)
+    {
+      acceptBlocking();
+      return;
+    }
+
+    Selector selector = Selector.open();
+
+    try
+    {
+      synchronized (acceptSelectors)
+      {
+        acceptSelectors.add(selector);
+      }
+      channel.register(selector, SelectionKey.OP_ACCEPT);
+
+      // Repeatedly waits for new client connections, accepts them, and
+      // starts a new thread to handle data exchange.
+      while(!readyToStop)
+      {
+        // Wait here for new connection attempts, or for the
+        // server to stop listening
+        selector.select();
+        selector.selectedKeys().clear();
+
+        SocketChannel accepted;
+        while (!readyToStop && (accepted = channel.accept()) != null)
+        {
+          acceptClient(accepted.socket());
+        }
+      }
+    }
+    finally
+    {
+      synchronized (acceptSelectors)
+      {
+        acceptSelectors.remove(selector);
+      }
+      selector.close();
+    }
+  }
+
+  /**
+   * Accepts connections on a server socket without channel until the
+   * server stops listening. <code>stopListening</code> wakes up each
+   * thread blocked in <code>accept()</code> by connecting to the
+   * server. Added in version 2.4
+   *
+   * @exception IOException if an I/O error occurs when accepting
+   *   a connection or when creating it.
+   */
+  private void acceptBlocking() throws IOException
+  {
+    while (!readyToStop)
+    {
+      Socket clientSocket;
+      synchronized (acceptSelectors)
+      {
+        blockedAcceptors++;
+      }
+      try
+      {
+        // Checked once counted, so that stopListening either sees this
+        // thread blocked or is seen to have been called
+        if (readyToStop)
+          return;
+        clientSocket = serverSocket.accept();
+      }
+      finally
+      {
+        synchronized (acceptSelectors)
+        {
+          blockedAcceptors--;
+        }
+      }
+
+      boolean wakeup;
+      synchronized (acceptSelectors)
+      {
+        wakeup = wakeupAddresses.remove(
+          clientSocket.getRemoteSocketAddress());
+      }
+      if (wakeup)
+        clientSocket.close();
+      else
+        acceptClient(clientSocket);
+    }
+  }
+
+  /**
+   * Creates the connection of a client that has been accepted.
+   * Added in version 2.4
+   *
+   * @param clientSocket the socket of the client.
+   * @exception IOException if the connection cannot be created.
+   */
+  private void acceptClient(Socket clientSocket) throws IOException
+  {
+    metrics.connectionAccepted();  // added in version 2.4
+
+    // When a client is accepted, create a thread to handle
+    // the data exchange, then add it to thread group.
+    // Creating a connection does not block, the streams being
+    // set up by its own thread, so that the acceptors do not
+    // wait for each other nor for the clients. Since version 2.4
+    // the server is not locked meanwhile.
+
+    if (readyToStop)  // added in version 2.2
+    {
+      clientSocket.close();
+      return;
+    }
+
+    ConnectionToClient client;
+    if (connectionFactory == null) {
+
+      client = new ConnectionToClient(
+        this.clientThreadGroup, clientSocket, this);
+
+    } else {        // added in version 2.3
+
+      client = connectionFactory.createConnection(
+        this.clientThreadGroup, clientSocket, this);
+    }
+
+    // close() may have collected the connections before this one
+    // was registered; it is then closed here.
+    if (readyToStop && client != null)
+      client.close();
+  }
+
+  /**
+   * Connects to the server socket, so that a thread blocked in
+   * <code>accept()</code> returns. The connection is recognised by
+   * its address and closed once accepted. Added in version 2.4
+   */
+  private void wakeUpAcceptor()
+  {
+    ServerSocket listening = serverSocket;
+    if (listening == null)
+      return;
+
+    Socket wakeup = new Socket();
+    try
+    {
+      wakeup.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      synchronized (acceptSelectors)
+      {
+        wakeupAddresses.add(wakeup.getLocalSocketAddress());
+      }
+      wakeup.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        listening.getLocalPort()));
+    }
+    catch (IOException ex) {}  // closing the server socket also wakes up
+    finally
+    {
+      try
+      {
+        wakeup.close();
+      }
+      catch (IOException ex) {}
+    }
+  }
+
 
 // METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
 
   /**
    * Hook method called each time a new client connection is
    * accepted. The default implementation does nothing.
-   * This method does not have to be synchronized since only
-   * one client can be accepted at a time.
+   * Since version 2.4, this method is called by the thread of the
+   * new connection, once its streams are set up, so that several
+   * clients can be connected at the same time. It must therefore be
+   * thread-safe.
    *
    * @param client the connection connected to the client.
    */
@@ -470,6 +1622,18 @@ public abstract class AbstractServer implements Runnable
   synchronized protected void clientDisconnected(
     ConnectionToClient client) {}
 
+  /**
+   * Hook method called each time a connection becomes writable or
+   * unwritable, as returned by its <code>isWritable()</code> method.
+   * It is called by the thread that made the number of waiting
+   * messages cross a water mark, without any lock of the framework:
+   * the state may have changed again by the time it is called.
+   * The default implementation does nothing. Added in version 2.4
+   *
+   * @param client the connection with the client.
+   */
+  protected void clientWritabilityChanged(ConnectionToClient client) {}
+
   /**
    * Hook method called each time an exception is thrown in a
    * ConnectionToClient thread.
@@ -522,8 +1686,9 @@ public abstract class AbstractServer implements Runnable
    * Handles a command sent from one client to the server.
    * This MUST be implemented by subclasses, who should respond to
    * messages.
-   * This method is called by a synchronized method so it is also
-   * implcitly synchronized.
+   * With the default dispatch mode, this method is called by a
+   * synchronized method so it is also implcitly synchronized.
+   * Refer to <code>setDispatchMode</code> for the other modes.
    *
    * @param msg   the message sent.
    * @param client the connection connected to the client that
@@ -539,18 +1704,231 @@ public abstract class AbstractServer implements Runnable
    * Receives a command sent from the client to the server.
    * Called by the run method of <code>ConnectionToClient</code>
    * instances that are watching for messages coming from the server
-   * This method is synchronized to ensure that whatever effects it has
-   * do not conflict with work being done by other threads. The method
-   * simply calls the <code>handleMessageFromClient</code> slot method.
+   * By default, this method synchronizes on the server to ensure that
+   * whatever effects it has do not conflict with work being done by
+   * other threads; the lock taken depends on the dispatch mode since
+   * version 2.4. The method simply calls the
+   * <code>handleMessageFromClient</code> slot method.
    *
    * @param msg   the message sent.
    * @param client the connection connected to the client that
    *  sent the message.
    */
-  final synchronized void receiveMessageFromClient(
+  final void receiveMessageFromClient(
     Object msg, ConnectionToClient client)
   {
-    this.handleMessageFromClient(msg, client);
+    client.messageReceived();  // added in version 2.4
+
+    switch (dispatchMode)
+    {
+      case CONCURRENT_DISPATCH:
+        handleMessage(msg, client);
+        break;
+
+      case PER_CLIENT_DISPATCH:
+        synchronized (client.getDispatchLock())
+        {
+          handleMessage(msg, client);
+        }
+        break;
+
+      case WORKER_POOL_DISPATCH:
+        client.dispatchQueued(msg);
+        break;
+
+      default:
+        synchronized (this)
+        {
+          handleMessage(msg, client);
+        }
+    }
+  }
+
+  /**
+   * Calls the <code>handleMessageFromClient</code> slot method and
+   * records the time it took. Added in version 2.4
+   *
+   * @param msg   the message sent.
+   * @param client the connection connected to the client that
+   *  sent the message.
+   */
+  final void handleMessage(Object msg, ConnectionToClient client)
+  {
+    long start = System.nanoTime();
+    try
+    {
+      this.handleMessageFromClient(msg, client);
+    }
+    finally
+    {
+      metrics.messageHandled(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Counts an exception raised with a client, then calls the
+   * <code>clientException</code> hook method. Added in version 2.4
+   *
+   * @param client the client that raised the exception.
+   * @param exception the exception thrown.
+   */
+  final void notifyClientException(
+    ConnectionToClient client, Throwable exception)
+  {
+    metrics.clientException();
+    clientException(client, exception);
+  }
+
+  /**
+   * Starts a connection on a new virtual thread.
+   * The exceptions not caught by the connection are sent to the
+   * <code>clientException</code> callback method, as the client
+   * thread group does. Added in version 2.4
+   *
+   * @param client the connection to be started.
+   */
+  final void startOnVirtualThread(final ConnectionToClient client)
+  {
+    VirtualThreads.start("ConnectionToClient", new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          client.run();
+        }
+        catch (Throwable exception)
+        {
+          notifyClientException(client, exception);
+        }
+      }
+    });
   }
+
+  /**
+   * Submits a task writing queued messages to a client.
+   * The writer threads are created as needed and terminate when idle;
+   * a client blocked in a write only holds its own writer thread.
+   * Added in version 2.4
+   *
+   * @param writer the task to be run.
+   */
+  final void scheduleWriter(Runnable writer)
+  {
+    ExecutorService threads;
+    synchronized (writerLock)
+    {
+      if (writerThreads == null)
+        writerThreads = createWriterThreads();
+      threads = writerThreads;
+    }
+    threads.execute(writer);
+  }
+
+  /**
+   * Returns the executor handing tasks to the writer threads, used
+   * for the delayed flushes of the connections. Added in version 2.4
+   *
+   * @return the executor.
+   */
+  final Executor getWriterExecutor()
+  {
+    return writerExecutor;
+  }
+
+  /**
+   * Submits a task handling the queued messages of a client.
+   * The worker threads are created when first needed.
+   * Added in version 2.4
+   *
+   * @param handler the task to be run.
+   */
+  final void scheduleWorker(Runnable handler)
+  {
+    ThreadPoolExecutor threads;
+    synchronized (writerLock)
+    {
+      if (workerThreads == null)
+      {
+        workerThreads = new ThreadPoolExecutor(workerThreadCount,
+          workerThreadCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue(),
+          new ThreadFactory()
+          {
+            public Thread newThread(Runnable task)
+            {
+              Thread thread = new Thread(task, "AbstractServer worker");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      }
+      threads = workerThreads;
+    }
+    threads.execute(handler);
+  }
+
+  /**
+   * Creates the pool of writer threads.
+   *
+   * @return the pool.
+   */
+  private ExecutorService createWriterThreads()
+  {
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+      60, TimeUnit.SECONDS, new SynchronousQueue(), new ThreadFactory()
+      {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "ConnectionToClient writer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  }
+
+  /**
+   * Adds a connection to the registry of the connected clients.
+   * Added in version 2.4
+   *
+   * @param client the connection.
+   */
+  final void registerClient(ConnectionToClient client)
+  {
+    clients.add(client);
+  }
+
+  /**
+   * Returns the connected clients. The array returned must not be
+   * modified. Added in version 2.4
+   *
+   * @return the clients.
+   */
+  final ConnectionToClient[] getClients()
+  {
+    return clients.snapshot();
+  }
+
+  /**
+   * Removes a connection from the registry of the connected clients.
+   * Added in version 2.4
+   *
+   * @param client the connection.
+   */
+  final void unregisterClient(ConnectionToClient client)
+  {
+    clients.remove(client);
+
+    // Once unregistered, the client cannot join a group anymore
+    synchronized (groups)
+    {
+      Set groupNames = client.getGroupNames();
+      for (Iterator i = groupNames.iterator(); i.hasNext(); )
+      {
+        removeFromGroup((String)i.next(), client);
+      }
+      groupNames.clear();
+    }
+  }
+
 }
 // End of AbstractServer Class
@@ -64,6 +64,17 @@ class AdaptableServer extends AbstractServer
     server.clientDisconnected(client);
   }
 
+  /**
+   * Hook method called each time a connection becomes writable
+   * or unwritable.
+   *
+   * @param client the connection with the client.
+   */
+  final protected void clientWritabilityChanged(ConnectionToClient client)
+  {
+    server.clientWritabilityChanged(client);
+  }
+
   /**
    * Hook method called each time an exception
    * is raised in a client thread.
@@ -0,0 +1,187 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+* The <code> AttributeKey </code> class identifies an attribute saved
+* for each client by a <code> ConnectionToClient </code>.
+* A key is created once, typically as a constant of the server, and
+* is given a slot index when created. The attributes of a connection
+* are kept in an array indexed by these slots, so that looking an
+* attribute up involves no hashing.<p>
+*
+* Keys are unique per name: <code>valueOf</code> returns the same key
+* each time it is called with the same name. A key may also restrict
+* the type of its values, which is then checked each time a value is
+* saved.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.server.ConnectionToClient#getAttribute
+*/
+public final class AttributeKey
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The keys created so far, by name.
+   */
+  private static final ConcurrentHashMap keys = new ConcurrentHashMap();
+
+  /**
+   * The index of the next slot.
+   */
+  private static final AtomicInteger nextIndex = new AtomicInteger();
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The name of the key.
+   */
+  private final String name;
+
+  /**
+   * The type of the values, or null if any object is accepted.
+   */
+  private final Class type;
+
+  /**
+   * The slot of the attribute in the connections.
+   */
+  private final int index;
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs a key using the next slot.
+   */
+  private AttributeKey(String name, Class type)
+  {
+    this.name = name;
+    this.type = type;
+    this.index = nextIndex.getAndIncrement();
+  }
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Returns the key of the given name, creating it if needed.
+   * The values of a key created by this method can be of any type.
+   *
+   * @param name the name of the key.
+   * @return the key.
+   */
+  public static AttributeKey valueOf(String name)
+  {
+    return valueOf(name, null);
+  }
+
+  /**
+   * Returns the key of the given name, creating it if needed.
+   * If the key already exists, it must have been created with
+   * the same type.
+   *
+   * @param name the name of the key.
+   * @param type the type of the values, or null for any type.
+   * @return the key.
+   * @exception IllegalArgumentException if the key exists with
+   *   another type.
+   */
+  public static AttributeKey valueOf(String name, Class type)
+  {
+    if (name == null)
+      throw new NullPointerException("name");
+
+    AttributeKey key = (AttributeKey)keys.get(name);
+    if (key == null)
+    {
+      AttributeKey created = new AttributeKey(name, type);
+      key = (AttributeKey)keys.putIfAbsent(name, created);
+      if (key == null)
+        return created;
+    }
+
+    if (key.type != type)
+      throw new IllegalArgumentException("Attribute " + name
+        + " already defined for " + key.type);
+    return key;
+  }
+
+  /**
+   * Returns the key of the given name if it has been created, without
+   * creating it. Used to save and look information up by name, so
+   * that only the keys created with <code>valueOf</code> use a slot.
+   *
+   * @param name the name of the key.
+   * @return the key, or null if no key has this name.
+   */
+  static AttributeKey find(String name)
+  {
+    return (AttributeKey)keys.get(name);
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Returns the name of the key.
+   *
+   * @return the name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Returns the type of the values of this key.
+   *
+   * @return the type, or null if any object is accepted.
+   */
+  public Class getType()
+  {
+    return type;
+  }
+
+  /**
+   * Returns the name of the key.
+   *
+   * @return the name.
+   */
+  public String toString()
+  {
+    return name;
+  }
+
+  /**
+   * Returns the slot of the attribute in the connections.
+   *
+   * @return the index.
+   */
+  int getIndex()
+  {
+    return index;
+  }
+
+  /**
+   * Checks that a value can be saved under this key.
+   *
+   * @param value the value, or null.
+   * @exception ClassCastException if the value is not of the
+   *   type of the key.
+   */
+  void check(Object value)
+  {
+    if (value != null && type != null && !type.isInstance(value))
+      throw new ClassCastException(value.getClass().getName()
+        + " cannot be saved as " + name);
+  }
+}
+// End of AttributeKey class
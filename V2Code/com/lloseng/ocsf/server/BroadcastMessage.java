@@ -0,0 +1,114 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.nio.*;
+import com.lloseng.ocsf.common.*;
+
+/**
+* The <code> BroadcastMessage </code> class holds a message being sent
+* to several clients. The message is encoded into a frame at most
+* once per codec, the first time a connection able to send frames
+* asks for it.
+* Each connection then receives its own view of the same bytes, so
+* that a broadcast to many clients pays the serialization only once
+* and does not copy the encoded message.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.ObjectFrames
+*/
+class BroadcastMessage
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The message.
+   */
+  private final Object message;
+
+  /**
+   * The encoded message, or null if not encoded yet.
+   * The content of this buffer is never modified.
+   */
+  private ByteBuffer frame = null;
+
+  /**
+   * The codec used to encode the frame.
+   */
+  private MessageCodec frameCodec = null;
+
+  /**
+   * The exception thrown when encoding the message, if any.
+   */
+  private IOException failure = null;
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs a message to be broadcast.
+   *
+   * @param message the message.
+   */
+  BroadcastMessage(Object message)
+  {
+    this.message = message;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Returns the message.
+   *
+   * @return the message.
+   */
+  Object getMessage()
+  {
+    return message;
+  }
+
+  /**
+   * Returns a view of the encoded message. The returned buffer shares
+   * the bytes of the frame but has its own position, so it can be
+   * written independently of the views given to other connections.
+   * The connections of a server normally share the same codec; the
+   * message is encoded again only if another one is requested.
+   *
+   * @param codec the codec of the connection.
+   * @return a buffer containing the frame.
+   * @exception IOException if the message cannot be encoded.
+   */
+  synchronized ByteBuffer getFrame(MessageCodec codec) throws IOException
+  {
+    if (frameCodec != codec)
+    {
+      frame = null;
+      failure = null;
+      frameCodec = codec;
+    }
+
+    if (frame == null)
+    {
+      if (failure != null)
+        throw failure;
+
+      try
+      {
+        frame = ObjectFrames.encode(message, codec);
+      }
+      catch (IOException ex)
+      {
+        failure = ex;
+        throw ex;
+      }
+    }
+    return frame.duplicate();
+  }
+}
+// End of BroadcastMessage class
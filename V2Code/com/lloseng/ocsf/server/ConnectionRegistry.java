@@ -0,0 +1,157 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+* The <code> ConnectionRegistry </code> class keeps track of a set of
+* <code> ConnectionToClient </code> instances without locking.
+* The connections are kept in a concurrent set, so that adding,
+* removing or looking up a connection takes constant time whatever
+* the number of connections, and a burst of connections or
+* disconnections does not copy the registry each time. The number of
+* connections is kept in a separate counter.<p>
+*
+* The broadcasts iterate over a snapshot of the registry, an array
+* built the first time it is needed after a change and then kept
+* until the next change, so that successive broadcasts to a stable
+* set of clients do not allocate.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+class ConnectionRegistry
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The snapshot of an empty registry.
+   */
+  private static final ConnectionToClient[] EMPTY = new ConnectionToClient[0];
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The registered connections.
+   */
+  private final Set clients = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The number of registered connections.
+   */
+  private final AtomicInteger count = new AtomicInteger();
+
+  /**
+   * Incremented after each change of the registry, so that a snapshot
+   * built before the change is not used anymore.
+   */
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * The last snapshot built, or null.
+   */
+  private volatile Snapshot snapshot = null;
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Adds a connection to the registry.
+   *
+   * @param client the connection to be added.
+   * @return false if the connection was already registered.
+   */
+  boolean add(ConnectionToClient client)
+  {
+    if (!clients.add(client))
+      return false;
+
+    count.incrementAndGet();
+    version.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Removes a connection from the registry.
+   *
+   * @param client the connection to be removed.
+   * @return false if the connection was not registered.
+   */
+  boolean remove(ConnectionToClient client)
+  {
+    if (!clients.remove(client))
+      return false;
+
+    count.decrementAndGet();
+    version.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Returns a snapshot of the registry, containing at least the
+   * connections registered before this call. The array is built if
+   * the registry has changed since the last snapshot.
+   * The returned array must not be modified.
+   *
+   * @return the registered connections.
+   */
+  ConnectionToClient[] snapshot()
+  {
+    long current = version.get();
+    Snapshot last = snapshot;
+    if (last != null && last.version == current)
+      return last.clients;
+
+    ConnectionToClient[] list = count.get() == 0 ? EMPTY
+      : (ConnectionToClient[])clients.toArray(EMPTY);
+    snapshot = new Snapshot(current, list);
+    return list;
+  }
+
+  /**
+   * Returns the number of registered connections.
+   *
+   * @return the number of connections.
+   */
+  int size()
+  {
+    return count.get();
+  }
+
+  /**
+   * Returns true if a connection is registered.
+   *
+   * @param client the connection.
+   * @return true if the connection is registered.
+   */
+  boolean contains(ConnectionToClient client)
+  {
+    return clients.contains(client);
+  }
+
+  // INNER CLASSES **************************************************
+
+  /**
+   * An array of the connections and the version of the registry it
+   * was built from.
+   */
+  private static final class Snapshot
+  {
+    final long version;
+    final ConnectionToClient[] clients;
+
+    Snapshot(long version, ConnectionToClient[] clients)
+    {
+      this.version = version;
+      this.clients = clients;
+    }
+  }
+}
+// End of ConnectionRegistry class
@@ -6,7 +6,13 @@ package com.lloseng.ocsf.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import com.lloseng.ocsf.common.*;
 
 /**
 * An instance of this class is created by the server when a client
@@ -46,6 +52,57 @@ import java.util.*;
 * <li> The call to <code>clientDisconnected</code> has been moved from
 * <code>close</code> to <code>run</code> method to garantee
 * that connection is really closed when this callback is called.
+* </ul>
+* The modifications made to this class in version 2.4 are:
+* <ul>
+* <li> When the server uses selector threads, the connection does
+* not start its own thread. It is instead handled by one of the
+* reactors of the server, and the messages are exchanged as
+* length-prefixed frames.
+* <li> When the server has a codec, messages are exchanged as frames
+* encoded by this codec instead of using object streams.
+* <li> When the server uses virtual threads, the connection
+* runs on a virtual thread instead of being started as a thread
+* of the client thread group.
+* <li> The connection registers itself with the server when created
+* and unregisters when its thread ends, after the call to
+* <code>clientDisconnected</code>.
+* <li> Each connection has a bounded outbound queue, drained by
+* the writer threads of the server, used by asynchronous broadcasts.
+* <li> A broadcast message is encoded once and the same frame is
+* written to every connection handled by a reactor, unless
+* <code>sendToClient()</code> is overriden.
+* <li> Writes to the output stream are now synchronized, since
+* messages may be sent to the client by several handlers at once
+* when the server does not use the default dispatch mode.
+* <li> The output to the client is buffered and flushed according
+* to the flush policy of the server. Method <code>flush()</code>
+* has been added.
+* <li> The object stream is reset according to the reset policy of
+* the server, so that it does not keep every object sent alive.
+* Methods <code>getHandleCount()</code> and <code>getResetCount()</code>
+* have been added.
+* <li> The information saved with <code>setInfo()</code> can now be
+* used by several threads at once. Attributes have been added: methods
+* <code>getAttribute()</code>, <code>setAttribute()</code> and
+* <code>setAttributeIfAbsent()</code> have been added; they take an
+* <code>AttributeKey</code> and find the attribute without hashing.
+* <li> The bytes and messages exchanged with the client are counted.
+* Methods <code>getBytesReceived()</code>, <code>getBytesSent()</code>,
+* <code>getMessagesReceived()</code> and <code>getMessagesSent()</code>
+* have been added.
+* <li> Methods <code>joinGroup()</code>, <code>leaveGroup()</code>,
+* <code>getGroups()</code> and <code>isInGroup()</code> have been added.
+* The connection leaves its groups when it is removed from the registry
+* of the server.
+* <li> Methods <code>isWritable()</code>, <code>trySendToClient()</code>
+* and <code>sendToClientAsync()</code> have been added, so that
+* producers can avoid blocking on a client that stops reading.
+* <li> With the worker pool dispatch mode, the received messages are
+* queued and handled by the worker threads of the server, in the
+* order they were received. <code>clientDisconnected</code> is then
+* called once the queued messages have been handled, possibly by a
+* worker thread.
 * </ul><p>
 *
 * Project Name: OCSF (Object Client-Server Framework)<p>
@@ -58,6 +115,25 @@ import java.util.*;
 */
 public class ConnectionToClient extends Thread
 {
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The codec of the connections handled by a reactor when the server
+   * has no codec. Shared so that broadcasts encode the message once.
+   */
+  private static final MessageCodec SERIALIZED_FRAMES = new SerializedCodec();
+
+  /**
+   * The number of received messages that can wait for a worker thread
+   * before the connection stops reading from the client.
+   */
+  private static final int INBOUND_CAPACITY = 1024;
+
+  /**
+   * The name under which setInfo saves a null type of information.
+   */
+  private static final String NULL_INFO = "#CTC:null info";
+
 // INSTANCE VARIABLES ***********************************************
 
   /**
@@ -80,7 +156,37 @@ public class ConnectionToClient extends Thread
   /**
   * Stream used to write to the client.
   */
-  private ObjectOutputStream output;
+  private ResettingObjectOutputStream output;
+
+  /**
+  * The input of the socket, kept until the thread of the connection
+  * has read the header of the object stream. Added in version 2.4
+  */
+  private InputStream socketInput;
+
+  /**
+  * Stream used to read frames from the client when a codec is used.
+  * Added in version 2.4
+  */
+  private DataInputStream frameInput;
+
+  /**
+  * Stream used to write frames to the client when a codec is used.
+  * Added in version 2.4
+  */
+  private DataOutputStream frameOutput;
+
+  /**
+  * The codec of the messages, or null if object streams are used.
+  * Added in version 2.4
+  */
+  private MessageCodec codec;
+
+  /**
+  * The buffer under the output stream, flushed according to the
+  * flush policy of the server. Added in version 2.4
+  */
+  private FlushingOutputStream outputBuffer;
 
   /**
   * Indicates if the thread is ready to stop. Set to true when closing
@@ -89,19 +195,149 @@ public class ConnectionToClient extends Thread
   private boolean readyToStop;
 
   /**
-   * Map to save information about the client such as its login ID.
-   * The initial size of the map is small since it is not expected
-   * that concrete servers will want to store many different types of
-   * information about each client. Used by the setInfo and getInfo
-   * methods.
+   * The attributes of the client such as its login ID, indexed by the
+   * slots of their keys. The array is replaced when it grows, and is
+   * only modified while holding <code>attributeLock</code>, so that it
+   * can be read without locking. Added in version 2.4
+   */
+  private volatile AtomicReferenceArray attributes =
+    new AtomicReferenceArray(8);
+
+  /**
+   * The information saved by setInfo under a name that is not the
+   * name of an untyped attribute key. Kept in a map of this connection
+   * rather than in the attributes, so that names built at run time do
+   * not each take a slot in every connection.
+   */
+  private final Map info = new ConcurrentHashMap();
+
+  /**
+   * The lock held while the attributes are modified. Added in version 2.4
+   */
+  private final Object attributeLock = new Object();
+
+  /**
+   * The number of bytes received from the client. Added in version 2.4
+   */
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  /**
+   * The number of bytes sent to the client. Added in version 2.4
+   */
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  /**
+   * The number of messages received from the client.
+   * Added in version 2.4
+   */
+  private final AtomicLong messagesReceived = new AtomicLong();
+
+  /**
+   * The number of messages sent to the client. Added in version 2.4
+   */
+  private final AtomicLong messagesSent = new AtomicLong();
+
+  /**
+   * The names of the groups this client has joined. Modified while
+   * holding the groups of the server, read without locking, so that
+   * filtering events by group does not contend with the other
+   * connections. Added in version 2.4
+   */
+  private final Set groupNames = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The reactor endpoint of this connection when the server uses
+   * selector threads; null otherwise. Added in version 2.4
+   */
+  private SelectorEngine.Endpoint endpoint = null;
+
+  /**
+   * The lock held while the messages of this client are handled in
+   * the per-client dispatch mode. Added in version 2.4
+   */
+  private final Object dispatchLock = new Object();
+
+  /**
+   * The messages waiting to be sent by a writer thread of the server,
+   * either <code>BroadcastMessage</code> or <code>PendingMessage</code>
+   * instances. Added in version 2.4
+   */
+  private final LinkedList outbound = new LinkedList();
+
+  /**
+   * Indicates if a writer task has been scheduled to drain the
+   * outbound queue. Guarded by the queue. Added in version 2.4
+   */
+  private boolean writerScheduled = false;
+
+  /**
+   * The received messages waiting to be handled by a worker thread
+   * of the server. Added in version 2.4
+   */
+  private final LinkedList inbound = new LinkedList();
+
+  /**
+   * Indicates if a handler task has been scheduled to drain the
+   * inbound queue. Guarded by the queue. Added in version 2.4
+   */
+  private boolean handlerScheduled = false;
+
+  /**
+   * Indicates if reading has been suspended because the inbound
+   * queue is full. Guarded by the queue.
+   */
+  private boolean throttled = false;
+
+  /**
+   * The end of the connection, run once the inbound queue has been
+   * drained. Guarded by the queue.
+   */
+  private Runnable pendingClose = null;
+
+  /**
+   * The task that handles the messages of the inbound queue.
+   * Added in version 2.4
+   */
+  private final Runnable handler = new Runnable()
+  {
+    public void run()
+    {
+      handleQueued();
+    }
+  };
+
+  /**
+   * Indicates if a subclass overrides <code>sendToClient</code>, in which
+   * case broadcast messages must go through it instead of being
+   * written as shared frames. Added in version 2.4
+   */
+  private final boolean sendOverridden = overridesSendToClient();
+
+  /**
+   * Indicates if the connection is writable. Changed under the lock
+   * of the outbound queue, or of the endpoint for a connection handled
+   * by a reactor. Added in version 2.4
    */
-  private HashMap savedInfo = new HashMap(10);
+  private volatile boolean writable = true;
+
+  /**
+   * The task that drains the outbound queue. Added in version 2.4
+   */
+  private final Runnable writer = new Runnable()
+  {
+    public void run()
+    {
+      writeQueued();
+    }
+  };
 
 
 // CONSTRUCTORS *****************************************************
 
   /**
    * Constructs a new connection to a client.
+   * Since version 2.4, the constructor does not block: the header of
+   * the object stream is read by the thread of the connection.
    *
    * @param group the thread group that contains the connections.
    * @param clientSocket contains the client's socket.
@@ -119,12 +355,48 @@ public class ConnectionToClient extends Thread
     this.server = server;
 
     clientSocket.setSoTimeout(0); // make sure timeout is infinite
+    clientSocket.setTcpNoDelay(server.isTcpNoDelay());  // added in version 2.4
+    codec = server.getCodec();    // added in version 2.4
+
+    // With selector threads, the connection is handled by a reactor
+    // instead of its own thread. Added in version 2.4
+    SelectorEngine engine = server.getSelectorEngine();
+    if (engine != null && clientSocket.getChannel() != null)
+    {
+      if (codec == null)  // a reactor can only read frames
+        codec = SERIALIZED_FRAMES;
+
+      readyToStop = false;
+      endpoint = engine.register(this, clientSocket.getChannel());
+      endpoint.start();  // the reactor may read and reply at once
+      return;
+    }
 
     //Initialize the objects streams
     try
     {
-      input = new ObjectInputStream(clientSocket.getInputStream());
-      output = new ObjectOutputStream(clientSocket.getOutputStream());
+      // The bytes exchanged are counted since version 2.4
+      InputStream socketInput =
+        new MeteredInputStream(clientSocket.getInputStream());
+      outputBuffer = new FlushingOutputStream(
+        new MeteredOutputStream(clientSocket.getOutputStream()),
+        server.getFlushPolicy(), server.getWriterExecutor());  // added in version 2.4
+
+      if (codec != null)  // added in version 2.4
+      {
+        frameInput = new DataInputStream(
+          new BufferedInputStream(socketInput));
+        frameOutput = new DataOutputStream(outputBuffer);
+      }
+      else
+      {
+        // The header is read by the thread of the connection, so that
+        // a client not sending it does not block the server.
+        this.socketInput = socketInput;
+        output = new ResettingObjectOutputStream(outputBuffer,
+          server.getResetPolicy());
+        output.flush();  // the client waits for the stream header
+      }
     }
     catch (IOException ex)
     {
@@ -138,7 +410,21 @@ public class ConnectionToClient extends Thread
     }
 
     readyToStop = false;
-    start(); // Start the thread waits for data from the socket
+
+    // Register, then start the thread waits for data from the socket
+    server.registerClient(this);  // added in version 2.4
+    try
+    {
+      if (server.isUsingVirtualThreads())  // added in version 2.4
+        server.startOnVirtualThread(this);
+      else
+        start();
+    }
+    catch (RuntimeException ex)
+    {
+      server.unregisterClient(this);
+      throw ex;
+    }
   }
 
 // INSTANCE METHODS *************************************************
@@ -156,10 +442,232 @@ public class ConnectionToClient extends Thread
    */
   public void sendToClient(Object msg) throws IOException
   {
-    if (clientSocket == null || output == null)
+    if (endpoint != null)  // added in version 2.4
+    {
+      endpoint.send(ObjectFrames.encode(msg, codec));
+      return;
+    }
+
+    DataOutputStream frames = frameOutput;
+    if (frames != null)  // added in version 2.4
+    {
+      writeFrame(frames, ObjectFrames.encode(msg, codec));
+      return;
+    }
+
+    ResettingObjectOutputStream out = output;
+    FlushingOutputStream buffer = outputBuffer;
+    if (clientSocket == null || out == null || buffer == null)
+      throw new SocketException("socket does not exist");
+
+    buffer.beginMessage();  // added in version 2.4
+    synchronized (out)      // added in version 2.4
+    {
+      try
+      {
+        out.writeMessage(msg);
+      }
+      finally
+      {
+        buffer.endMessage(hasQueuedMessages());
+      }
+    }
+    messageSent();
+  }
+
+  /**
+   * Sends the messages written but still held in the output buffer.
+   * Only useful when the flush policy of the server is not
+   * <code>FlushPolicy.immediate()</code>, for example before closing
+   * the connection, since the bytes not flushed when the connection
+   * is closed are discarded. Added in version 2.4
+   *
+   * @exception IOException if an I/O error occur when sending.
+   */
+  public void flush() throws IOException
+  {
+    FlushingOutputStream buffer = outputBuffer;
+    if (buffer != null)
+      buffer.flush();
+  }
+
+  /**
+   * Returns true if messages can be sent to the client without piling
+   * up. The connection becomes unwritable when the messages waiting to
+   * be sent reach the high water mark of the server, and writable
+   * again when they fall to the low water mark; the
+   * <code>clientWritabilityChanged</code> hook of the server is called
+   * each time. Producers can use this method to throttle themselves.
+   * Added in version 2.4
+   *
+   * @return true if the connection is writable.
+   * @see AbstractServer#setWriteBufferWaterMarks
+   */
+  public boolean isWritable()
+  {
+    if (readyToStop)
+      return false;
+    if (endpoint != null)
+      return writable && !endpoint.isClosed();
+
+    return writable && outputBuffer != null;
+  }
+
+  /**
+   * Sends a message to the client without ever blocking. The message
+   * is only accepted if the connection is writable; it is then queued
+   * and written by a writer thread of the server, or by the reactor
+   * of the connection. Added in version 2.4
+   *
+   * @param msg the message to be sent.
+   * @return true if the message has been accepted, false if the
+   *    connection is not writable.
+   * @exception IOException if the connection is closed or, when it is
+   *    handled by a reactor, if the message cannot be encoded.
+   */
+  public boolean trySendToClient(Object msg) throws IOException
+  {
+    if (readyToStop || (endpoint == null && outputBuffer == null))
       throw new SocketException("socket does not exist");
 
-    output.writeObject(msg);
+    if (!isWritable())
+      return false;
+
+    if (endpoint != null)
+    {
+      sendToClient(msg);  // never blocks with a reactor
+      return true;
+    }
+
+    return enqueue(new PendingMessage(msg, null),
+      server.getOutboundQueueCapacity(), AbstractServer.SLOW_CONSUMER_DROP);
+  }
+
+  /**
+   * Sends a message to the client without blocking, and returns a
+   * future completed once the message has been written. The message
+   * is queued even if the connection is not writable, up to the
+   * outbound queue capacity of the server; beyond it, or if the
+   * connection is closed, the future is completed exceptionally with
+   * an <code>IOException</code>. Added in version 2.4
+   *
+   * @param msg the message to be sent.
+   * @return the future completed when the message has been sent.
+   */
+  public CompletableFuture sendToClientAsync(Object msg)
+  {
+    CompletableFuture future = new CompletableFuture();
+
+    if (readyToStop || (endpoint == null && outputBuffer == null))
+    {
+      future.completeExceptionally(
+        new SocketException("socket does not exist"));
+      return future;
+    }
+
+    if (endpoint != null)
+    {
+      if (endpoint.getPendingFrames() >= server.getOutboundQueueCapacity())
+      {
+        future.completeExceptionally(new IOException("outbound queue full"));
+        return future;
+      }
+
+      try
+      {
+        if (sendOverridden)
+        {
+          sendToClient(msg);
+          future.complete(null);
+        }
+        else
+        {
+          endpoint.send(ObjectFrames.encode(msg, codec), future);
+        }
+      }
+      catch (IOException ex)
+      {
+        future.completeExceptionally(ex);
+      }
+      return future;
+    }
+
+    if (!enqueue(new PendingMessage(msg, future),
+      server.getOutboundQueueCapacity(), AbstractServer.SLOW_CONSUMER_DROP))
+      future.completeExceptionally(new IOException("outbound queue full"));
+
+    return future;
+  }
+
+  /**
+   * Returns the number of bytes received from the client.
+   * Added in version 2.4
+   *
+   * @return the number of bytes.
+   */
+  final public long getBytesReceived()
+  {
+    return bytesReceived.get();
+  }
+
+  /**
+   * Returns the number of bytes sent to the client. Bytes held in
+   * the output buffer are only counted once flushed.
+   * Added in version 2.4
+   *
+   * @return the number of bytes.
+   */
+  final public long getBytesSent()
+  {
+    return bytesSent.get();
+  }
+
+  /**
+   * Returns the number of messages received from the client.
+   * Added in version 2.4
+   *
+   * @return the number of messages.
+   */
+  final public long getMessagesReceived()
+  {
+    return messagesReceived.get();
+  }
+
+  /**
+   * Returns the number of messages sent to the client.
+   * Added in version 2.4
+   *
+   * @return the number of messages.
+   */
+  final public long getMessagesSent()
+  {
+    return messagesSent.get();
+  }
+
+  /**
+   * Returns the number of objects written to the object stream since
+   * it was last reset, which the two sides of the connection keep a
+   * reference to. Returns 0 when the connection exchanges frames,
+   * since each frame is then self-contained. Added in version 2.4
+   *
+   * @return the number of objects in the table of the stream.
+   */
+  public long getHandleCount()
+  {
+    ResettingObjectOutputStream out = output;
+    return out == null ? 0 : out.getHandleCount();
+  }
+
+  /**
+   * Returns the number of times the object stream has been reset.
+   * Added in version 2.4
+   *
+   * @return the number of resets.
+   */
+  public long getResetCount()
+  {
+    ResettingObjectOutputStream out = output;
+    return out == null ? 0 : out.getResetCount();
   }
 
   /**
@@ -173,6 +681,10 @@ public class ConnectionToClient extends Thread
   {
   
     readyToStop = true; // Set the flag that tells the thread to stop
+    synchronized (inbound)  // added in version 2.4
+    {
+      inbound.notifyAll();  // in case the thread waits for a worker
+    }
     closeAll();
   }
 
@@ -202,67 +714,268 @@ public class ConnectionToClient extends Thread
 
   /**
    * Saves arbitrary information about this client. Designed to be
-   * used by concrete subclasses of AbstractServer. Based on a hash map.
+   * used by concrete subclasses of AbstractServer. Since version 2.4,
+   * if an untyped key of the given name has been created with
+   * <code>AttributeKey.valueOf</code>, the information is saved as
+   * that attribute; servers looking information up on each message
+   * should create the key and call <code>getAttribute</code> instead.
+   * Otherwise, the information is saved in a map of this connection.
    *
    * @param infoType   identifies the type of information
    * @param info       the information itself.
    */
   public void setInfo(String infoType, Object info)
   {
-    savedInfo.put(infoType, info);
+    String name = infoType == null ? NULL_INFO : infoType;
+    AttributeKey key = infoKey(name);
+
+    if (key != null)
+    {
+      setAttribute(key, info);
+      this.info.remove(name);
+    }
+    else if (info == null)
+      this.info.remove(name);
+    else
+      this.info.put(name, info);
   }
 
   /**
    * Returns information about the client saved using setInfo.
-   * Based on a hash map.
    *
    * @param infoType   identifies the type of information
    */
   public Object getInfo(String infoType)
   {
-    return savedInfo.get(infoType);
+    String name = infoType == null ? NULL_INFO : infoType;
+    AttributeKey key = infoKey(name);
+
+    Object value = key == null ? null : getAttribute(key);
+    return value != null ? value : info.get(name);
   }
 
-// RUN METHOD -------------------------------------------------------
+  /**
+   * Returns an attribute of this client. The attribute is found at
+   * the slot of its key, without hashing or locking.
+   * Added in version 2.4
+   *
+   * @param key the key of the attribute.
+   * @return the value of the attribute, or null if not set.
+   */
+  final public Object getAttribute(AttributeKey key)
+  {
+    AtomicReferenceArray values = attributes;
+    int index = key.getIndex();
+
+    return index < values.length() ? values.get(index) : null;
+  }
 
   /**
-   * Constantly reads the client's input stream.
-   * Sends all objects that are read to the server.
-   * Not to be called.
+   * Sets an attribute of this client. The attributes can be set and
+   * read by several threads at once. Added in version 2.4
+   *
+   * @param key the key of the attribute.
+   * @param value the new value, or null to remove the attribute.
+   * @return the previous value, or null.
+   * @exception ClassCastException if the value is not of the type
+   *   of the key.
    */
-  final public void run()
+  final public Object setAttribute(AttributeKey key, Object value)
   {
-    server.clientConnected(this);
+    key.check(value);
+    synchronized (attributeLock)
+    {
+      return slots(key.getIndex()).getAndSet(key.getIndex(), value);
+    }
+  }
 
-    // This loop reads the input stream and responds to messages
-    // from clients
-    try
+  /**
+   * Sets an attribute of this client unless it is already set.
+   * Added in version 2.4
+   *
+   * @param key the key of the attribute.
+   * @param value the new value.
+   * @return the current value if the attribute was already set,
+   *   null otherwise.
+   * @exception ClassCastException if the value is not of the type
+   *   of the key.
+   */
+  final public Object setAttributeIfAbsent(AttributeKey key, Object value)
+  {
+    key.check(value);
+    synchronized (attributeLock)
     {
-      // The message from the client
-      Object msg;
+      AtomicReferenceArray values = slots(key.getIndex());
+      Object current = values.get(key.getIndex());
 
-      while (!readyToStop)
+      if (current == null)
+        values.set(key.getIndex(), value);
+      return current;
+    }
+  }
+
+  /**
+   * Returns the attributes, grown so as to include the given slot.
+   * Must be called while holding <code>attributeLock</code>.
+   *
+   * @param index the slot.
+   * @return the attributes.
+   */
+  private AtomicReferenceArray slots(int index)
+  {
+    AtomicReferenceArray values = attributes;
+    if (index >= values.length())
+    {
+      AtomicReferenceArray grown =
+        new AtomicReferenceArray(Math.max(index+1, values.length()*2));
+      for (int i=0; i<values.length(); i++)
       {
-        // This block waits until it reads a message from the client
-        // and then sends it for handling by the server
-        
-        try { // Added in version 2.31
-        
-          // wait to receive an object
-          msg = input.readObject();
-                  
-          if (!readyToStop && handleMessageFromClient(msg)) // Added in version 2.2
-          {
+        grown.set(i, values.get(i));
+      }
+      attributes = values = grown;
+    }
+    return values;
+  }
+
+  /**
+   * Returns the key under which setInfo saves a type of information
+   * as an attribute: the untyped key of that name, if it has been
+   * created. No key is created, and the information saved under the
+   * name of a typed key is kept apart from that attribute.
+   *
+   * @param name the name of the information.
+   * @return the key, or null if the information is kept in the map.
+   */
+  private static AttributeKey infoKey(String name)
+  {
+    AttributeKey key = AttributeKey.find(name);
+    return key == null || key.getType() != null ? null : key;
+  }
+
+  /**
+   * Adds this client to a group of the server.
+   * Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @return true if the client joined the group.
+   * @see com.lloseng.ocsf.server.AbstractServer#joinGroup
+   */
+  final public boolean joinGroup(String group)
+  {
+    return server.joinGroup(group, this);
+  }
+
+  /**
+   * Removes this client from a group of the server.
+   * Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @return true if the client has left the group.
+   * @see com.lloseng.ocsf.server.AbstractServer#leaveGroup
+   */
+  final public boolean leaveGroup(String group)
+  {
+    return server.leaveGroup(group, this);
+  }
+
+  /**
+   * Returns the names of the groups this client has joined.
+   * Added in version 2.4
+   *
+   * @return the names of the groups.
+   */
+  final public String[] getGroups()
+  {
+    return (String[])groupNames.toArray(new String[0]);
+  }
+
+  /**
+   * Returns true if this client has joined a group. The check does
+   * not lock the groups of the server, and may be called for each
+   * message. Added in version 2.4
+   *
+   * @param group the name of the group.
+   * @return true if the client is a member of the group.
+   */
+  final public boolean isInGroup(String group)
+  {
+    return groupNames.contains(group);
+  }
+
+  /**
+   * Returns the names of the groups this client has joined.
+   * Must only be modified while holding the groups of the server.
+   */
+  final Set getGroupNames()
+  {
+    return groupNames;
+  }
+
+// RUN METHOD -------------------------------------------------------
+
+  /**
+   * Constantly reads the client's input stream.
+   * Sends all objects that are read to the server.
+   * Not to be called.
+   */
+  final public void run()
+  {
+    // Read the header of the object stream. Added in version 2.4
+    if (socketInput != null)
+    {
+      try
+      {
+        input = new ObjectInputStream(socketInput);
+        socketInput = null;
+      }
+      catch (IOException ex)
+      {
+        // The client is dropped as if it had never been accepted
+        try
+        {
+          closeAll();
+        }
+        catch (Exception exc) { }
+
+        server.unregisterClient(this);
+        return;
+      }
+    }
+
+    server.clientConnected(this);
+
+    // This loop reads the input stream and responds to messages
+    // from clients
+    try
+    {
+      // The message from the client
+      Object msg;
+
+      while (!readyToStop)
+      {
+        // This block waits until it reads a message from the client
+        // and then sends it for handling by the server
+        
+        try { // Added in version 2.31
+        
+          // wait to receive an object
+          if (frameInput != null)  // added in version 2.4
+            msg = ObjectFrames.read(frameInput, codec);
+          else
+            msg = input.readObject();
+                  
+          if (!readyToStop && handleMessageFromClient(msg)) // Added in version 2.2
+          {
             server.receiveMessageFromClient(msg, this);
           }
           
         } catch(ClassNotFoundException ex) { // when an unknown class is received
         
-          server.clientException(this, ex);
+          server.notifyClientException(this, ex);
           
         } catch (RuntimeException ex) { // thrown by handleMessageFromClient or receiveMessageFromClient
         
-          server.clientException(this, ex);
+          server.notifyClientException(this, ex);
         }
       }
     }
@@ -276,11 +989,17 @@ public class ConnectionToClient extends Thread
         }
         catch (Exception ex) { }
 
-        server.clientException(this, exception);
+        server.notifyClientException(this, exception);
       }
     } finally {
     
-        server.clientDisconnected(this);   // moved here in version 2.31
+      afterQueuedMessages(new Runnable()  // added in version 2.4
+      {
+        public void run()
+        {
+          disconnected();
+        }
+      });
     }
   }
 
@@ -302,6 +1021,690 @@ public class ConnectionToClient extends Thread
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+  /**
+   * Sends a message that is also sent to other clients. When possible,
+   * the frame shared by all the connections is written instead of
+   * encoding the message again. Added in version 2.4
+   *
+   * @param msg the message to be sent.
+   * @exception IOException if an I/O error occur when sending the
+   *    message.
+   */
+  final void sendBroadcast(BroadcastMessage msg) throws IOException
+  {
+    DataOutputStream frames = frameOutput;
+
+    if (sendOverridden || (endpoint == null && frames == null))
+    {
+      sendToClient(msg.getMessage());
+    }
+    else if (endpoint != null)
+    {
+      endpoint.send(msg.getFrame(codec));
+    }
+    else
+    {
+      writeFrame(frames, msg.getFrame(codec));
+    }
+  }
+
+  /**
+   * Writes a frame on the frame stream and lets the output buffer
+   * decide whether it must be flushed.
+   */
+  private void writeFrame(DataOutputStream frames, ByteBuffer frame)
+    throws IOException
+  {
+    FlushingOutputStream buffer = outputBuffer;
+    if (buffer == null)
+      throw new SocketException("socket does not exist");
+
+    buffer.beginMessage();
+    synchronized (frames)
+    {
+      try
+      {
+        ObjectFrames.write(frames, frame);
+      }
+      finally
+      {
+        buffer.endMessage(hasQueuedMessages());
+      }
+    }
+    messageSent();
+  }
+
+  /**
+   * Returns true if messages are waiting in the outbound queue,
+   * in which case the writer thread will send them shortly.
+   */
+  private boolean hasQueuedMessages()
+  {
+    synchronized (outbound)
+    {
+      return !outbound.isEmpty();
+    }
+  }
+
+  /**
+   * Returns the codec of the messages exchanged with this client,
+   * or null if object streams are used. Added in version 2.4
+   *
+   * @return the codec.
+   */
+  final MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Queues a message to be sent to this client by a writer thread.
+   * When the queue already holds <code>capacity</code> messages, the
+   * client is considered to be a slow consumer and the given policy
+   * is applied. A connection handled by a reactor never blocks when
+   * writing: the message is sent at once unless the frames still
+   * waiting to be written exceed the capacity. Added in version 2.4
+   *
+   * @param msg the message to be sent.
+   * @param capacity the maximum number of queued messages.
+   * @param policy the slow consumer policy of the server.
+   */
+  final void sendQueued(BroadcastMessage msg, int capacity, int policy)
+  {
+    if (endpoint != null)
+    {
+      if (endpoint.getPendingFrames() >= capacity)
+      {
+        if (policy == AbstractServer.SLOW_CONSUMER_DISCONNECT)
+        {
+          closeQuietly();
+          return;
+        }
+        if (policy != AbstractServer.SLOW_CONSUMER_COALESCE)
+          return;
+
+        endpoint.discardPending();
+      }
+      try
+      {
+        sendBroadcast(msg);
+      }
+      catch (Exception ex) {}
+      return;
+    }
+
+    enqueue(msg, capacity, policy);
+  }
+
+  /**
+   * Adds a message to the outbound queue, applying the slow consumer
+   * policy if the queue is full, and schedules the writer if needed.
+   *
+   * @param entry a <code>BroadcastMessage</code> or a
+   *   <code>PendingMessage</code>.
+   * @return true if the message has been queued.
+   */
+  private boolean enqueue(Object entry, int capacity, int policy)
+  {
+    boolean queued = true;
+    boolean disconnect = false;
+    boolean schedule = false;
+    boolean changed;
+    List discarded = null;
+
+    synchronized (outbound)
+    {
+      if (outbound.size() >= capacity)
+      {
+        if (policy == AbstractServer.SLOW_CONSUMER_COALESCE)
+        {
+          discarded = discardQueued();  // only the latest message is kept
+        }
+        else
+        {
+          queued = false;
+          if (policy == AbstractServer.SLOW_CONSUMER_DISCONNECT)
+          {
+            discarded = discardQueued();
+            disconnect = true;
+          }
+        }
+      }
+
+      if (queued)
+      {
+        outbound.add(entry);
+        schedule = !writerScheduled;
+        writerScheduled = true;
+      }
+      changed = updateWritability(outbound.size());
+    }
+
+    failAll(discarded, new IOException("message discarded"));
+    if (disconnect)
+      closeQuietly();
+    if (changed)
+      writabilityChanged();
+    if (schedule)
+      scheduleWriter();
+
+    return queued;
+  }
+
+  /**
+   * Returns the number of messages waiting to be sent to this client.
+   * Added in version 2.4
+   *
+   * @return the size of the outbound queue.
+   */
+  final int getOutboundQueueSize()
+  {
+    if (endpoint != null)
+      return endpoint.getPendingFrames();
+
+    synchronized (outbound)
+    {
+      return outbound.size();
+    }
+  }
+
+  /**
+   * Returns the number of received messages waiting for a worker
+   * thread of the server. Added in version 2.4
+   *
+   * @return the size of the inbound queue.
+   */
+  final int getInboundQueueSize()
+  {
+    synchronized (inbound)
+    {
+      return inbound.size();
+    }
+  }
+
+  /**
+   * Counts bytes received from the client. Added in version 2.4
+   *
+   * @param count the number of bytes.
+   */
+  final void bytesReceived(long count)
+  {
+    bytesReceived.addAndGet(count);
+    server.getMetrics().bytesReceived(count);
+  }
+
+  /**
+   * Counts bytes sent to the client. Added in version 2.4
+   *
+   * @param count the number of bytes.
+   */
+  final void bytesSent(long count)
+  {
+    bytesSent.addAndGet(count);
+    server.getMetrics().bytesSent(count);
+  }
+
+  /**
+   * Counts a message received from the client. Added in version 2.4
+   */
+  final void messageReceived()
+  {
+    messagesReceived.incrementAndGet();
+    server.getMetrics().messageReceived();
+  }
+
+  /**
+   * Counts a message sent to the client. Added in version 2.4
+   */
+  final void messageSent()
+  {
+    messagesSent.incrementAndGet();
+    server.getMetrics().messageSent();
+  }
+
+  /**
+   * Updates the writability of this connection after the number of
+   * messages waiting to be sent has changed. Must be called with the
+   * lock of the queue concerned, so that the changes are seen in order.
+   * Added in version 2.4
+   *
+   * @param pending the number of messages waiting to be sent.
+   * @return true if the writability has changed.
+   */
+  final boolean updateWritability(int pending)
+  {
+    if (writable && pending >= server.getHighWaterMark())
+    {
+      writable = false;
+      return true;
+    }
+    if (!writable && pending <= server.getLowWaterMark())
+    {
+      writable = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Calls the <code>clientWritabilityChanged</code> hook of the server.
+   * Must be called without holding any lock. Added in version 2.4
+   */
+  final void writabilityChanged()
+  {
+    try
+    {
+      server.clientWritabilityChanged(this);
+    }
+    catch (RuntimeException ex)
+    {
+      server.notifyClientException(this, ex);
+    }
+  }
+
+  /**
+   * Completes exceptionally a list of futures.
+   *
+   * @param futures the futures, or null.
+   * @param cause the exception.
+   */
+  static void failAll(List futures, Throwable cause)
+  {
+    if (futures == null)
+      return;
+
+    for (int i=0; i<futures.size(); i++)
+    {
+      ((CompletableFuture)futures.get(i)).completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * Empties the outbound queue. Must be called with the lock of the
+   * queue.
+   *
+   * @return the futures of the discarded messages.
+   */
+  private List discardQueued()
+  {
+    List futures = new ArrayList();
+    for (Iterator i = outbound.iterator(); i.hasNext(); )
+    {
+      Object entry = i.next();
+      if (entry instanceof PendingMessage
+        && ((PendingMessage)entry).future != null)
+        futures.add(((PendingMessage)entry).future);
+    }
+    outbound.clear();
+    return futures;
+  }
+
+  /**
+   * Sends a batch of queued messages. Called by a writer thread.
+   * The writer is rescheduled if messages remain, so that a client
+   * with a long queue does not monopolize the thread.
+   */
+  private void writeQueued()
+  {
+    for (int i=0; i<64; i++)
+    {
+      Object entry;
+      boolean changed;
+      synchronized (outbound)
+      {
+        if (outbound.isEmpty())
+        {
+          writerScheduled = false;
+          return;
+        }
+        entry = outbound.removeFirst();
+        changed = updateWritability(outbound.size());
+      }
+      if (changed)
+        writabilityChanged();
+
+      PendingMessage pending = null;
+      try
+      {
+        if (entry instanceof BroadcastMessage)
+        {
+          sendBroadcast((BroadcastMessage)entry);
+        }
+        else
+        {
+          pending = (PendingMessage)entry;
+          sendToClient(pending.message);
+          if (pending.future != null)
+            pending.future.complete(null);
+        }
+      }
+      catch (Exception ex)
+      {
+        // The connection is broken; the reading thread will notice it
+        List discarded;
+        synchronized (outbound)
+        {
+          discarded = discardQueued();
+          writerScheduled = false;
+        }
+        if (pending != null && pending.future != null)
+          discarded.add(0, pending.future);
+
+        failAll(discarded, ex);
+        return;
+      }
+    }
+    scheduleWriter();
+  }
+
+  /**
+   * Submits the writer task to the writer threads of the server.
+   */
+  private void scheduleWriter()
+  {
+    try
+    {
+      server.scheduleWriter(writer);
+    }
+    catch (RuntimeException ex)  // the server is closing
+    {
+      List discarded;
+      synchronized (outbound)
+      {
+        discarded = discardQueued();
+        writerScheduled = false;
+      }
+      failAll(discarded, new SocketException("server closed"));
+    }
+  }
+
+  /**
+   * Returns true if the class of this connection overrides
+   * <code>sendToClient</code>.
+   */
+  private boolean overridesSendToClient()
+  {
+    try
+    {
+      return getClass().getMethod("sendToClient",
+        new Class[] {Object.class}).getDeclaringClass()
+          != ConnectionToClient.class;
+    }
+    catch (NoSuchMethodException ex)
+    {
+      return true;
+    }
+  }
+
+  /**
+   * Closes the connection, ignoring any exception.
+   */
+  private void closeQuietly()
+  {
+    try
+    {
+      close();
+    }
+    catch (Exception ex) {}
+  }
+
+  /**
+   * Queues a received message to be handled by a worker thread of the
+   * server. The messages of this client are handled one at a time, in
+   * the order they were received. When too many messages are waiting,
+   * the connection stops reading from the client until the workers
+   * catch up. Added in version 2.4
+   *
+   * @param msg the message received.
+   */
+  final void dispatchQueued(Object msg)
+  {
+    boolean schedule;
+    synchronized (inbound)
+    {
+      while (throttled && endpoint == null && !readyToStop)
+      {
+        try
+        {
+          inbound.wait();
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+
+      inbound.add(msg);
+      if (inbound.size() >= INBOUND_CAPACITY && !throttled)
+      {
+        throttled = true;
+        if (endpoint != null)
+          endpoint.setReading(false);
+      }
+
+      schedule = !handlerScheduled;
+      handlerScheduled = true;
+    }
+
+    if (schedule)
+      scheduleHandler();
+  }
+
+  /**
+   * Runs a task once the messages waiting for a worker thread have
+   * been handled, or immediately if there are none.
+   *
+   * @param task the task to be run.
+   */
+  private void afterQueuedMessages(Runnable task)
+  {
+    synchronized (inbound)
+    {
+      if (handlerScheduled)
+      {
+        pendingClose = task;
+        return;
+      }
+    }
+    task.run();
+  }
+
+  /**
+   * Handles a batch of queued messages. Called by a worker thread.
+   * The handler is rescheduled if messages remain, so that a client
+   * with a long queue does not monopolize the thread.
+   */
+  private void handleQueued()
+  {
+    for (int i=0; i<64; i++)
+    {
+      Object msg = null;
+      Runnable close = null;
+      boolean empty;
+      synchronized (inbound)
+      {
+        empty = inbound.isEmpty();
+        if (empty)
+        {
+          handlerScheduled = false;
+          close = pendingClose;
+          pendingClose = null;
+        }
+        else
+        {
+          msg = inbound.removeFirst();
+          if (throttled && inbound.size() <= INBOUND_CAPACITY/2)
+            resumeReading();
+        }
+      }
+
+      if (empty)
+      {
+        if (close != null)
+          close.run();
+        return;
+      }
+
+      if (!readyToStop)
+      {
+        try
+        {
+          server.handleMessage(msg, this);
+        }
+        catch (RuntimeException ex)  // thrown by handleMessageFromClient
+        {
+          server.notifyClientException(this, ex);
+        }
+      }
+    }
+    scheduleHandler();
+  }
+
+  /**
+   * Submits the handler task to the worker threads of the server.
+   */
+  private void scheduleHandler()
+  {
+    try
+    {
+      server.scheduleWorker(handler);
+    }
+    catch (RuntimeException ex)  // the server is closing
+    {
+      Runnable close;
+      synchronized (inbound)
+      {
+        inbound.clear();
+        resumeReading();
+        handlerScheduled = false;
+        close = pendingClose;
+        pendingClose = null;
+      }
+      if (close != null)
+        close.run();
+    }
+  }
+
+  /**
+   * Lets the connection read from the client again.
+   * Must be called with the lock of the inbound queue.
+   */
+  private void resumeReading()
+  {
+    throttled = false;
+    if (endpoint != null)
+      endpoint.setReading(true);
+    else
+      inbound.notifyAll();
+  }
+
+  /**
+   * Calls the <code>clientDisconnected</code> hook, then removes this
+   * connection from the registry of the server.
+   */
+  private void disconnected()
+  {
+    try
+    {
+      server.clientDisconnected(this);   // moved here in version 2.31
+    }
+    finally
+    {
+      server.unregisterClient(this);  // added in version 2.4
+    }
+  }
+
+  /**
+   * Returns the lock held while the messages of this client are
+   * handled in the per-client dispatch mode. Added in version 2.4
+   *
+   * @return the dispatch lock.
+   */
+  final Object getDispatchLock()
+  {
+    return dispatchLock;
+  }
+
+  /**
+   * Called by the reactor once the channel of this connection
+   * is registered. Plays the role of the beginning of the
+   * <code>run</code> method. Added in version 2.4
+   */
+  final void channelOpened()
+  {
+    server.clientConnected(this);
+  }
+
+  /**
+   * Called by the reactor each time a message is received.
+   * Plays the role of the body of the loop of the
+   * <code>run</code> method. Added in version 2.4
+   *
+   * @param msg the message received.
+   */
+  final void channelRead(Object msg)
+  {
+    try
+    {
+      if (!readyToStop && handleMessageFromClient(msg))
+      {
+        server.receiveMessageFromClient(msg, this);
+      }
+    }
+    catch (RuntimeException ex) // thrown by handleMessageFromClient or receiveMessageFromClient
+    {
+      server.notifyClientException(this, ex);
+    }
+  }
+
+  /**
+   * Called by the reactor when a received message cannot be decoded
+   * but the connection remains usable. Added in version 2.4
+   *
+   * @param exception the exception raised.
+   */
+  final void channelException(Exception exception)
+  {
+    server.notifyClientException(this, exception);
+  }
+
+  /**
+   * Called by the reactor when the channel of this connection
+   * has been closed. Plays the role of the end of the
+   * <code>run</code> method, including the removal of the connection
+   * from the registry of the server. Added in version 2.4
+   *
+   * @param exception the exception that caused the end of the
+   *   connection, or null if it ended normally.
+   */
+  final void channelClosed(Throwable exception)
+  {
+    try
+    {
+      if (exception != null && !readyToStop)
+      {
+        try
+        {
+          closeAll();
+        }
+        catch (Exception ex) { }
+
+        server.notifyClientException(this, exception);
+      }
+    }
+    finally
+    {
+      afterQueuedMessages(new Runnable()
+      {
+        public void run()
+        {
+          disconnected();
+        }
+      });
+    }
+  }
+
   /**
    * Closes all connection to the server.
    *
@@ -314,10 +1717,18 @@ public class ConnectionToClient extends Thread
 
     try
     {
+      // Close the channel, the reactor will complete the closing
+      if (endpoint != null)  // added in version 2.4
+        endpoint.close();
+
       // Close the socket
       if (clientSocket != null)
         clientSocket.close();
 
+      // Discard the bytes not flushed, the socket being closed
+      if (outputBuffer != null)  // added in version 2.4
+        outputBuffer.close();
+
       // Close the output stream
       if (output != null)
         output.close();
@@ -325,6 +1736,13 @@ public class ConnectionToClient extends Thread
       // Close the input stream
       if (input != null)
         input.close();
+
+      // Close the frame streams
+      if (frameOutput != null)
+        frameOutput.close();
+
+      if (frameInput != null)
+        frameInput.close();
     }
     finally
     {
@@ -334,6 +1752,9 @@ public class ConnectionToClient extends Thread
       // when they are garbage collected.
       output = null;
       input = null;
+      frameOutput = null;
+      frameInput = null;
+      outputBuffer = null;
       clientSocket = null;
     }
   }
@@ -349,5 +1770,75 @@ public class ConnectionToClient extends Thread
     }
     catch(IOException e) {}
   }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A message sent to this client only, queued with the future to
+   * complete once it has been written. Added in version 2.4
+   */
+  private static class PendingMessage
+  {
+    private final Object message;
+    private final CompletableFuture future;
+
+    PendingMessage(Object message, CompletableFuture future)
+    {
+      this.message = message;
+      this.future = future;
+    }
+  }
+
+  /**
+   * The stream counting the bytes received from the client.
+   * Added in version 2.4
+   */
+  private class MeteredInputStream extends FilterInputStream
+  {
+    MeteredInputStream(InputStream in)
+    {
+      super(in);
+    }
+
+    public int read() throws IOException
+    {
+      int b = in.read();
+      if (b >= 0)
+        bytesReceived(1);
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      int count = in.read(b, off, len);
+      if (count > 0)
+        bytesReceived(count);
+      return count;
+    }
+  }
+
+  /**
+   * The stream counting the bytes sent to the client.
+   * Added in version 2.4
+   */
+  private class MeteredOutputStream extends FilterOutputStream
+  {
+    MeteredOutputStream(OutputStream out)
+    {
+      super(out);
+    }
+
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      bytesSent(1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      out.write(b, off, len);
+      bytesSent(len);
+    }
+  }
 }
 // End of ConnectionToClient class
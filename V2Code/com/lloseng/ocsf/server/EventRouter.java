@@ -0,0 +1,353 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.common.EventHandler;
+
+/**
+* The <code> EventRouter </code> class keeps the observers and handlers
+* of an <code>ObservableServer</code> that were registered with a
+* <code>ServerEventFilter</code>, and finds those an event must be given
+* to.<p>
+*
+* The routes of each type of event, and of each class of message
+* received, are computed the first time such an event is routed and
+* then kept, so that routing an event costs a map lookup plus the
+* evaluation of the conditions on the connection. The handlers whose
+* filters have no condition on the connection are kept in an array
+* given as such to the event bus, and each other handler has its own
+* array, so that routing an event allocates nothing. The registrations
+* are kept in an immutable table replaced each time one is added or
+* removed, which also discards the routes computed.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+final class EventRouter
+{
+  // Class variables ************************************************
+
+  /**
+   * The routes of an event nobody receives.
+   */
+  private static final Routes NO_ROUTES =
+    new Routes(new EventHandler[0], new Route[0], new Route[0]);
+
+  // Instance variables *********************************************
+
+  /**
+   * The current table of the registrations.
+   */
+  private volatile Table table = new Table(new Route[0]);
+
+  // Constructor ****************************************************
+
+  EventRouter() {}
+
+  // Instance methods ***********************************************
+
+  /**
+   * Registers a handler with a filter.
+   *
+   * @return false if the handler was already registered.
+   */
+  synchronized boolean addHandler(EventHandler handler,
+    ServerEventFilter filter)
+  {
+    if (indexOf(handler, true) >= 0)
+      return false;
+
+    add(new Route(filter, handler, null));
+    return true;
+  }
+
+  /**
+   * Registers an observer with a filter.
+   *
+   * @return false if the observer was already registered.
+   */
+  synchronized boolean addObserver(Observer observer,
+    ServerEventFilter filter)
+  {
+    if (indexOf(observer, false) >= 0)
+      return false;
+
+    add(new Route(filter, null, observer));
+    return true;
+  }
+
+  /**
+   * Removes a handler.
+   *
+   * @return false if the handler was not registered.
+   */
+  synchronized boolean removeHandler(EventHandler handler)
+  {
+    return remove(indexOf(handler, true));
+  }
+
+  /**
+   * Removes an observer.
+   *
+   * @return false if the observer was not registered.
+   */
+  synchronized boolean removeObserver(Observer observer)
+  {
+    return remove(indexOf(observer, false));
+  }
+
+  /**
+   * Removes every observer, keeping the handlers.
+   */
+  synchronized void removeObservers()
+  {
+    Route[] routes = table.routes;
+    List kept = new ArrayList();
+    for (int i=0; i<routes.length; i++)
+    {
+      if (routes[i].handler != null)
+        kept.add(routes[i]);
+    }
+    table = new Table((Route[])kept.toArray(new Route[kept.size()]));
+  }
+
+  /**
+   * @return true if nothing is registered.
+   */
+  boolean isEmpty()
+  {
+    return table.routes.length == 0;
+  }
+
+  /**
+   * @return the number of observers registered.
+   */
+  int getObserverCount()
+  {
+    return table.observerCount;
+  }
+
+  /**
+   * Returns the handlers and observers whose filters accept the type
+   * of an event and, for a message received, the class of the message.
+   * The conditions on the connection of the conditional handlers and
+   * of the observers remain to be checked with
+   * <code>Route.accepts()</code>.
+   *
+   * @param event the event.
+   * @return the routes of the event. The arrays must not be modified.
+   */
+  Routes getRoutes(ServerEvent event)
+  {
+    Table current = table;
+    if (current.routes.length == 0)
+      return NO_ROUTES;
+
+    Class eventType = event.getClass();
+    if (eventType != ServerEvent.MessageReceived.class)
+      return current.getRoutes(current.byEventType, eventType, eventType,
+        null);
+
+    Object message = event.getMessage();
+    if (message == null)
+      return current.computeRoutes(eventType, null);
+    return current.getRoutes(current.byMessageClass, message.getClass(),
+      eventType, message.getClass());
+  }
+
+  /**
+   * Replaces the table with one containing another route.
+   */
+  private void add(Route route)
+  {
+    Route[] routes = table.routes;
+    Route[] updated = new Route[routes.length+1];
+    System.arraycopy(routes, 0, updated, 0, routes.length);
+    updated[routes.length] = route;
+    table = new Table(updated);
+  }
+
+  /**
+   * Replaces the table with one without a route.
+   */
+  private boolean remove(int index)
+  {
+    if (index < 0)
+      return false;
+
+    Route[] routes = table.routes;
+    Route[] updated = new Route[routes.length-1];
+    System.arraycopy(routes, 0, updated, 0, index);
+    System.arraycopy(routes, index+1, updated, index, routes.length-index-1);
+    table = new Table(updated);
+    return true;
+  }
+
+  /**
+   * Returns the position of the route of a handler or an observer,
+   * or -1.
+   */
+  private int indexOf(Object target, boolean handler)
+  {
+    Route[] routes = table.routes;
+    for (int i=0; i<routes.length; i++)
+    {
+      if ((handler ? (Object)routes[i].handler : routes[i].observer) == target)
+        return i;
+    }
+    return -1;
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * A handler or an observer, and its filter.
+   */
+  static final class Route
+  {
+    final ServerEventFilter filter;
+    final EventHandler handler;
+    final Observer observer;
+
+    /**
+     * The handler alone, as published to by the event bus, or null
+     * for an observer.
+     */
+    final EventHandler[] target;
+
+    Route(ServerEventFilter filter, EventHandler handler, Observer observer)
+    {
+      this.filter = filter;
+      this.handler = handler;
+      this.observer = observer;
+      this.target = handler == null ? null : new EventHandler[] {handler};
+    }
+
+    /**
+     * Checks the conditions on the connection concerned by an event
+     * whose type is accepted.
+     */
+    boolean accepts(ServerEvent event)
+    {
+      return !filter.dependsOnOriginator()
+        || filter.acceptsOriginator(event.getOriginator());
+    }
+  }
+
+  /**
+   * The handlers and the observers an event may be given to.
+   */
+  static final class Routes
+  {
+    /**
+     * The handlers receiving the event whatever its connection.
+     */
+    final EventHandler[] handlers;
+
+    /**
+     * The handlers receiving the event if <code>accepts</code> is true.
+     */
+    final Route[] conditionalHandlers;
+
+    final Route[] observers;
+
+    Routes(EventHandler[] handlers, Route[] conditionalHandlers,
+      Route[] observers)
+    {
+      this.handlers = handlers;
+      this.conditionalHandlers = conditionalHandlers;
+      this.observers = observers;
+    }
+  }
+
+  /**
+   * An immutable set of registrations, and the routes computed from it.
+   */
+  private static final class Table
+  {
+    final Route[] routes;
+    final int observerCount;
+
+    /**
+     * The routes of each type of event other than the messages received.
+     */
+    final ConcurrentHashMap byEventType = new ConcurrentHashMap();
+
+    /**
+     * The routes of the messages received, by class of message.
+     */
+    final ConcurrentHashMap byMessageClass = new ConcurrentHashMap();
+
+    Table(Route[] routes)
+    {
+      this.routes = routes;
+
+      int count = 0;
+      for (int i=0; i<routes.length; i++)
+      {
+        if (routes[i].observer != null)
+          count++;
+      }
+      observerCount = count;
+    }
+
+    /**
+     * Returns the routes kept under a key, computing them if needed.
+     */
+    Routes getRoutes(ConcurrentHashMap cache, Class key, Class eventType,
+      Class messageClass)
+    {
+      Routes result = (Routes)cache.get(key);
+      if (result == null)
+      {
+        result = computeRoutes(eventType, messageClass);
+        cache.putIfAbsent(key, result);
+      }
+      return result;
+    }
+
+    /**
+     * Finds the routes whose filter accepts a type of event and a class
+     * of message.
+     */
+    Routes computeRoutes(Class eventType, Class messageClass)
+    {
+      boolean message = eventType == ServerEvent.MessageReceived.class;
+      List handlers = new ArrayList();
+      List conditionalHandlers = new ArrayList();
+      List observers = new ArrayList();
+
+      for (int i=0; i<routes.length; i++)
+      {
+        ServerEventFilter filter = routes[i].filter;
+        if (!filter.acceptsEventType(eventType)
+          || (message && !filter.acceptsMessageClass(messageClass)))
+          continue;
+
+        if (routes[i].handler == null)
+          observers.add(routes[i]);
+        else if (filter.dependsOnOriginator())
+          conditionalHandlers.add(routes[i]);
+        else
+          handlers.add(routes[i].handler);
+      }
+
+      if (handlers.isEmpty() && conditionalHandlers.isEmpty()
+        && observers.isEmpty())
+        return NO_ROUTES;
+      return new Routes(
+        (EventHandler[])handlers.toArray(new EventHandler[handlers.size()]),
+        (Route[])conditionalHandlers.toArray(
+          new Route[conditionalHandlers.size()]),
+        (Route[])observers.toArray(new Route[observers.size()]));
+    }
+  }
+}
+// End of EventRouter class
@@ -10,7 +10,14 @@ package com.lloseng.ocsf.server;
 * <code> OriginatorMessage </code> instances to its observers.
 * This class should be used when the observers need to know
 * the orginator of the messages received. The originator
-* is null when the message sent concerns the server.
+* is null when the message sent concerns the server.<p>
+*
+* Since version 2.4, the <code>OriginatorMessage</code> instances sent
+* are the <code>ServerEvent</code> instances published on the event bus,
+* so that each notification creates a single object, or none for the
+* events that are flyweights. Observers can test their class instead
+* of parsing the message, which is only built, for exceptions, when
+* <code>getMessage</code> is called.
 *
 * Project Name: OCSF (Object Client-Server Framework)<p>
 *
@@ -41,16 +48,18 @@ public class ObservableOriginatorServer extends ObservableServer
    * This method is used to handle messages coming from the client.
    * Observers are notfied by receiveing an instance of OriginatorMessage
    * that contains both the message received and a reference to the
-   * client who sent the message.
+   * client who sent the message. Since version 2.4, this instance is
+   * the <code>ServerEvent.MessageReceived</code> event published on
+   * the event bus.
    *
    * @param message The message received from the client.
    * @param client The connection to the client.
    */
-  protected synchronized void handleMessageFromClient
+  protected void handleMessageFromClient
     (Object message, ConnectionToClient client)
   {
-    setChanged();
-    notifyObservers(new OriginatorMessage(client, message));
+    if (isObserved())
+      notifyEvent(new ServerEvent.MessageReceived(this, client, message));
   }
 
   /**
@@ -62,10 +71,10 @@ public class ObservableOriginatorServer extends ObservableServer
    *
    * @param client the connection connected to the client.
    */
-  protected synchronized void clientConnected(ConnectionToClient client)
+  protected void clientConnected(ConnectionToClient client)
   {
-    setChanged();
-    notifyObservers(new OriginatorMessage(client, CLIENT_CONNECTED));
+    if (isObserved())
+      notifyEvent(new ServerEvent.ClientConnected(this, client));
   }
 
   /**
@@ -77,12 +86,26 @@ public class ObservableOriginatorServer extends ObservableServer
    *
    * @param client the connection connected to the client.
    */
-  synchronized protected void clientDisconnected(ConnectionToClient client)
+  protected void clientDisconnected(ConnectionToClient client)
   {
-    setChanged();
-    notifyObservers(new OriginatorMessage(client, CLIENT_DISCONNECTED));
+    if (isObserved())
+      notifyEvent(new ServerEvent.ClientDisconnected(this, client));
   }
 
+  /**
+   * Method called each time a connection becomes writable or
+   * unwritable. It notifies observers by sending an
+   * <code> OriginatorMessage </code> instance
+   * containing a reference to that client and
+   * the message defined by the static variable
+   * CLIENT_WRITABILITY_CHANGED. Added in version 2.4
+   *
+   * @param client the connection with the client.
+   */
+  protected void clientWritabilityChanged(ConnectionToClient client)
+  {
+    notifyEvent(getWritabilityEvent(client, client.isWritable()));
+  }
 
   /**
    * Method called each time an exception is raised
@@ -92,17 +115,19 @@ public class ObservableOriginatorServer extends ObservableServer
    * containing a reference to that client and
    * the message defined by the static variable CLIENT_EXCEPTION
    * to which is appended the exception message.
+   * Since version 2.4, this instance is a
+   * <code>ServerEvent.ClientException</code>, which also gives
+   * the exception, and the string is only built if
+   * <code>getMessage</code> is called.
    *
    * @param client the client that raised the exception.
    * @param Throwable the exception thrown.
    */
-  synchronized protected void clientException(
+  protected void clientException(
     ConnectionToClient client, Throwable exception)
   {
-    setChanged();
-    notifyObservers(
-      new OriginatorMessage(client,
-        CLIENT_EXCEPTION + exception.getMessage()));
+    if (isObserved())
+      notifyEvent(new ServerEvent.ClientException(this, client, exception));
   }
 
   /**
@@ -116,12 +141,9 @@ public class ObservableOriginatorServer extends ObservableServer
    *
    * @param exception the exception raised.
    */
-  protected synchronized void listeningException(Throwable exception)
+  protected void listeningException(Throwable exception)
   {
-    setChanged();
-    notifyObservers(
-      new OriginatorMessage(null,
-        LISTENING_EXCEPTION + exception.getMessage()));
+    notifyEvent(new ServerEvent.ListeningException(this, exception));
   }
 
   /**
@@ -131,10 +153,9 @@ public class ObservableOriginatorServer extends ObservableServer
    * containing the message defined by the static variable SERVER_STARTED.
    * The originator is set to null.
    */
-  protected synchronized void serverStarted()
+  protected void serverStarted()
   {
-    setChanged();
-    notifyObservers(new OriginatorMessage(null, SERVER_STARTED));
+    notifyEvent(getStartedEvent());
   }
 
   /**
@@ -144,10 +165,9 @@ public class ObservableOriginatorServer extends ObservableServer
    * containing the message defined by the static variable SERVER_STOPPED.
    * The originator is set to null.
    */
-  synchronized protected void serverStopped()
+  protected void serverStopped()
   {
-    setChanged();
-    notifyObservers(new OriginatorMessage(null, SERVER_STOPPED));
+    notifyEvent(getStoppedEvent());
   }
 
   /**
@@ -157,9 +177,17 @@ public class ObservableOriginatorServer extends ObservableServer
    * containing the message defined by the static variable SERVER_CLOSED.
    * The originator is set to null.
    */
-  synchronized protected void serverClosed()
+  protected void serverClosed()
+  {
+    notifyEvent(getClosedEvent());
+  }
+
+  /**
+   * Gives an event both to the handlers of the event bus and to the
+   * observers.
+   */
+  private void notifyEvent(ServerEvent event)
   {
-    setChanged();
-    notifyObservers(new OriginatorMessage(null, SERVER_CLOSED));
+    notifyObservers(event, event);
   }
 }
@@ -7,12 +7,37 @@ package com.lloseng.ocsf.server;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import javax.management.*;
+import com.lloseng.ocsf.common.AsyncEventHandler;
+import com.lloseng.ocsf.common.EventBus;
+import com.lloseng.ocsf.common.EventHandler;
+import com.lloseng.ocsf.common.FlushPolicy;
+import com.lloseng.ocsf.common.MessageCodec;
+import com.lloseng.ocsf.common.ResetPolicy;
 
 /**
  * This class acts as a subclass of <code>AbstractServer</code>
  * and is also an <code>Observable</code> class.
  * This means that when a message is received, all observers
- * are notified.
+ * are notified.<p>
+ *
+ * Since version 2.4, each notification is also published, as a
+ * <code>ServerEvent</code>, on the event bus returned by
+ * <code>getEventBus()</code>. The handlers of the bus are called
+ * without locking the server and receive typed events instead of
+ * the <code>"#OS:"</code> strings; the observers registered with
+ * <code>addObserver()</code> are still notified one at a time, as
+ * before, but only when there are some.<p>
+ *
+ * An observer too slow to be notified by the threads handling the
+ * clients can be added with a queue and a thread of its own, using
+ * <code>addObserver(Observer, int, int)</code>.<p>
+ *
+ * An observer, or a handler, interested in some events only can be
+ * registered with a <code>ServerEventFilter</code>, using
+ * <code>addObserver(Observer, ServerEventFilter)</code> or
+ * <code>subscribe()</code>. It is then only called for the events
+ * its filter accepts.
  *
  * @author Fran&ccedil;ois B&eacute;lange
  * @author Dr Timothy C. Lethbridge
@@ -40,6 +65,13 @@ public class ObservableServer extends Observable
    */
   public static final String CLIENT_EXCEPTION= "#OS:Client exception.";
 
+  /**
+   * The string sent to the observers when a connection has become
+   * writable or unwritable.
+   */
+  public static final String CLIENT_WRITABILITY_CHANGED=
+    "#OS:Client writability changed.";
+
   /**
    * The string sent to the observers when a listening exception occurred.
    * The error message of that exception will be appended to this string.
@@ -61,6 +93,13 @@ public class ObservableServer extends Observable
    */
   public static final String SERVER_STOPPED= "#OS:Server stopped.";
 
+  /**
+   * The key of the writability events of a connection, created with
+   * the first change of writability of the connection.
+   */
+  private static final AttributeKey WRITABILITY_EVENTS =
+    AttributeKey.valueOf("#OS:writability events", ServerEvent[].class);
+
 
   //Instance variables **********************************************
 
@@ -69,6 +108,47 @@ public class ObservableServer extends Observable
    */
   private AdaptableServer service;
 
+  /**
+   * The bus on which the events of the server are published.
+   * Added in version 2.4
+   */
+  private final EventBus eventBus = new EventBus();
+
+  /**
+   * Indicates if observers have been registered with
+   * <code>addObserver</code>. Added in version 2.4
+   */
+  private volatile boolean observed = false;
+
+  /**
+   * The asynchronous handlers of the observers added with a queue,
+   * indexed by observer. Added in version 2.4
+   */
+  private final Map asyncObservers = new IdentityHashMap();
+
+  /**
+   * The asynchronous handlers, replaced by a new array each time an
+   * observer is added or removed, so that they are given the
+   * notifications without holding the lock of the server.
+   * Added in version 2.4
+   */
+  private volatile AsyncEventHandler[] asyncHandlers =
+    new AsyncEventHandler[0];
+
+  /**
+   * The observers and handlers registered with a filter.
+   * Added in version 2.4
+   */
+  private final EventRouter router = new EventRouter();
+
+  /**
+   * The events published each time the server starts listening, stops
+   * listening and is closed. Added in version 2.4
+   */
+  private final ServerEvent startedEvent = new ServerEvent.ServerStarted(this);
+  private final ServerEvent stoppedEvent = new ServerEvent.ServerStopped(this);
+  private final ServerEvent closedEvent = new ServerEvent.ServerClosed(this);
+
 
   //Constructor *****************************************************
 
@@ -118,6 +198,64 @@ public class ObservableServer extends Observable
     service.sendToAllClients(msg);
   }
 
+  /**
+   * Sends a message to every client connected to the server
+   * without waiting for the message to be written.
+   *
+   * @param msg   The message to be sent
+   */
+  public void sendToAllClientsAsync(Object msg)
+  {
+    service.sendToAllClientsAsync(msg);
+  }
+
+  /**
+   * Sends a message to every client of a group.
+   *
+   * @param group the name of the group.
+   * @param msg   The message to be sent
+   */
+  public void sendToGroup(String group, Object msg)
+  {
+    service.sendToGroup(group, msg);
+  }
+
+  /**
+   * Sends a message to every client of a group
+   * without waiting for the message to be written.
+   *
+   * @param group the name of the group.
+   * @param msg   The message to be sent
+   */
+  public void sendToGroupAsync(String group, Object msg)
+  {
+    service.sendToGroupAsync(group, msg);
+  }
+
+  /**
+   * Adds a client to a group, creating the group if needed.
+   *
+   * @param group the name of the group.
+   * @param client the connection to the client.
+   * @return true if the client joined the group.
+   */
+  final public boolean joinGroup(String group, ConnectionToClient client)
+  {
+    return service.joinGroup(group, client);
+  }
+
+  /**
+   * Removes a client from a group.
+   *
+   * @param group the name of the group.
+   * @param client the connection to the client.
+   * @return true if the client has left the group.
+   */
+  final public boolean leaveGroup(String group, ConnectionToClient client)
+  {
+    return service.leaveGroup(group, client);
+  }
+
 // ACCESSING METHODS ------------------------------------------------
 
   /**
@@ -150,6 +288,209 @@ public class ObservableServer extends Observable
     return service.getNumberOfClients();
   }
 
+  /**
+   * Returns the metrics of the server.
+   *
+   * @return the metrics.
+   */
+  final public ServerMetrics getMetrics()
+  {
+    return service.getMetrics();
+  }
+
+  /**
+   * Registers the metrics of the server with the platform MBean server.
+   *
+   * @return the name of the MBean.
+   * @exception JMException if the MBean cannot be registered.
+   */
+  final public ObjectName registerMetrics() throws JMException
+  {
+    return service.registerMetrics();
+  }
+
+  /**
+   * Unregisters the metrics of the server from the platform MBean server.
+   *
+   * @exception JMException if the MBean cannot be unregistered.
+   */
+  final public void unregisterMetrics() throws JMException
+  {
+    service.unregisterMetrics();
+  }
+
+  /**
+   * Returns the bus on which the events of the server are published.
+   * Added in version 2.4
+   *
+   * @return the event bus.
+   * @see com.lloseng.ocsf.server.ServerEvent
+   */
+  final public EventBus getEventBus()
+  {
+    return eventBus;
+  }
+
+  /**
+   * Adds an observer, which will be notified of the events of the
+   * server with the arguments defined by this class.
+   *
+   * @param observer the observer.
+   */
+  public synchronized void addObserver(Observer observer)
+  {
+    super.addObserver(observer);
+    observed = super.countObservers() > 0;
+  }
+
+  /**
+   * Adds an observer notified only of the events accepted by a filter,
+   * with the arguments defined by this class. Added in version 2.4
+   *
+   * @param observer the observer.
+   * @param filter the filter.
+   * @see com.lloseng.ocsf.server.ServerEventFilter
+   */
+  public synchronized void addObserver(Observer observer,
+    ServerEventFilter filter)
+  {
+    if (observer == null || filter == null)
+      throw new NullPointerException();
+
+    router.addObserver(observer, filter);
+  }
+
+  /**
+   * Subscribes a handler to the events accepted by a filter. The
+   * handler receives <code>ServerEvent</code> instances, as the
+   * handlers of the event bus, which delivers them.
+   * Added in version 2.4
+   *
+   * @param handler the handler.
+   * @param filter the filter.
+   * @return false if the handler had already subscribed with a filter.
+   * @see com.lloseng.ocsf.server.ServerEventFilter
+   */
+  public boolean subscribe(EventHandler handler, ServerEventFilter filter)
+  {
+    if (handler == null || filter == null)
+      throw new NullPointerException();
+
+    return router.addHandler(handler, filter);
+  }
+
+  /**
+   * Unsubscribes a handler, subscribed with a filter or to the event
+   * bus. Added in version 2.4
+   *
+   * @param handler the handler.
+   * @return false if the handler had not subscribed.
+   */
+  public boolean unsubscribe(EventHandler handler)
+  {
+    boolean filtered = router.removeHandler(handler);
+    return eventBus.unsubscribe(handler) || filtered;
+  }
+
+  /**
+   * Adds an observer notified asynchronously. The notifications are
+   * put in a queue of the given capacity and the observer is called by
+   * a thread of its own, so that a slow observer, such as a user
+   * interface, does not slow down the threads handling the clients.
+   * The notifications are queued before the lock of the server is
+   * taken, so a thread blocked on a full queue with
+   * <code>OVERFLOW_BLOCK</code> does not hold back the other threads.
+   * Added in version 2.4
+   *
+   * @param observer the observer.
+   * @param capacity the maximum number of notifications queued.
+   * @param overflowPolicy what to do when the queue is full:
+   *   <code>AsyncEventHandler.OVERFLOW_BLOCK</code>,
+   *   <code>OVERFLOW_DROP_OLDEST</code> or <code>OVERFLOW_CONFLATE</code>.
+   * @see com.lloseng.ocsf.common.AsyncEventHandler
+   */
+  public synchronized void addObserver(Observer observer, int capacity,
+    int overflowPolicy)
+  {
+    if (observer == null)
+      throw new NullPointerException();
+    if (asyncObservers.containsKey(observer))
+      return;
+
+    AsyncEventHandler async =
+      new AsyncEventHandler(observer, capacity, overflowPolicy);
+    asyncObservers.put(observer, async);
+    asyncHandlers = (AsyncEventHandler[])asyncObservers.values().toArray(
+      new AsyncEventHandler[asyncObservers.size()]);
+  }
+
+  /**
+   * Removes an observer. The thread of an observer notified
+   * asynchronously stops once the notifications queued are delivered.
+   *
+   * @param observer the observer.
+   */
+  public synchronized void deleteObserver(Observer observer)
+  {
+    AsyncEventHandler async = (AsyncEventHandler)asyncObservers.remove(observer);
+    if (async != null)
+    {
+      asyncHandlers = (AsyncEventHandler[])asyncObservers.values().toArray(
+        new AsyncEventHandler[asyncObservers.size()]);
+      async.close();
+    }
+    else if (!router.removeObserver(observer))
+      super.deleteObserver(observer);
+    observed = super.countObservers() > 0;
+  }
+
+  /**
+   * Removes every observer.
+   */
+  public synchronized void deleteObservers()
+  {
+    super.deleteObservers();
+    router.removeObservers();
+    observed = false;
+    asyncHandlers = new AsyncEventHandler[0];
+
+    for (Iterator i = asyncObservers.values().iterator(); i.hasNext(); )
+    {
+      ((AsyncEventHandler)i.next()).close();
+    }
+    asyncObservers.clear();
+  }
+
+  /**
+   * @return the number of observers, including those registered
+   *   with a filter.
+   */
+  public synchronized int countObservers()
+  {
+    return super.countObservers() + asyncObservers.size()
+      + router.getObserverCount();
+  }
+
+  /**
+   * Returns an array containing the clients of a group.
+   *
+   * @param group the name of the group.
+   * @return an array of <code>Thread</code> containing
+   * <code>ConnectionToClient</code> instances.
+   */
+  final public Thread[] getGroupMembers(String group)
+  {
+    return service.getGroupMembers(group);
+  }
+
+  /**
+   * @return the names of the groups having at least one client.
+   */
+  final public String[] getGroups()
+  {
+    return service.getGroups();
+  }
+
   /**
    * @return the port number.
    */
@@ -170,10 +511,10 @@ public class ObservableServer extends Observable
   }
 
   /**
-   * Sets the timeout time when accepting connection.
-   * The default is half a second.
-   * The server must be stopped and restarted for the timeout
-   * change be in effect.
+   * Sets the timeout time when accepting connections.
+   * Has no effect since version 2.4: the listening thread does not
+   * poll the server socket anymore, and stops as soon as
+   * <code>stopListening()</code> is called.
    *
    * @param timeout the timeout time in ms.
    */
@@ -183,11 +524,10 @@ public class ObservableServer extends Observable
   }
 
   /**
-   * Sets the maximum number of
-   * waiting connections accepted by the operating system.
-   * The default is 20.
-   * The server must be closed and restart for the backlog
-   * change be in effect.
+   * Sets the maximum number of waiting connections accepted by the
+   * operating system. The default is 128.
+   * The server must be closed and restarted for the backlog
+   * change to be in effect.
    *
    * @param backlog the maximum number of connections.
    */
@@ -196,16 +536,250 @@ public class ObservableServer extends Observable
     service.setBacklog(backlog);
   }
 
+  /**
+   * Sets the number of reactor threads used to handle the connections.
+   * The default is 0, meaning one thread per connection.
+   * The server must be closed and restarted for the change
+   * to be in effect.
+   *
+   * @param threads the number of reactor threads, or 0.
+   */
+  final public void setReactorThreads(int threads)
+  {
+    service.setReactorThreads(threads);
+  }
+
+  /**
+   * Sets the codec used to exchange messages with the clients.
+   * The default is null, meaning that object streams are used.
+   *
+   * @param codec the codec, or null.
+   */
+  final public void setCodec(MessageCodec codec)
+  {
+    service.setCodec(codec);
+  }
+
+  /**
+   * Sets the maximum number of messages that can be queued for one
+   * client by the asynchronous broadcasts. The default is 256.
+   *
+   * @param capacity the capacity of the outbound queues.
+   */
+  final public void setOutboundQueueCapacity(int capacity)
+  {
+    service.setOutboundQueueCapacity(capacity);
+  }
+
+  /**
+   * Sets the policy applied to a client whose outbound queue is full.
+   *
+   * @param policy one of the slow consumer policies of
+   *   <code>AbstractServer</code>.
+   */
+  final public void setSlowConsumerPolicy(int policy)
+  {
+    service.setSlowConsumerPolicy(policy);
+  }
+
+  /**
+   * Sets the water marks deciding when a connection is writable.
+   * The defaults are 16 and 64.
+   *
+   * @param low the low water mark.
+   * @param high the high water mark.
+   */
+  final public void setWriteBufferWaterMarks(int low, int high)
+  {
+    service.setWriteBufferWaterMarks(low, high);
+  }
+
+  /**
+   * Sets the policy deciding when the messages written to a client
+   * are actually sent. The default is <code>FlushPolicy.immediate()</code>.
+   *
+   * @param policy the flush policy.
+   * @see com.lloseng.ocsf.common.FlushPolicy
+   */
+  final public void setFlushPolicy(FlushPolicy policy)
+  {
+    service.setFlushPolicy(policy);
+  }
+
+  /**
+   * Sets the policy deciding when the object stream of a client is
+   * reset. The default resets the stream every megabyte.
+   *
+   * @param policy the reset policy.
+   * @see com.lloseng.ocsf.common.ResetPolicy
+   */
+  final public void setResetPolicy(ResetPolicy policy)
+  {
+    service.setResetPolicy(policy);
+  }
+
+  /**
+   * Sets whether the Nagle algorithm is disabled on the client sockets.
+   *
+   * @param on true to set TCP_NODELAY on the sockets.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    service.setTcpNoDelay(on);
+  }
+
+  /**
+   * Returns true if observers have been registered with
+   * <code>addObserver</code>, or if handlers have subscribed to the
+   * event bus, so that no event is created when nobody receives it.
+   * Added in version 2.4
+   *
+   * @return true if the events of the server are observed.
+   */
+  final protected boolean isObserved()
+  {
+    return observed || asyncHandlers.length > 0 || isPublished();
+  }
+
+  /**
+   * Returns true if events must be created: handlers have subscribed,
+   * or observers have been registered with a filter.
+   */
+  private boolean isPublished()
+  {
+    return eventBus.hasSubscribers() || !router.isEmpty();
+  }
+
+  /**
+   * Returns the event published when the server starts listening.
+   * The same instance is returned each time. Added in version 2.4
+   *
+   * @return the event.
+   */
+  final protected ServerEvent getStartedEvent()
+  {
+    return startedEvent;
+  }
+
+  /**
+   * Returns the event published when the server stops listening.
+   * The same instance is returned each time. Added in version 2.4
+   *
+   * @return the event.
+   */
+  final protected ServerEvent getStoppedEvent()
+  {
+    return stoppedEvent;
+  }
+
+  /**
+   * Returns the event published when the server is closed.
+   * The same instance is returned each time. Added in version 2.4
+   *
+   * @return the event.
+   */
+  final protected ServerEvent getClosedEvent()
+  {
+    return closedEvent;
+  }
+
+  /**
+   * Returns the event published when a connection becomes writable or
+   * unwritable. The same two instances are returned for a given
+   * connection; they are kept as an attribute of the connection.
+   * Added in version 2.4
+   *
+   * @param client the connection.
+   * @param writable true if the connection has become writable.
+   * @return the event.
+   */
+  final protected ServerEvent getWritabilityEvent(ConnectionToClient client,
+    boolean writable)
+  {
+    ServerEvent[] events =
+      (ServerEvent[])client.getAttribute(WRITABILITY_EVENTS);
+    if (events == null)
+    {
+      events = new ServerEvent[] {
+        new ServerEvent.ClientWritabilityChanged(this, client, false),
+        new ServerEvent.ClientWritabilityChanged(this, client, true)};
+
+      ServerEvent[] current =
+        (ServerEvent[])client.setAttributeIfAbsent(WRITABILITY_EVENTS, events);
+      if (current != null)
+        events = current;
+    }
+    return events[writable ? 1 : 0];
+  }
+
+  /**
+   * Publishes an event on the event bus and to the handlers whose
+   * filter accepts it, then notifies the observers, if any, with the
+   * argument they expect. The observers notified asynchronously are
+   * given the notification first, without locking; the other observers
+   * are then notified while holding the lock of the server, one
+   * notification at a time. The handlers are called without locking.
+   * The observers registered with a filter
+   * are notified after the others, and only if their filter accepts
+   * the event. Added in version 2.4
+   *
+   * @param event the event, or null if it does not need to be published.
+   * @param arg the argument given to the observers.
+   */
+  final protected void notifyObservers(ServerEvent event, Object arg)
+  {
+    EventRouter.Route[] filtered = null;
+    if (event != null)
+    {
+      eventBus.publish(event);
+
+      EventRouter.Routes routes = router.getRoutes(event);
+      eventBus.publishTo(routes.handlers, event);
+      for (int i=0; i<routes.conditionalHandlers.length; i++)
+      {
+        EventRouter.Route route = routes.conditionalHandlers[i];
+        if (route.accepts(event))
+          eventBus.publishTo(route.target, event);
+      }
+      if (routes.observers.length > 0)
+        filtered = routes.observers;
+    }
+
+    AsyncEventHandler[] handlers = asyncHandlers;
+    for (int i=0; i<handlers.length; i++)
+    {
+      handlers[i].update(this, arg);
+    }
+
+    if (observed || filtered != null)
+    {
+      synchronized (this)
+      {
+        if (observed)
+        {
+          setChanged();
+          notifyObservers(arg);
+        }
+        for (int i=0; filtered != null && i<filtered.length; i++)
+        {
+          if (filtered[i].accepts(event))
+            filtered[i].observer.update(this, arg);
+        }
+      }
+    }
+  }
+
   /**
    * Hook method called each time a new client connection is
    * accepted. The method may be overridden by subclasses.
    *
    * @param client the connection connected to the client.
    */
-  protected synchronized void clientConnected(ConnectionToClient client)
+  protected void clientConnected(ConnectionToClient client)
   {
-    setChanged();
-    notifyObservers(CLIENT_CONNECTED);
+    notifyObservers(isPublished()
+      ? new ServerEvent.ClientConnected(this, client) : null,
+      CLIENT_CONNECTED);
   }
 
   /**
@@ -214,10 +788,23 @@ public class ObservableServer extends Observable
    *
    * @param client the connection with the client.
    */
-  protected synchronized void clientDisconnected(ConnectionToClient client)
+  protected void clientDisconnected(ConnectionToClient client)
+  {
+    notifyObservers(isPublished()
+      ? new ServerEvent.ClientDisconnected(this, client) : null,
+      CLIENT_DISCONNECTED);
+  }
+
+  /**
+   * Hook method called each time a connection becomes writable
+   * or unwritable. The method may be overridden by subclasses.
+   *
+   * @param client the connection with the client.
+   */
+  protected void clientWritabilityChanged(ConnectionToClient client)
   {
-    setChanged();
-    notifyObservers(CLIENT_DISCONNECTED);
+    notifyObservers(getWritabilityEvent(client, client.isWritable()),
+      CLIENT_WRITABILITY_CHANGED);
   }
 
   /**
@@ -230,11 +817,12 @@ public class ObservableServer extends Observable
    * @param client the client that raised the exception.
    * @param exception the exception raised.
    */
-  protected synchronized void clientException(ConnectionToClient client,
-                                        Throwable exception)
+  protected void clientException(ConnectionToClient client,
+                                 Throwable exception)
   {
-    setChanged();
-    notifyObservers(CLIENT_EXCEPTION);
+    notifyObservers(isPublished()
+      ? new ServerEvent.ClientException(this, client, exception) : null,
+      CLIENT_EXCEPTION);
     try
     {
       client.close();
@@ -251,10 +839,10 @@ public class ObservableServer extends Observable
    *
    * @param exception the exception raised.
    */
-  protected synchronized void listeningException(Throwable exception)
+  protected void listeningException(Throwable exception)
   {
-    setChanged();
-    notifyObservers(LISTENING_EXCEPTION);
+    notifyObservers(new ServerEvent.ListeningException(this, exception),
+      LISTENING_EXCEPTION);
     stopListening();
   }
 
@@ -263,30 +851,27 @@ public class ObservableServer extends Observable
    * connections for any reason.  This method may be overriden by
    * subclasses.
    */
-  synchronized protected void serverStopped()
+  protected void serverStopped()
   {
-    setChanged();
-    notifyObservers(SERVER_STOPPED);
+    notifyObservers(stoppedEvent, SERVER_STOPPED);
   }
 
   /**
    * This method is called when the server is closed.
    * This method may be overriden by subclasses.
    */
-  synchronized protected void serverClosed()
+  protected void serverClosed()
   {
-    setChanged();
-    notifyObservers(SERVER_CLOSED);
+    notifyObservers(closedEvent, SERVER_CLOSED);
   }
 
   /**
    * This method is called when the server starts listening for
    * connections. The method may be overridden by subclasses.
    */
-  protected synchronized void serverStarted()
+  protected void serverStarted()
   {
-    setChanged();
-    notifyObservers(SERVER_STARTED);
+    notifyObservers(startedEvent, SERVER_STARTED);
   }
 
   /**
@@ -294,16 +879,20 @@ public class ObservableServer extends Observable
    * Observers are notfied by receiveing the transmitted message.
    * Note that, in this implementation, the information concerning
    * the client that sent the message is lost.
+   * The handlers of the event bus receive a
+   * <code>ServerEvent.MessageReceived</code> event, which
+   * contains the connection.
    * It can be overriden, but is still expected to call notifyObservers().
    *
    * @param message The message received from the client.
    * @param client The connection to the client.
    * @see com.lloseng.ocsf.server.ObservableOriginatorServer
    */
-  protected synchronized void handleMessageFromClient
+  protected void handleMessageFromClient
     (Object message, ConnectionToClient client)
   {
-     setChanged();
-     notifyObservers(message);
+    notifyObservers(isPublished()
+      ? new ServerEvent.MessageReceived(this, client, message) : null,
+      message);
   }
 }
@@ -0,0 +1,737 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import com.lloseng.ocsf.common.ObjectFrames;
+
+/**
+* The <code> SelectorEngine </code> class multiplexes the connections
+* of an <code> AbstractServer </code> on a small fixed number of
+* reactor threads instead of running one thread per client.
+* Each reactor owns a <code>Selector</code> and the channels
+* assigned to it in a round-robin fashion. All the hook methods
+* of the server are called from the reactor thread of the
+* connection concerned, in the same order as with the
+* thread-per-connection mode.<p>
+*
+* Messages are exchanged as length-prefixed frames, as
+* defined by the <code>ObjectFrames</code> class, whose body is
+* encoded by the codec of the connection.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.server.AbstractServer#setReactorThreads
+* @see com.lloseng.ocsf.common.ObjectFrames
+*/
+class SelectorEngine
+{
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * The maximum number of frames written by one gathering write.
+   */
+  private static final int MAX_GATHER = 64;
+
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The reactor threads.
+   */
+  private Reactor[] reactors;
+
+  /**
+   * The index of the next reactor to which a connection is assigned.
+   */
+  private int next = 0;
+
+  /**
+   * The server whose connections are handled.
+   */
+  private AbstractServer server;
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs and starts the reactor threads.
+   *
+   * @param server the server whose connections are handled.
+   * @param threads the number of reactor threads.
+   * @exception IOException if a selector cannot be opened.
+   */
+  SelectorEngine(AbstractServer server, int threads) throws IOException
+  {
+    this.server = server;
+    reactors = new Reactor[threads];
+
+    try
+    {
+      for (int i=0; i<threads; i++)
+      {
+        reactors[i] = new Reactor(i+1);
+      }
+    }
+    catch (IOException ex)
+    {
+      close();
+      throw ex;
+    }
+
+    for (int i=0; i<threads; i++)
+    {
+      reactors[i].start();
+    }
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Assigns a new connection to one of the reactors.
+   * The channel is switched to non-blocking mode. The reactor only
+   * handles the channel once <code>start</code> has been called on
+   * the endpoint, so that the connection can keep a reference to the
+   * endpoint before any message is received; the
+   * <code>clientConnected</code> hook is then called by the reactor
+   * once the registration is completed.
+   *
+   * @param client the connection.
+   * @param channel the channel of the connection.
+   * @return the endpoint used by the connection for its I/O.
+   * @exception IOException if the channel cannot be configured.
+   */
+  Endpoint register(ConnectionToClient client, SocketChannel channel)
+    throws IOException
+  {
+    channel.configureBlocking(false);
+
+    Reactor reactor;
+    synchronized (this)
+    {
+      reactor = reactors[next];
+      next = (next+1) % reactors.length;
+    }
+
+    return new Endpoint(client, channel, reactor);
+  }
+
+  /**
+   * Stops the reactor threads. The connections still open are
+   * closed and their <code>clientDisconnected</code> hook is called
+   * before the reactors terminate.
+   */
+  void close()
+  {
+    for (int i=0; i<reactors.length; i++)
+    {
+      if (reactors[i] != null)
+        reactors[i].shutdown();
+    }
+
+    for (int i=0; i<reactors.length; i++)
+    {
+      try
+      {
+        if (reactors[i] != null && reactors[i] != Thread.currentThread())
+          reactors[i].join();
+      }
+      catch (InterruptedException ex) {}
+    }
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A reactor thread: waits on its selector and performs the
+   * reads and writes of the channels assigned to it.
+   */
+  private class Reactor extends Thread
+  {
+    /**
+     * The selector of this reactor.
+     */
+    private Selector selector;
+
+    /**
+     * Endpoints waiting to be registered or closed by this reactor.
+     */
+    private List tasks = new ArrayList();
+
+    /**
+     * Set to false to stop the reactor.
+     */
+    private volatile boolean running = true;
+
+    Reactor(int number) throws IOException
+    {
+      super("ConnectionToClient reactor " + number);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    /**
+     * Asks the reactor to process an endpoint: it is registered if
+     * new, or released if closed.
+     */
+    void schedule(Endpoint endpoint)
+    {
+      synchronized (tasks)
+      {
+        tasks.add(endpoint);
+      }
+      selector.wakeup();
+    }
+
+    void shutdown()
+    {
+      running = false;
+      selector.wakeup();
+    }
+
+    public void run()
+    {
+      try
+      {
+        while (running)
+        {
+          selector.select();
+          processTasks();
+
+          Iterator keys = selector.selectedKeys().iterator();
+          while (keys.hasNext())
+          {
+            SelectionKey key = (SelectionKey)keys.next();
+            keys.remove();
+
+            ((Endpoint)key.attachment()).process(key);
+          }
+        }
+      }
+      catch (IOException ex) {}  // the selector is no longer usable
+      finally
+      {
+        // Release the connections that are still registered
+        processTasks();
+        Iterator keys = selector.keys().iterator();
+        while (keys.hasNext())
+        {
+          ((Endpoint)((SelectionKey)keys.next()).attachment()).release(null);
+        }
+
+        try
+        {
+          selector.close();
+        }
+        catch (IOException ex) {}
+      }
+    }
+
+    /**
+     * Registers the new endpoints and releases the closed ones.
+     */
+    private void processTasks()
+    {
+      Endpoint[] pending;
+      synchronized (tasks)
+      {
+        pending = (Endpoint[])tasks.toArray(new Endpoint[tasks.size()]);
+        tasks.clear();
+      }
+
+      for (int i=0; i<pending.length; i++)
+      {
+        if (pending[i].key == null && !pending[i].closed)
+          pending[i].open(selector);
+        else
+          pending[i].release(null);
+      }
+    }
+  }
+
+  /**
+   * The I/O state of a connection handled by a reactor.
+   */
+  class Endpoint
+  {
+    /**
+     * The connection.
+     */
+    private ConnectionToClient client;
+
+    /**
+     * The channel of the connection.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The reactor handling this endpoint.
+     */
+    private Reactor reactor;
+
+    /**
+     * The key of the channel, set once registered.
+     */
+    private SelectionKey key;
+
+    /**
+     * The bytes received and not yet decoded.
+     */
+    private ByteBuffer input = ByteBuffer.allocate(8192);
+
+    /**
+     * The frames waiting to be written.
+     */
+    private LinkedList output = new LinkedList();
+
+    /**
+     * The futures of the frames sent asynchronously that have not
+     * been written yet, in the order of the frames.
+     */
+    private LinkedList completions = new LinkedList();
+
+    /**
+     * Set when the connection has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Set once the <code>clientDisconnected</code> hook has been called.
+     */
+    private boolean released = false;
+
+    /**
+     * Indicates if the reactor reads from the channel. Reading is
+     * suspended while the messages received wait for a worker thread.
+     */
+    private boolean reading = true;
+
+    /**
+     * The array given to the gathering writes.
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    /**
+     * Indicates if the frames are written as soon as they are sent.
+     */
+    private final boolean immediate = server.getFlushPolicy().isImmediate();
+
+    Endpoint(ConnectionToClient client, SocketChannel channel, Reactor reactor)
+    {
+      this.client = client;
+      this.channel = channel;
+      this.reactor = reactor;
+    }
+
+    /**
+     * Hands the channel to the reactor, which registers it with its
+     * selector and then reads the messages received.
+     */
+    void start()
+    {
+      reactor.schedule(this);
+    }
+
+    /**
+     * Sends a frame. With the immediate flush policy, the frame is
+     * written at once if possible; otherwise it is queued and written
+     * by the reactor, together with the other queued frames, when
+     * the channel becomes writable.
+     *
+     * @param frame the frame to be sent.
+     * @exception IOException if the connection is closed or if an
+     *    I/O error occurs.
+     */
+    void send(ByteBuffer frame) throws IOException
+    {
+      send(frame, null);
+    }
+
+    /**
+     * Sends a frame and completes a future once it has been written.
+     *
+     * @param frame the frame to be sent.
+     * @param future the future to complete, or null.
+     * @exception IOException if the connection is closed or if an
+     *    I/O error occurs.
+     */
+    void send(ByteBuffer frame, CompletableFuture future) throws IOException
+    {
+      boolean written = false;
+      boolean changed;
+
+      synchronized (this)
+      {
+        if (closed)
+          throw new ClosedChannelException();
+
+        if (output.isEmpty() && immediate)
+        {
+          client.bytesSent(channel.write(frame));
+          written = !frame.hasRemaining();
+        }
+
+        if (!written)
+        {
+          output.add(frame);
+          if (future != null)
+            completions.add(new Completion(frame, future));
+
+          if (output.size() == 1 && key != null)
+          {
+            try
+            {
+              key.interestOps(interest());
+            }
+            catch (CancelledKeyException ex)
+            {
+              throw new ClosedChannelException();
+            }
+            key.selector().wakeup();
+          }
+        }
+        changed = client.updateWritability(output.size());
+      }
+
+      client.messageSent();
+      if (written && future != null)
+        future.complete(null);
+      if (changed)
+        client.writabilityChanged();
+    }
+
+    /**
+     * Returns true once the connection has been closed.
+     *
+     * @return true if closed.
+     */
+    boolean isClosed()
+    {
+      return closed;
+    }
+
+    /**
+     * Returns the number of frames waiting to be written.
+     *
+     * @return the number of frames.
+     */
+    synchronized int getPendingFrames()
+    {
+      return output.size();
+    }
+
+    /**
+     * Discards the frames waiting to be written, except the one
+     * being written, if any, so that the stream remains consistent.
+     */
+    void discardPending()
+    {
+      List discarded = new ArrayList();
+      boolean changed;
+
+      synchronized (this)
+      {
+        if (output.isEmpty())
+          return;
+
+        ByteBuffer first = (ByteBuffer)output.getFirst();
+        output.clear();
+        if (first.position() > 0)
+          output.add(first);
+
+        for (Iterator i = completions.iterator(); i.hasNext(); )
+        {
+          Completion completion = (Completion)i.next();
+          if (completion.frame != first || first.position() == 0)
+          {
+            discarded.add(completion.future);
+            i.remove();
+          }
+        }
+        changed = client.updateWritability(output.size());
+      }
+
+      ConnectionToClient.failAll(discarded,
+        new IOException("message discarded"));
+      if (changed)
+        client.writabilityChanged();
+    }
+
+    /**
+     * Closes the channel. The <code>clientDisconnected</code> hook
+     * is called afterward by the reactor.
+     *
+     * @exception IOException if an error occurs when closing the channel.
+     */
+    void close() throws IOException
+    {
+      if (closed)
+        return;
+
+      closed = true;
+      try
+      {
+        channel.close();
+      }
+      finally
+      {
+        reactor.schedule(this);
+      }
+    }
+
+    /**
+     * Registers the channel with the selector. Called by the reactor.
+     */
+    private void open(Selector selector)
+    {
+      try
+      {
+        synchronized (this)
+        {
+          key = channel.register(selector, interest(), this);
+        }
+      }
+      catch (IOException ex)
+      {
+        release(ex);
+        return;
+      }
+
+      server.registerClient(client);
+      client.channelOpened();
+    }
+
+    /**
+     * Reads or writes, depending on the readiness of the channel.
+     * Called by the reactor.
+     */
+    private void process(SelectionKey key)
+    {
+      try
+      {
+        if (key.isValid() && key.isWritable())
+          flush();
+
+        if (key.isValid() && key.isReadable())
+          read();
+      }
+      catch (Throwable ex)
+      {
+        release(ex);
+      }
+    }
+
+    /**
+     * Writes the queued frames and completes the futures of those
+     * that have been written. Called by the reactor.
+     */
+    private void flush() throws IOException
+    {
+      List written = new ArrayList();
+      boolean changed;
+
+      synchronized (this)
+      {
+        writeFrames();
+
+        while (!completions.isEmpty()
+          && !((Completion)completions.getFirst()).frame.hasRemaining())
+        {
+          written.add(((Completion)completions.removeFirst()).future);
+        }
+        changed = client.updateWritability(output.size());
+      }
+
+      for (int i=0; i<written.size(); i++)
+      {
+        ((CompletableFuture)written.get(i)).complete(null);
+      }
+      if (changed)
+        client.writabilityChanged();
+    }
+
+    /**
+     * Writes as many queued frames as the channel accepts.
+     * Up to <code>MAX_GATHER</code> frames are given to each write.
+     */
+    private void writeFrames() throws IOException
+    {
+      while (!output.isEmpty())
+      {
+        int count = Math.min(output.size(), MAX_GATHER);
+        long length = 0;
+        Iterator frames = output.iterator();
+        for (int i=0; i<count; i++)
+        {
+          gather[i] = (ByteBuffer)frames.next();
+          length += gather[i].remaining();
+        }
+
+        long written = channel.write(gather, 0, count);
+        Arrays.fill(gather, 0, count, null);
+        client.bytesSent(written);
+
+        while (!output.isEmpty()
+          && !((ByteBuffer)output.getFirst()).hasRemaining())
+        {
+          output.removeFirst();
+        }
+        if (written < length)
+          return;  // the socket buffer is full
+      }
+      key.interestOps(interest());
+    }
+
+    /**
+     * Suspends or resumes reading from the channel, so that a client
+     * cannot send messages faster than they are handled.
+     *
+     * @param reading false to suspend reading.
+     */
+    synchronized void setReading(boolean reading)
+    {
+      if (this.reading == reading)
+        return;
+
+      this.reading = reading;
+      if (key != null && !closed)
+      {
+        try
+        {
+          key.interestOps(interest());
+          key.selector().wakeup();
+        }
+        catch (CancelledKeyException ex) {}
+      }
+    }
+
+    /**
+     * Returns the operations the reactor must wait for.
+     */
+    private int interest()
+    {
+      int ops = reading ? SelectionKey.OP_READ : 0;
+      if (!output.isEmpty())
+        ops |= SelectionKey.OP_WRITE;
+      return ops;
+    }
+
+    /**
+     * Reads the available bytes and dispatches every complete frame.
+     */
+    private void read() throws IOException
+    {
+      int count = channel.read(input);
+      if (count < 0)
+      {
+        release(null);  // end of stream: the client has disconnected
+        return;
+      }
+      client.bytesReceived(count);
+
+      input.flip();
+      while (!closed && input.remaining() >= ObjectFrames.HEADER_LENGTH)
+      {
+        int length =
+          ObjectFrames.checkLength(input.getInt(input.position()));
+        int frameLength = ObjectFrames.HEADER_LENGTH + length;
+
+        if (input.remaining() < frameLength)
+        {
+          if (frameLength > input.capacity())
+          {
+            // Enlarge the buffer so that the complete frame fits
+            ByteBuffer larger = ByteBuffer.allocate(frameLength);
+            larger.put(input);
+            input = larger;
+            return;
+          }
+          break;
+        }
+
+        int start = input.arrayOffset() + input.position()
+          + ObjectFrames.HEADER_LENGTH;
+        input.position(input.position() + frameLength);
+
+        Object msg;
+        try
+        {
+          msg = client.getCodec().decode(input.array(), start, length);
+        }
+        catch (ClassNotFoundException ex)
+        {
+          client.channelException(ex);  // unknown class, frame skipped
+          continue;
+        }
+        client.channelRead(msg);
+      }
+      input.compact();
+    }
+
+    /**
+     * Closes the channel if needed and calls the
+     * <code>clientDisconnected</code> hook once. The connection
+     * unregisters itself from the server once the hook has been called.
+     * Called by the reactor.
+     *
+     * @param exception the exception that caused the release, or null.
+     */
+    private void release(Throwable exception)
+    {
+      if (released)
+        return;
+
+      released = true;
+      boolean requested = closed;
+      closed = true;
+
+      List unsent;
+      synchronized (this)
+      {
+        unsent = new ArrayList();
+        while (!completions.isEmpty())
+        {
+          unsent.add(((Completion)completions.removeFirst()).future);
+        }
+      }
+      ConnectionToClient.failAll(unsent, new ClosedChannelException());
+
+      if (key != null)
+        key.cancel();
+      try
+      {
+        channel.close();
+      }
+      catch (IOException ex) {}
+
+      if (key != null)
+        client.channelClosed(requested ? null : exception);
+      else
+        server.unregisterClient(client);  // never opened
+    }
+
+    /**
+     * A frame sent asynchronously, with the future to complete
+     * once it has been written.
+     */
+    private class Completion
+    {
+      private ByteBuffer frame;
+      private CompletableFuture future;
+
+      Completion(ByteBuffer frame, CompletableFuture future)
+      {
+        this.frame = frame;
+        this.future = future;
+      }
+    }
+  }
+}
+// End of SelectorEngine class
@@ -0,0 +1,311 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+/**
+* The <code> ServerEvent </code> class is the superclass of the events
+* published on the event bus of an <code>ObservableServer</code>.
+* Each kind of event is a nested class, so that handlers can
+* classify an event with <code>instanceof</code> instead of comparing
+* strings, and find in it the connection concerned and, depending on
+* the event, the message received or the exception raised.
+* Events are immutable.<p>
+*
+* An event is also an <code>OriginatorMessage</code>, whose message is
+* the one an <code>ObservableOriginatorServer</code> gives its
+* observers: the message received, or one of the strings defined by
+* <code>ObservableServer</code>. The same object can therefore be given
+* to the observers and to the handlers of the event bus. The strings
+* containing the message of an exception are only built when
+* <code>getMessage</code> is called.<p>
+*
+* The events that do not depend on a message or an exception are
+* flyweights: an observable server publishes the same
+* <code>ServerStarted</code>, <code>ServerStopped</code> and
+* <code>ServerClosed</code> instances each time, and the same
+* <code>ClientWritabilityChanged</code> instance each time a
+* given connection becomes writable, or unwritable.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.server.ObservableServer#getEventBus
+*/
+public abstract class ServerEvent extends OriginatorMessage
+{
+  // Instance variables *********************************************
+
+  /**
+   * The server that published the event.
+   */
+  private final ObservableServer server;
+
+  // Constructor ****************************************************
+
+  /**
+   * Constructs an event.
+   *
+   * @param server the server publishing the event.
+   * @param originator the connection concerned, or null.
+   */
+  ServerEvent(ObservableServer server, ConnectionToClient originator)
+  {
+    super(originator, null);
+    this.server = server;
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * @return the server that published the event.
+   */
+  final public ObservableServer getServer()
+  {
+    return server;
+  }
+
+  /**
+   * Returns the message an <code>ObservableOriginatorServer</code>
+   * gives its observers for this event.
+   *
+   * @return the message received, or a string defined by
+   *   <code>ObservableServer</code>.
+   */
+  public abstract Object getMessage();
+
+  /**
+   * @return a string representation of the event.
+   */
+  public String toString()
+  {
+    String name = getClass().getName();
+    return name.substring(name.lastIndexOf('$')+1)
+      + (getOriginator() == null ? "" : " from " + getOriginator());
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * Published when a new client connection has been accepted.
+   */
+  public static final class ClientConnected extends ServerEvent
+  {
+    public ClientConnected(ObservableServer server,
+      ConnectionToClient client)
+    {
+      super(server, client);
+    }
+
+    public Object getMessage()
+    {
+      return ObservableServer.CLIENT_CONNECTED;
+    }
+  }
+
+  /**
+   * Published when a client has disconnected.
+   */
+  public static final class ClientDisconnected extends ServerEvent
+  {
+    public ClientDisconnected(ObservableServer server,
+      ConnectionToClient client)
+    {
+      super(server, client);
+    }
+
+    public Object getMessage()
+    {
+      return ObservableServer.CLIENT_DISCONNECTED;
+    }
+  }
+
+  /**
+   * Published when a connection has become writable or unwritable.
+   */
+  public static final class ClientWritabilityChanged extends ServerEvent
+  {
+    private final boolean writable;
+
+    public ClientWritabilityChanged(ObservableServer server,
+      ConnectionToClient client, boolean writable)
+    {
+      super(server, client);
+      this.writable = writable;
+    }
+
+    /**
+     * @return true if the connection has become writable, false if
+     *   it has become unwritable.
+     */
+    public boolean isWritable()
+    {
+      return writable;
+    }
+
+    public Object getMessage()
+    {
+      return ObservableServer.CLIENT_WRITABILITY_CHANGED;
+    }
+
+    public String toString()
+    {
+      return super.toString() + (writable ? ": writable" : ": unwritable");
+    }
+  }
+
+  /**
+   * Published when an exception has been raised by a connection.
+   */
+  public static final class ClientException extends ServerEvent
+  {
+    private final Throwable exception;
+
+    public ClientException(ObservableServer server,
+      ConnectionToClient client, Throwable exception)
+    {
+      super(server, client);
+      this.exception = exception;
+    }
+
+    /**
+     * @return the exception raised.
+     */
+    public Throwable getException()
+    {
+      return exception;
+    }
+
+    /**
+     * @return <code>CLIENT_EXCEPTION</code> followed by the message
+     *   of the exception.
+     */
+    public Object getMessage()
+    {
+      return ObservableServer.CLIENT_EXCEPTION + exception.getMessage();
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": " + exception;
+    }
+  }
+
+  /**
+   * Published when a message has been received from a client.
+   */
+  public static final class MessageReceived extends ServerEvent
+  {
+    private final Object message;
+
+    public MessageReceived(ObservableServer server,
+      ConnectionToClient client, Object message)
+    {
+      super(server, client);
+      this.message = message;
+    }
+
+    /**
+     * @return the message received.
+     */
+    public Object getMessage()
+    {
+      return message;
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": " + message;
+    }
+  }
+
+  /**
+   * Published when the server stops listening because of an
+   * exception.
+   */
+  public static final class ListeningException extends ServerEvent
+  {
+    private final Throwable exception;
+
+    public ListeningException(ObservableServer server,
+      Throwable exception)
+    {
+      super(server, null);
+      this.exception = exception;
+    }
+
+    /**
+     * @return the exception raised.
+     */
+    public Throwable getException()
+    {
+      return exception;
+    }
+
+    /**
+     * @return <code>LISTENING_EXCEPTION</code> followed by the message
+     *   of the exception.
+     */
+    public Object getMessage()
+    {
+      return ObservableServer.LISTENING_EXCEPTION + exception.getMessage();
+    }
+
+    public String toString()
+    {
+      return super.toString() + ": " + exception;
+    }
+  }
+
+  /**
+   * Published when the server starts listening.
+   */
+  public static final class ServerStarted extends ServerEvent
+  {
+    public ServerStarted(ObservableServer server)
+    {
+      super(server, null);
+    }
+
+    public Object getMessage()
+    {
+      return ObservableServer.SERVER_STARTED;
+    }
+  }
+
+  /**
+   * Published when the server stops listening.
+   */
+  public static final class ServerStopped extends ServerEvent
+  {
+    public ServerStopped(ObservableServer server)
+    {
+      super(server, null);
+    }
+
+    public Object getMessage()
+    {
+      return ObservableServer.SERVER_STOPPED;
+    }
+  }
+
+  /**
+   * Published when the server has been closed.
+   */
+  public static final class ServerClosed extends ServerEvent
+  {
+    public ServerClosed(ObservableServer server)
+    {
+      super(server, null);
+    }
+
+    public Object getMessage()
+    {
+      return ObservableServer.SERVER_CLOSED;
+    }
+  }
+}
+// End of ServerEvent class
@@ -0,0 +1,384 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+
+/**
+* The <code> ServerEventFilter </code> class selects the events of an
+* <code>ObservableServer</code> an observer or a handler is interested
+* in. A filter can restrict:
+* <ul>
+* <li> the type of the events, given as subclasses of
+* <code>ServerEvent</code>, with <code>eventTypes()</code>;
+* <li> the class of the messages received, with
+* <code>messageClass()</code>. Only <code>ServerEvent.MessageReceived</code>
+* events whose message is an instance of that class are then accepted;
+* <li> the connection concerned by the event, with
+* <code>originator()</code> or <code>group()</code>. The events not
+* concerning a connection, such as <code>ServerStarted</code>, are then
+* rejected.
+* </ul>
+* Filters are combined with <code>and()</code>. Instances are immutable
+* and can be shared.<p>
+*
+* The server decides once, for each type of event and each class of
+* message, which filters may accept them, and keeps the result. Only
+* the conditions on the connection are evaluated for each event, so
+* that an observer whose filter does not match is never called.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.server.ObservableServer#addObserver(Observer, ServerEventFilter)
+* @see com.lloseng.ocsf.server.ObservableServer#subscribe
+*/
+public final class ServerEventFilter
+{
+  // Class variables ************************************************
+
+  /**
+   * The filter accepting every event.
+   */
+  private static final ServerEventFilter ALL =
+    new ServerEventFilter(null, null, null);
+
+  // Instance variables *********************************************
+
+  /**
+   * The types of the events accepted, or null for all types.
+   */
+  private final Class[] eventTypes;
+
+  /**
+   * The classes each message received must be an instance of, or null
+   * if the filter does not depend on the messages.
+   */
+  private final Class[] messageClasses;
+
+  /**
+   * The conditions the connection concerned must satisfy, or null.
+   */
+  private final OriginatorPredicate[] originators;
+
+  // Constructor ****************************************************
+
+  private ServerEventFilter(Class[] eventTypes, Class[] messageClasses,
+    OriginatorPredicate[] originators)
+  {
+    this.eventTypes = eventTypes;
+    this.messageClasses = messageClasses;
+    this.originators = originators;
+  }
+
+  // Class methods **************************************************
+
+  /**
+   * Returns the filter accepting every event.
+   *
+   * @return the filter.
+   */
+  public static ServerEventFilter all()
+  {
+    return ALL;
+  }
+
+  /**
+   * Returns a filter accepting the events of the given types. A type
+   * also accepts its subclasses, so that <code>ServerEvent.class</code>
+   * accepts every event.
+   *
+   * @param types subclasses of <code>ServerEvent</code>.
+   * @return the filter.
+   */
+  public static ServerEventFilter eventTypes(Class[] types)
+  {
+    if (types.length == 0)
+      throw new IllegalArgumentException("no event type");
+
+    Class[] copy = types.clone();
+    for (int i=0; i<copy.length; i++)
+    {
+      if (!ServerEvent.class.isAssignableFrom(copy[i]))
+        throw new IllegalArgumentException("not a server event: " + copy[i]);
+    }
+    return new ServerEventFilter(copy, null, null);
+  }
+
+  /**
+   * Returns a filter accepting the events of one type.
+   *
+   * @param type a subclass of <code>ServerEvent</code>.
+   * @return the filter.
+   */
+  public static ServerEventFilter eventType(Class type)
+  {
+    return eventTypes(new Class[] {type});
+  }
+
+  /**
+   * Returns a filter accepting the messages received that are instances
+   * of a class. The other events are rejected.
+   *
+   * @param messageClass the class of the messages.
+   * @return the filter.
+   */
+  public static ServerEventFilter messageClass(Class messageClass)
+  {
+    if (messageClass == null)
+      throw new NullPointerException("null message class");
+
+    return new ServerEventFilter(null, new Class[] {messageClass}, null);
+  }
+
+  /**
+   * Returns a filter accepting the events concerning a connection
+   * satisfying a condition. The events that do not concern a
+   * connection are rejected.
+   *
+   * @param predicate the condition.
+   * @return the filter.
+   */
+  public static ServerEventFilter originator(OriginatorPredicate predicate)
+  {
+    if (predicate == null)
+      throw new NullPointerException("null predicate");
+
+    return new ServerEventFilter(null, null,
+      new OriginatorPredicate[] {predicate});
+  }
+
+  /**
+   * Returns a filter accepting the events concerning the members of a
+   * group, when the event occurs. The membership is checked without
+   * locking.
+   *
+   * @param group the name of the group.
+   * @return the filter.
+   */
+  public static ServerEventFilter group(final String group)
+  {
+    if (group == null)
+      throw new NullPointerException("null group");
+
+    return originator(new OriginatorPredicate()
+    {
+      public boolean accept(ConnectionToClient client)
+      {
+        return client.isInGroup(group);
+      }
+
+      public String toString()
+      {
+        return "group " + group;
+      }
+    });
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * Returns a filter accepting the events accepted both by this filter
+   * and by another.
+   *
+   * @param other the other filter.
+   * @return the combined filter.
+   */
+  public ServerEventFilter and(ServerEventFilter other)
+  {
+    if (this == ALL)
+      return other;
+    if (other == ALL)
+      return this;
+
+    Class[] types = eventTypes;
+    if (types == null)
+      types = other.eventTypes;
+    else if (other.eventTypes != null)
+    {
+      // The types both filters accept are the types of one of them
+      // accepted by the other.
+      List common = new ArrayList();
+      for (int i=0; i<eventTypes.length; i++)
+      {
+        if (other.acceptsEventType(eventTypes[i]))
+          common.add(eventTypes[i]);
+      }
+      for (int i=0; i<other.eventTypes.length; i++)
+      {
+        if (acceptsEventType(other.eventTypes[i])
+          && !common.contains(other.eventTypes[i]))
+          common.add(other.eventTypes[i]);
+      }
+      types = (Class[])common.toArray(new Class[common.size()]);
+    }
+
+    return new ServerEventFilter(types,
+      (Class[])concat(messageClasses, other.messageClasses, Class.class),
+      (OriginatorPredicate[])concat(originators, other.originators,
+        OriginatorPredicate.class));
+  }
+
+  /**
+   * Returns true if the events of a type may be accepted. The
+   * result does not depend on the event itself.
+   *
+   * @param eventType a subclass of <code>ServerEvent</code>.
+   * @return true if events of that type may be accepted.
+   */
+  public boolean acceptsEventType(Class eventType)
+  {
+    if (messageClasses != null && eventType != ServerEvent.MessageReceived.class)
+      return false;
+    if (eventTypes == null)
+      return true;
+
+    for (int i=0; i<eventTypes.length; i++)
+    {
+      if (eventTypes[i].isAssignableFrom(eventType))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the messages received of a class may be accepted.
+   *
+   * @param messageClass the class of the message, or null for a
+   *   null message.
+   * @return true if such messages may be accepted.
+   */
+  public boolean acceptsMessageClass(Class messageClass)
+  {
+    if (messageClasses == null)
+      return true;
+    if (messageClass == null)
+      return false;
+
+    for (int i=0; i<messageClasses.length; i++)
+    {
+      if (!messageClasses[i].isAssignableFrom(messageClass))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the events concerning a connection may be accepted.
+   *
+   * @param client the connection, or null if the event does not concern
+   *   a connection.
+   * @return true if the conditions on the connection are satisfied.
+   */
+  public boolean acceptsOriginator(ConnectionToClient client)
+  {
+    if (originators == null)
+      return true;
+    if (client == null)
+      return false;
+
+    for (int i=0; i<originators.length; i++)
+    {
+      if (!originators[i].accept(client))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if an event is accepted.
+   *
+   * @param event the event.
+   * @return true if the event is accepted.
+   */
+  public boolean accept(ServerEvent event)
+  {
+    if (!acceptsEventType(event.getClass()))
+      return false;
+    if (event instanceof ServerEvent.MessageReceived)
+    {
+      Object message = event.getMessage();
+      if (!acceptsMessageClass(message == null ? null : message.getClass()))
+        return false;
+    }
+    return acceptsOriginator(event.getOriginator());
+  }
+
+  /**
+   * @return true if the filter has conditions on the connection, which
+   *   must be evaluated for each event.
+   */
+  public boolean dependsOnOriginator()
+  {
+    return originators != null;
+  }
+
+  /**
+   * Returns a description of the filter.
+   *
+   * @return the description.
+   */
+  public String toString()
+  {
+    if (this == ALL)
+      return "all";
+
+    StringBuffer buffer = new StringBuffer();
+    if (eventTypes != null)
+      append(buffer, "types", eventTypes);
+    if (messageClasses != null)
+      append(buffer, "messages", messageClasses);
+    if (originators != null)
+      append(buffer, "originators", originators);
+    return buffer.toString();
+  }
+
+  /**
+   * Appends a part of the description of the filter.
+   */
+  private static void append(StringBuffer buffer, String name, Object[] values)
+  {
+    if (buffer.length() > 0)
+      buffer.append(" and ");
+    buffer.append(name).append(' ').append(Arrays.asList(values));
+  }
+
+  /**
+   * Returns the concatenation of two arrays, either of which may be null.
+   */
+  private static Object[] concat(Object[] first, Object[] second,
+    Class componentType)
+  {
+    if (first == null)
+      return second;
+    if (second == null)
+      return first;
+
+    Object[] result = (Object[])java.lang.reflect.Array.newInstance(
+      componentType, first.length + second.length);
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * A condition on the connection concerned by an event. It is
+   * evaluated for each event, by the thread publishing it, and must
+   * therefore be fast.
+   */
+  public static interface OriginatorPredicate
+  {
+    /**
+     * @param client the connection concerned by the event.
+     * @return true if the events concerning the connection are accepted.
+     */
+    public boolean accept(ConnectionToClient client);
+  }
+}
+// End of ServerEventFilter class
@@ -0,0 +1,293 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.common.*;
+
+/**
+* The <code> ServerMetrics </code> class keeps the measures made by a
+* server while it runs: the connections accepted, the messages and
+* bytes exchanged with the clients, the exceptions raised, and the
+* time spent handling messages and broadcasts. The counters are
+* striped adders, so that the threads of the server can update them
+* without contending, and the durations are recorded in
+* <code>LatencyHistogram</code> instances.<p>
+*
+* The metrics are obtained from <code>AbstractServer.getMetrics()</code>
+* and can be published as an MBean with
+* <code>AbstractServer.registerMetrics()</code>. The bytes and messages
+* of each client are also available from its
+* <code>ConnectionToClient</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.LatencyHistogram
+*/
+public class ServerMetrics implements ServerMetricsMBean
+{
+  // INSTANCE VARIABLES *********************************************
+
+  /**
+   * The server measured.
+   */
+  private final AbstractServer server;
+
+  /**
+   * The number of connections accepted.
+   */
+  private final LongAdder connectionsAccepted = new LongAdder();
+
+  /**
+   * The number of messages received from the clients.
+   */
+  private final LongAdder messagesReceived = new LongAdder();
+
+  /**
+   * The number of messages sent to the clients.
+   */
+  private final LongAdder messagesSent = new LongAdder();
+
+  /**
+   * The number of bytes received from the clients.
+   */
+  private final LongAdder bytesReceived = new LongAdder();
+
+  /**
+   * The number of bytes sent to the clients.
+   */
+  private final LongAdder bytesSent = new LongAdder();
+
+  /**
+   * The number of exceptions raised with the clients.
+   */
+  private final LongAdder clientExceptions = new LongAdder();
+
+  /**
+   * The number of broadcasts.
+   */
+  private final LongAdder broadcasts = new LongAdder();
+
+  /**
+   * The time spent in <code>handleMessageFromClient</code>.
+   */
+  private final LatencyHistogram handlerTime = new LatencyHistogram();
+
+  /**
+   * The time spent handing each broadcast to the clients.
+   */
+  private final LatencyHistogram broadcastTime = new LatencyHistogram();
+
+// CONSTRUCTOR ******************************************************
+
+  /**
+   * Constructs the metrics of a server.
+   *
+   * @param server the server measured.
+   */
+  ServerMetrics(AbstractServer server)
+  {
+    this.server = server;
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  public long getConnectionsAccepted()
+  {
+    return connectionsAccepted.sum();
+  }
+
+  public int getConnectedClients()
+  {
+    return server.getNumberOfClients();
+  }
+
+  public long getMessagesReceived()
+  {
+    return messagesReceived.sum();
+  }
+
+  public long getMessagesSent()
+  {
+    return messagesSent.sum();
+  }
+
+  public long getBytesReceived()
+  {
+    return bytesReceived.sum();
+  }
+
+  public long getBytesSent()
+  {
+    return bytesSent.sum();
+  }
+
+  public long getClientExceptions()
+  {
+    return clientExceptions.sum();
+  }
+
+  public long getBroadcasts()
+  {
+    return broadcasts.sum();
+  }
+
+  public int getOutboundQueueDepth()
+  {
+    ConnectionToClient[] clientList = server.getClients();
+    int depth = 0;
+    for (int i=0; i<clientList.length; i++)
+    {
+      depth += clientList[i].getOutboundQueueSize();
+    }
+    return depth;
+  }
+
+  public int getInboundQueueDepth()
+  {
+    ConnectionToClient[] clientList = server.getClients();
+    int depth = 0;
+    for (int i=0; i<clientList.length; i++)
+    {
+      depth += clientList[i].getInboundQueueSize();
+    }
+    return depth;
+  }
+
+  public double getHandlerTimeMean()
+  {
+    return handlerTime.getMean();
+  }
+
+  public long getHandlerTime50thPercentile()
+  {
+    return handlerTime.getValueAtPercentile(50);
+  }
+
+  public long getHandlerTime99thPercentile()
+  {
+    return handlerTime.getValueAtPercentile(99);
+  }
+
+  public long getHandlerTimeMax()
+  {
+    return handlerTime.getMax();
+  }
+
+  public double getBroadcastTimeMean()
+  {
+    return broadcastTime.getMean();
+  }
+
+  public long getBroadcastTime99thPercentile()
+  {
+    return broadcastTime.getValueAtPercentile(99);
+  }
+
+  public long getBroadcastTimeMax()
+  {
+    return broadcastTime.getMax();
+  }
+
+  /**
+   * Returns the distribution of the time spent in
+   * <code>handleMessageFromClient</code>, in nanoseconds.
+   *
+   * @return the histogram.
+   */
+  public LatencyHistogram getHandlerTime()
+  {
+    return handlerTime;
+  }
+
+  /**
+   * Returns the distribution of the time spent handing each broadcast
+   * to the clients, in nanoseconds. With the asynchronous broadcasts,
+   * this is the time spent queuing the message.
+   *
+   * @return the histogram.
+   */
+  public LatencyHistogram getBroadcastTime()
+  {
+    return broadcastTime;
+  }
+
+  public void reset()
+  {
+    connectionsAccepted.reset();
+    messagesReceived.reset();
+    messagesSent.reset();
+    bytesReceived.reset();
+    bytesSent.reset();
+    clientExceptions.reset();
+    broadcasts.reset();
+    handlerTime.reset();
+    broadcastTime.reset();
+  }
+
+  /**
+   * Returns a summary of the metrics.
+   *
+   * @return the main counters and the handler time distribution.
+   */
+  public String toString()
+  {
+    return "clients=" + getConnectedClients()
+      + " accepted=" + getConnectionsAccepted()
+      + " received=" + getMessagesReceived()
+      + " sent=" + getMessagesSent()
+      + " bytesIn=" + getBytesReceived()
+      + " bytesOut=" + getBytesSent()
+      + " exceptions=" + getClientExceptions()
+      + " handler[" + handlerTime + "]";
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  void connectionAccepted()
+  {
+    connectionsAccepted.increment();
+  }
+
+  void messageReceived()
+  {
+    messagesReceived.increment();
+  }
+
+  void messageSent()
+  {
+    messagesSent.increment();
+  }
+
+  void bytesReceived(long count)
+  {
+    bytesReceived.add(count);
+  }
+
+  void bytesSent(long count)
+  {
+    bytesSent.add(count);
+  }
+
+  void clientException()
+  {
+    clientExceptions.increment();
+  }
+
+  void messageHandled(long nanos)
+  {
+    handlerTime.record(nanos);
+  }
+
+  void broadcastDone(long nanos)
+  {
+    broadcasts.increment();
+    broadcastTime.record(nanos);
+  }
+}
+// End of ServerMetrics class
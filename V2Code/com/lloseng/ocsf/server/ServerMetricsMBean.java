@@ -0,0 +1,113 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+/**
+* The <code> ServerMetricsMBean </code> interface defines the attributes
+* of the metrics of a server published through JMX. The durations are
+* given in nanoseconds.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.server.AbstractServer#registerMetrics
+*/
+public interface ServerMetricsMBean
+{
+  /**
+   * @return the number of connections accepted.
+   */
+  public long getConnectionsAccepted();
+
+  /**
+   * @return the number of clients currently connected.
+   */
+  public int getConnectedClients();
+
+  /**
+   * @return the number of messages received from the clients.
+   */
+  public long getMessagesReceived();
+
+  /**
+   * @return the number of messages sent to the clients.
+   */
+  public long getMessagesSent();
+
+  /**
+   * @return the number of bytes received from the clients.
+   */
+  public long getBytesReceived();
+
+  /**
+   * @return the number of bytes sent to the clients.
+   */
+  public long getBytesSent();
+
+  /**
+   * @return the number of exceptions raised with the clients.
+   */
+  public long getClientExceptions();
+
+  /**
+   * @return the number of messages sent to all the clients or to
+   *   a group.
+   */
+  public long getBroadcasts();
+
+  /**
+   * @return the number of messages waiting to be sent to the clients.
+   */
+  public int getOutboundQueueDepth();
+
+  /**
+   * @return the number of received messages waiting for a worker thread.
+   */
+  public int getInboundQueueDepth();
+
+  /**
+   * @return the mean time spent handling a message.
+   */
+  public double getHandlerTimeMean();
+
+  /**
+   * @return the median time spent handling a message.
+   */
+  public long getHandlerTime50thPercentile();
+
+  /**
+   * @return the 99th percentile of the time spent handling a message.
+   */
+  public long getHandlerTime99thPercentile();
+
+  /**
+   * @return the longest time spent handling a message.
+   */
+  public long getHandlerTimeMax();
+
+  /**
+   * @return the mean time spent handing a broadcast to the clients.
+   */
+  public double getBroadcastTimeMean();
+
+  /**
+   * @return the 99th percentile of the time spent handing a broadcast
+   *   to the clients.
+   */
+  public long getBroadcastTime99thPercentile();
+
+  /**
+   * @return the longest time spent handing a broadcast to the clients.
+   */
+  public long getBroadcastTimeMax();
+
+  /**
+   * Sets all the counters and histograms back to zero.
+   */
+  public void reset();
+}
+// End of ServerMetricsMBean interface
@@ -0,0 +1,139 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+import com.lloseng.ocsf.client.*;
+
+/**
+* Tests the connections running their own thread. Their thread is
+* blocked reading from the client most of the time, and the server
+* must still be able to send to the client meanwhile.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class ThreadedConnectionTest
+{
+  private AbstractServer server;
+  private AbstractClient client;
+  private final BlockingQueue received = new LinkedBlockingQueue();
+
+  @Before
+  public void setUp() throws Exception
+  {
+    server = new AbstractServer(freePort())
+    {
+      protected void handleMessageFromClient(Object msg,
+        ConnectionToClient client) {}
+    };
+    server.listen();
+
+    client = new AbstractClient("localhost", server.getPort())
+    {
+      protected void handleMessageFromServer(Object msg)
+      {
+        received.add(msg);
+      }
+    };
+    client.openConnection();
+    waitForClients(1);
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    client.closeConnection();
+    server.close();
+  }
+
+  /**
+   * A message pushed by the server reaches a client that sends
+   * nothing, while the thread of its connection is blocked reading.
+   */
+  @Test(timeout = 10000)
+  public void sendsWhileTheConnectionIsReading() throws Exception
+  {
+    final ConnectionToClient connection =
+      (ConnectionToClient)server.getClientConnections()[0];
+    Future sent = Executors.newSingleThreadExecutor().submit(
+      new Callable()
+      {
+        public Object call() throws IOException
+        {
+          connection.sendToClient("pushed");
+          server.sendToAllClients("broadcast");
+          return null;
+        }
+      });
+
+    assertEquals("pushed", received.poll(3, TimeUnit.SECONDS));
+    assertEquals("broadcast", received.poll(3, TimeUnit.SECONDS));
+    sent.get(3, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stopping the server wakes up the thread blocked accepting the
+   * connections, and listening again does not make a client of the
+   * connection used to wake it up.
+   */
+  @Test(timeout = 10000)
+  public void stopsListeningAtOnce() throws Exception
+  {
+    long start = System.currentTimeMillis();
+    server.stopListening();
+    while (server.isListening())
+    {
+      Thread.sleep(10);
+    }
+    assertTrue(System.currentTimeMillis() - start < 2000);
+
+    server.listen();
+    AbstractClient other = new AbstractClient("localhost", server.getPort())
+    {
+      protected void handleMessageFromServer(Object msg) {}
+    };
+    other.openConnection();
+    try
+    {
+      waitForClients(2);
+      Thread.sleep(200);
+      assertEquals(2, server.getNumberOfClients());
+    }
+    finally
+    {
+      other.closeConnection();
+    }
+  }
+
+  private void waitForClients(int count) throws InterruptedException
+  {
+    while (server.getNumberOfClients() < count)
+    {
+      Thread.sleep(10);
+    }
+  }
+
+  private static int freePort() throws IOException
+  {
+    ServerSocket socket = new ServerSocket(0);
+    try
+    {
+      return socket.getLocalPort();
+    }
+    finally
+    {
+      socket.close();
+    }
+  }
+}
+// End of ThreadedConnectionTest class
@@ -0,0 +1,114 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import com.lloseng.ocsf.benchmark.EchoServer;
+import com.lloseng.ocsf.client.*;
+
+/**
+* The <code> ConnectionBenchmark </code> class measures a short
+* exchange with a server: each invocation obtains a connection, sends
+* a message, waits for the reply and gives the connection up. The
+* connection is either opened and closed each time, or acquired from
+* and released to a <code>ClientPool</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ConnectionBenchmark
+{
+  // Instance variables *********************************************
+
+  /**
+   * "new" to open a connection for each exchange, or "pooled".
+   */
+  @Param({"new", "pooled"})
+  public String connection;
+
+  /**
+   * The replies received by the clients.
+   */
+  private final BlockingQueue replies = new LinkedBlockingQueue();
+
+  private EchoServer server;
+  private ClientPool pool;
+  private int port;
+
+  // Instance methods ***********************************************
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    port = Fixtures.freePort();
+    server = new EchoServer(port, 0);
+    server.listen();
+
+    pool = new ClientPool()
+    {
+      protected Object createClient(String host, int port)
+      {
+        return newClient();
+      }
+    };
+  }
+
+  @Benchmark
+  public void exchange(Blackhole blackhole) throws Exception
+  {
+    boolean pooled = connection.equals("pooled");
+    AbstractClient client;
+    if (pooled)
+      client = (AbstractClient)pool.acquire("localhost", port);
+    else
+    {
+      client = newClient();
+      client.openConnection();
+    }
+
+    client.sendToServer(Fixtures.CHAT_LINE);
+    blackhole.consume(replies.take());
+
+    if (pooled)
+      pool.release(client);
+    else
+      client.closeConnection();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    pool.close();
+    server.close();
+  }
+
+  /**
+   * Creates a client that is not connected.
+   */
+  private AbstractClient newClient()
+  {
+    AbstractClient client = new AbstractClient("localhost", port)
+    {
+      protected void handleMessageFromServer(Object msg)
+      {
+        replies.add(msg);
+      }
+    };
+    client.setTcpNoDelay(true);
+    return client;
+  }
+}
+// End of ConnectionBenchmark class
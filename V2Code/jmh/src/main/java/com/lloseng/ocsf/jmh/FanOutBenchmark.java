@@ -0,0 +1,103 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import com.lloseng.ocsf.benchmark.EchoServer;
+import com.lloseng.ocsf.client.*;
+
+/**
+* The <code> FanOutBenchmark </code> class measures
+* <code>sendToAllClients</code>. Each invocation broadcasts a message
+* and waits until every client has received it, so the time sampled
+* is the time taken to reach the last client.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FanOutBenchmark
+{
+  // Instance variables *********************************************
+
+  /**
+   * The number of clients.
+   */
+  @Param({"10", "100", "1000"})
+  public int clientCount;
+
+  /**
+   * How the server handles its connections.
+   */
+  @Param({"threads", "reactor"})
+  public String mode;
+
+  /**
+   * Released each time a client receives a message.
+   */
+  private final Semaphore received = new Semaphore(0);
+
+  private EchoServer server;
+  private AbstractClient[] clients;
+
+  // Instance methods ***********************************************
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    int port = Fixtures.freePort();
+    // The broadcasts are spread over two reactor threads
+    server = new EchoServer(port, mode.equals("threads") ? 0 : 2);
+    server.listen();
+
+    clients = new AbstractClient[clientCount];
+    for (int i=0; i<clientCount; i++)
+    {
+      clients[i] = new AbstractClient("localhost", port)
+      {
+        protected void handleMessageFromServer(Object msg)
+        {
+          received.release();
+        }
+      };
+      clients[i].setFramed(!mode.equals("threads"));
+      clients[i].openConnection();
+    }
+
+    // Wait for the server to have registered every client
+    while (server.getNumberOfClients() < clientCount)
+    {
+      Thread.sleep(10);
+    }
+  }
+
+  @Benchmark
+  public void sendToAllClients() throws Exception
+  {
+    server.sendToAllClients(Fixtures.CHAT_LINE);
+    received.acquire(clientCount);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    for (int i=0; i<clients.length; i++)
+    {
+      if (clients[i] != null)
+        clients[i].closeConnection();
+    }
+    server.close();
+  }
+}
+// End of FanOutBenchmark class
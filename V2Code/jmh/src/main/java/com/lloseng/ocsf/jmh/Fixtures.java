@@ -0,0 +1,87 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+* The <code> Fixtures </code> class holds the messages and helpers
+* shared by the JMH benchmarks.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+final class Fixtures
+{
+  // Class variables ************************************************
+
+  /**
+   * A typical chat message, as sent by the simple chat application.
+   */
+  static final String CHAT_LINE =
+    "alice> Hello everyone, is the meeting still at three o'clock?";
+
+  // Constructor ****************************************************
+
+  private Fixtures() {}
+
+  // Class methods **************************************************
+
+  /**
+   * Returns a chat message sent as a map of fields.
+   *
+   * @return the message.
+   */
+  static Map chatMessage()
+  {
+    Map chatMessage = new LinkedHashMap();
+    chatMessage.put("type", "chat");
+    chatMessage.put("from", "alice");
+    chatMessage.put("room", "general");
+    chatMessage.put("text", "Hello everyone, is the meeting still at three?");
+    chatMessage.put("time", Long.valueOf(1066838400000L));
+    return chatMessage;
+  }
+
+  /**
+   * Returns the number of reactor threads of a server mode.
+   *
+   * @param mode "threads" for one thread per connection, or "reactor".
+   * @return the number of reactor threads.
+   */
+  static int reactorThreads(String mode)
+  {
+    if (mode.equals("threads"))
+      return 0;
+    if (mode.equals("reactor"))
+      return 1;
+    throw new IllegalArgumentException("unknown mode: " + mode);
+  }
+
+  /**
+   * Returns a port on which nothing listens.
+   *
+   * @return the port number.
+   * @exception IOException if no port can be found.
+   */
+  static int freePort() throws IOException
+  {
+    ServerSocket socket = new ServerSocket(0);
+    try
+    {
+      return socket.getLocalPort();
+    }
+    finally
+    {
+      socket.close();
+    }
+  }
+}
+// End of Fixtures class
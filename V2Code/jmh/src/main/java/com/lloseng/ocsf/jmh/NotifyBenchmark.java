@@ -0,0 +1,144 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import com.lloseng.ocsf.common.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> NotifyBenchmark </code> class measures the overhead of
+* <code>ObservableServer</code>. Each invocation hands a message to
+* the server as if it had been received from a client, and the
+* server notifies its observers, or the handlers subscribed to its
+* event bus. No connection is involved. The scenarios are:
+* <ul>
+* <li> <code>observableNotify.n</code>: n observers added with
+* <code>addObserver</code>;
+* <li> <code>eventBus.n</code>: n handlers subscribed to the event bus;
+* <li> <code>filtered.mofn</code>: n observers added with a filter on
+* the class of the messages, which m of them accept.
+* </ul>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class NotifyBenchmark
+{
+  // Instance variables *********************************************
+
+  /**
+   * How the observers are registered, and how many there are.
+   */
+  @Param({"observableNotify.1", "observableNotify.10", "eventBus.1",
+    "eventBus.10", "filtered.2of20"})
+  public String scenario;
+
+  /**
+   * The blackhole of the current invocation, given the arguments
+   * received by the observers.
+   */
+  private Blackhole blackhole;
+
+  private NotifyingServer server;
+
+  // Instance methods ***********************************************
+
+  @Setup
+  public void setUp()
+  {
+    server = new NotifyingServer();
+
+    int dot = scenario.indexOf('.');
+    String registration = scenario.substring(0, dot);
+    String count = scenario.substring(dot + 1);
+
+    if (registration.equals("filtered"))
+    {
+      int of = count.indexOf("of");
+      int matchingCount = Integer.parseInt(count.substring(0, of));
+      int observerCount = Integer.parseInt(count.substring(of + 2));
+      ServerEventFilter matching =
+        ServerEventFilter.messageClass(Fixtures.CHAT_LINE.getClass());
+      ServerEventFilter other = ServerEventFilter.messageClass(Integer.class);
+      for (int i=0; i<observerCount; i++)
+      {
+        server.addObserver(newObserver(), i < matchingCount ? matching : other);
+      }
+      return;
+    }
+
+    int observerCount = Integer.parseInt(count);
+    for (int i=0; i<observerCount; i++)
+    {
+      if (registration.equals("eventBus"))
+      {
+        server.getEventBus().subscribe(new EventHandler()
+        {
+          public void handleEvent(Object event)
+          {
+            blackhole.consume(event);
+          }
+        });
+      }
+      else if (registration.equals("observableNotify"))
+        server.addObserver(newObserver());
+      else
+        throw new IllegalArgumentException("unknown scenario: " + scenario);
+    }
+  }
+
+  @Benchmark
+  public void notifyObservers(Blackhole blackhole)
+  {
+    this.blackhole = blackhole;
+    server.deliver(Fixtures.CHAT_LINE);
+  }
+
+  /**
+   * Returns an observer giving its arguments to the blackhole.
+   */
+  private Observer newObserver()
+  {
+    return new Observer()
+    {
+      public void update(Observable source, Object arg)
+      {
+        blackhole.consume(arg);
+      }
+    };
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * A server that is given the messages directly.
+   */
+  private static class NotifyingServer extends ObservableServer
+  {
+    NotifyingServer()
+    {
+      super(0);
+    }
+
+    void deliver(Object message)
+    {
+      handleMessageFromClient(message, null);
+    }
+  }
+}
+// End of NotifyBenchmark class
@@ -0,0 +1,102 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import com.lloseng.ocsf.benchmark.EchoServer;
+import com.lloseng.ocsf.client.*;
+
+/**
+* The <code> RequestReplyBenchmark </code> class measures the requests
+* of <code>ObservableSWRClient</code> to an echo server, which sends
+* each correlated request back as its reply. With a window of 0, each
+* invocation is one call to <code>sendAndWaitForReply</code>; otherwise
+* an invocation sends that many requests with <code>sendRequest</code>
+* before waiting for their replies.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestReplyBenchmark
+{
+  // Instance variables *********************************************
+
+  /**
+   * How the server handles its connections.
+   */
+  @Param({"threads", "reactor"})
+  public String mode;
+
+  /**
+   * The number of requests sent before waiting for the replies,
+   * or 0 to use <code>sendAndWaitForReply</code>.
+   */
+  @Param({"0", "16"})
+  public int window;
+
+  /**
+   * The futures of the requests of one invocation.
+   */
+  private CompletableFuture[] replies;
+
+  private EchoServer server;
+  private ObservableSWRClient client;
+
+  // Instance methods ***********************************************
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    replies = new CompletableFuture[window];
+
+    int port = Fixtures.freePort();
+    server = new EchoServer(port, Fixtures.reactorThreads(mode));
+    server.listen();
+
+    client = new ObservableSWRClient("localhost", port);
+    client.setFramed(!mode.equals("threads"));
+    client.setTcpNoDelay(true);
+    client.openConnection();
+  }
+
+  @Benchmark
+  public void request(Blackhole blackhole) throws Exception
+  {
+    if (window == 0)
+    {
+      blackhole.consume(client.sendAndWaitForReply(Fixtures.CHAT_LINE,
+        Fixtures.CHAT_LINE));
+      return;
+    }
+
+    for (int i=0; i<window; i++)
+    {
+      replies[i] = client.sendRequest(Fixtures.CHAT_LINE);
+    }
+    for (int i=0; i<window; i++)
+    {
+      blackhole.consume(replies[i].get());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    client.closeConnection();
+    server.close();
+  }
+}
+// End of RequestReplyBenchmark class
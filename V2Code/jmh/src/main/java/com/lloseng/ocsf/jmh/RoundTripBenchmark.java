@@ -0,0 +1,86 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import com.lloseng.ocsf.benchmark.EchoServer;
+import com.lloseng.ocsf.client.*;
+
+/**
+* The <code> RoundTripBenchmark </code> class measures the time taken
+* by a message sent by a client to come back from an echo server over
+* the loopback interface, with one thread per connection or with a
+* reactor thread. Each invocation is one round trip, and the times
+* are sampled, so that JMH reports the percentiles of the round-trip
+* latency.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RoundTripBenchmark
+{
+  // Instance variables *********************************************
+
+  /**
+   * How the server handles its connections.
+   */
+  @Param({"threads", "reactor"})
+  public String mode;
+
+  /**
+   * The replies received by the client.
+   */
+  private final BlockingQueue replies = new LinkedBlockingQueue();
+
+  private EchoServer server;
+  private AbstractClient client;
+
+  // Instance methods ***********************************************
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    int port = Fixtures.freePort();
+    server = new EchoServer(port, Fixtures.reactorThreads(mode));
+    server.listen();
+
+    client = new AbstractClient("localhost", port)
+    {
+      protected void handleMessageFromServer(Object msg)
+      {
+        replies.add(msg);
+      }
+    };
+    client.setFramed(!mode.equals("threads"));
+    client.setTcpNoDelay(true);
+    client.openConnection();
+  }
+
+  @Benchmark
+  public void roundTrip(Blackhole blackhole) throws Exception
+  {
+    client.sendToServer(Fixtures.CHAT_LINE);
+    blackhole.consume(replies.take());
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    client.closeConnection();
+    server.close();
+  }
+}
+// End of RoundTripBenchmark class
@@ -0,0 +1,123 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.jmh;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import com.lloseng.ocsf.common.*;
+
+/**
+* The <code> SerializationBenchmark </code> class measures the encoding
+* of a message with an object stream, as the connections do by default,
+* and the encoding and decoding of the message with each codec. The
+* scenario names the message, a string or a map, and the encoding;
+* the string codec cannot encode a map.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark
+{
+  // Instance variables *********************************************
+
+  /**
+   * The message and the encoding.
+   */
+  @Param({"string.objectStream", "string.serialized", "string.utf8String",
+    "string.compactBinary", "map.objectStream", "map.serialized",
+    "map.compactBinary"})
+  public String scenario;
+
+  private Object message;
+
+  /**
+   * The codec, or null to use an object stream.
+   */
+  private MessageCodec codec;
+
+  /**
+   * The buffer receiving the encoded message.
+   */
+  private final Buffer buffer = new Buffer();
+
+  /**
+   * The object stream, when no codec is used.
+   */
+  private ResettingObjectOutputStream output;
+
+  // Instance methods ***********************************************
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    int dot = scenario.indexOf('.');
+    String messageName = scenario.substring(0, dot);
+    String encoding = scenario.substring(dot + 1);
+
+    message = messageName.equals("map") ? (Object)Fixtures.chatMessage()
+      : Fixtures.CHAT_LINE;
+
+    if (encoding.equals("objectStream"))
+    {
+      output = new ResettingObjectOutputStream(buffer,
+        ResetPolicy.everyMessage());
+      output.flush();
+    }
+    else if (encoding.equals("serialized"))
+      codec = new SerializedCodec();
+    else if (encoding.equals("utf8String"))
+      codec = new Utf8StringCodec();
+    else if (encoding.equals("compactBinary"))
+      codec = new CompactBinaryCodec();
+    else
+      throw new IllegalArgumentException("unknown encoding: " + encoding);
+  }
+
+  /**
+   * Encodes the message, and decodes it when a codec is used; the
+   * connections decode the object streams with their own thread.
+   */
+  @Benchmark
+  public void serialize(Blackhole blackhole) throws Exception
+  {
+    buffer.reset();
+    if (codec == null)
+    {
+      output.writeMessage(message);
+      output.flush();
+      blackhole.consume(buffer.size());
+    }
+    else
+    {
+      codec.encode(message, buffer);
+      blackhole.consume(codec.decode(buffer.getBytes(), 0, buffer.size()));
+    }
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * A byte array stream whose content can be read without copy.
+   */
+  private static class Buffer extends ByteArrayOutputStream
+  {
+    byte[] getBytes()
+    {
+      return buf;
+    }
+  }
+}
+// End of SerializationBenchmark class
@@ -0,0 +1,58 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.benchmark;
+
+import java.io.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> EchoServer </code> class is the server used by the
+* JMH benchmarks and the load generator. It sends each message
+* received back to the client that sent it. The Nagle algorithm is
+* disabled, so that replies following each other closely are not
+* delayed.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+*/
+public class EchoServer extends AbstractServer
+{
+  // Constructor ****************************************************
+
+  /**
+   * Constructs a server.
+   *
+   * @param port the port on which to listen.
+   * @param reactorThreads the number of reactor threads, or 0 for
+   *   one thread per connection.
+   */
+  public EchoServer(int port, int reactorThreads)
+  {
+    super(port);
+    setReactorThreads(reactorThreads);
+    setTcpNoDelay(true);
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * Sends the message back to the client.
+   *
+   * @param msg the message received.
+   * @param client the connection to the client.
+   */
+  protected void handleMessageFromClient(Object msg, ConnectionToClient client)
+  {
+    try
+    {
+      client.sendToClient(msg);
+    }
+    catch (IOException ex) {}
+  }
+}
+// End of EchoServer class
@@ -0,0 +1,629 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.benchmark;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.common.*;
+
+/**
+* The <code> LoadGenerator </code> class puts an OCSF server under load
+* without any user interface. It opens many <code>AbstractClient</code>
+* connections, sends messages of a given size at a given total rate,
+* and may close and reopen connections continuously, as the server
+* driver of the tester cycles its server. Type<p>
+*
+* <code>java com.lloseng.ocsf.benchmark.LoadGenerator [options] [host [port]]</code><p>
+*
+* The options are:
+* <ul>
+* <li> <code>-c n</code> the number of clients (100).
+* <li> <code>-r n</code> the total number of messages sent per second,
+* or 0 to send as fast as possible (1000).
+* <li> <code>-s n</code> the size of the messages in characters (100).
+* <li> <code>-d s</code> the duration of the test in seconds (30).
+* <li> <code>-churn n</code> the number of connections closed and
+* reopened per second (0).
+* <li> <code>-i s</code> the interval between two reports in seconds (5).
+* <li> <code>-framed</code> exchanges frames, as needed with a server
+* using reactor threads.
+* <li> <code>-server n</code> starts an echo server in this process,
+* with <code>n</code> reactor threads or one thread per connection
+* if <code>n</code> is 0.
+* </ul>
+* The messages are strings holding the number of the client and the
+* time they were sent. A message received by the client that sent it
+* gives the latency of the round trip, so the server is expected to
+* send the messages back, to their sender or to all the clients as the
+* echo server of the simple chat does. The throughput, the latency
+* percentiles and the errors are reported at each interval and for
+* the whole test.<p>
+*
+* Each client runs its own reading thread, so the number of clients is
+* bounded by the number of threads the machine can run.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @author Dr Robert Lagani&egrave;re
+* @author Dr Timothy C. Lethbridge
+* @version 2.4
+* @see com.lloseng.ocsf.common.LatencyHistogram
+*/
+public class LoadGenerator
+{
+  // Class variables ************************************************
+
+  /**
+   * The prefix of the messages sent.
+   */
+  static final String MARKER = "#LG:";
+
+  // Instance variables *********************************************
+
+  private final String host;
+  private final int port;
+  private int clientCount = 100;
+  private double rate = 1000;
+  private int messageSize = 100;
+  private long duration = 30;
+  private double churn = 0;
+  private long reportInterval = 5;
+  private boolean framed = false;
+
+  /**
+   * The clients.
+   */
+  private LoadClient[] clients;
+
+  /**
+   * Indicates that the test is over.
+   */
+  private volatile boolean stopped = false;
+
+  /**
+   * The latencies of the whole test, in nanoseconds.
+   */
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  /**
+   * The latencies of the current interval, in nanoseconds.
+   */
+  private final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder reconnections = new LongAdder();
+
+  // Constructor ****************************************************
+
+  /**
+   * Constructs a load generator.
+   *
+   * @param host the host of the server.
+   * @param port the port of the server.
+   */
+  public LoadGenerator(String host, int port)
+  {
+    this.host = host;
+    this.port = port;
+  }
+
+  // Instance methods ***********************************************
+
+  /**
+   * @param count the number of clients.
+   */
+  public void setClientCount(int count)
+  {
+    clientCount = count;
+  }
+
+  /**
+   * @param rate the total number of messages sent per second,
+   *   or 0 to send as fast as possible.
+   */
+  public void setRate(double rate)
+  {
+    this.rate = rate;
+  }
+
+  /**
+   * @param size the size of the messages, in characters.
+   */
+  public void setMessageSize(int size)
+  {
+    messageSize = size;
+  }
+
+  /**
+   * @param seconds the duration of the test.
+   */
+  public void setDuration(long seconds)
+  {
+    duration = seconds;
+  }
+
+  /**
+   * @param churn the number of connections closed and reopened
+   *   per second.
+   */
+  public void setChurn(double churn)
+  {
+    this.churn = churn;
+  }
+
+  /**
+   * @param seconds the interval between two reports.
+   */
+  public void setReportInterval(long seconds)
+  {
+    reportInterval = seconds;
+  }
+
+  /**
+   * @param framed true to exchange frames with the server.
+   */
+  public void setFramed(boolean framed)
+  {
+    this.framed = framed;
+  }
+
+  /**
+   * Runs the test and prints the reports.
+   *
+   * @param out the stream on which the reports are printed.
+   * @exception InterruptedException if the thread is interrupted.
+   */
+  public void run(PrintStream out) throws InterruptedException
+  {
+    out.println("Opening " + clientCount + " connections to "
+      + host + ":" + port);
+    openClients();
+    out.println(connectedClients() + " clients connected, "
+      + errors.sum() + " errors");
+
+    int senderCount = Math.max(1, Math.min(clientCount,
+      Runtime.getRuntime().availableProcessors()));
+    Thread[] senders = new Thread[senderCount];
+    for (int i=0; i<senderCount; i++)
+    {
+      senders[i] = new Sender(i, senderCount);
+      senders[i].start();
+    }
+
+    Thread churner = null;
+    if (churn > 0)
+    {
+      churner = new Churner();
+      churner.start();
+    }
+
+    out.println(String.format("%6s %8s %10s %10s %10s %10s %10s %8s",
+      "time", "clients", "sent/s", "recv/s", "p50 us", "p99 us",
+      "p999 us", "errors"));
+
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(duration);
+    long lastSent = 0;
+    long lastReceived = 0;
+    long last = start;
+    while (System.nanoTime() < end)
+    {
+      long wait = Math.min(TimeUnit.SECONDS.toNanos(reportInterval),
+        end - System.nanoTime());
+      TimeUnit.NANOSECONDS.sleep(Math.max(wait, 0));
+
+      long now = System.nanoTime();
+      double seconds = (now - last) / 1e9;
+      long totalSent = sent.sum();
+      long totalReceived = received.sum();
+
+      out.println(String.format("%6d %8d %10.0f %10.0f %10s %10s %10s %8d",
+        TimeUnit.NANOSECONDS.toSeconds(now - start), connectedClients(),
+        (totalSent - lastSent) / seconds,
+        (totalReceived - lastReceived) / seconds,
+        micros(intervalLatency.getValueAtPercentile(50)),
+        micros(intervalLatency.getValueAtPercentile(99)),
+        micros(intervalLatency.getValueAtPercentile(99.9)),
+        errors.sum()));
+      intervalLatency.reset();
+
+      lastSent = totalSent;
+      lastReceived = totalReceived;
+      last = now;
+    }
+
+    stopped = true;
+    double seconds = (System.nanoTime() - start) / 1e9;
+    for (int i=0; i<senderCount; i++)
+    {
+      senders[i].join();
+    }
+    if (churner != null)
+      churner.join();
+    Thread.sleep(1000);  // let the last replies arrive
+
+    closeClients();
+
+    out.println();
+    out.println("Sent " + sent.sum() + " messages ("
+      + Math.round(sent.sum() / seconds) + "/s), received "
+      + received.sum() + " (" + Math.round(received.sum() / seconds)
+      + "/s)");
+    out.println("Latency us: mean " + micros(latency.getMean())
+      + ", p50 " + micros(latency.getValueAtPercentile(50))
+      + ", p99 " + micros(latency.getValueAtPercentile(99))
+      + ", p999 " + micros(latency.getValueAtPercentile(99.9))
+      + ", max " + micros(latency.getMax()));
+    out.println("Reconnections " + reconnections.sum()
+      + ", errors " + errors.sum());
+  }
+
+  /**
+   * Opens the connections, several at a time.
+   */
+  private void openClients() throws InterruptedException
+  {
+    clients = new LoadClient[clientCount];
+    ExecutorService openers = Executors.newFixedThreadPool(16);
+    for (int i=0; i<clientCount; i++)
+    {
+      final LoadClient client = new LoadClient(i);
+      clients[i] = client;
+      openers.execute(new Runnable()
+      {
+        public void run()
+        {
+          client.open();
+        }
+      });
+    }
+    openers.shutdown();
+    openers.awaitTermination(1, TimeUnit.HOURS);
+  }
+
+  /**
+   * Closes all the connections.
+   */
+  private void closeClients()
+  {
+    for (int i=0; i<clients.length; i++)
+    {
+      clients[i].close();
+    }
+  }
+
+  /**
+   * Returns the number of clients currently connected.
+   */
+  private int connectedClients()
+  {
+    int count = 0;
+    for (int i=0; i<clients.length; i++)
+    {
+      if (clients[i].isConnected())
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * Formats nanoseconds as microseconds.
+   */
+  private static String micros(double nanos)
+  {
+    return String.format("%.1f", nanos / 1000);
+  }
+
+  // Class methods **************************************************
+
+  /**
+   * Runs a test.
+   *
+   * @param args the options, then the host and the port.
+   */
+  public static void main(String[] args)
+  {
+    String host = "localhost";
+    int port = 5555;
+    int serverThreads = -1;
+    LoadGenerator generator = null;
+    List positional = new ArrayList();
+    Map options = new HashMap();
+    boolean framed = false;
+
+    try
+    {
+      for (int i=0; i<args.length; i++)
+      {
+        if (args[i].equals("-framed"))
+          framed = true;
+        else if (args[i].startsWith("-"))
+          options.put(args[i], args[++i]);
+        else
+          positional.add(args[i]);
+      }
+      if (positional.size() > 0)
+        host = (String)positional.get(0);
+      if (positional.size() > 1)
+        port = Integer.parseInt((String)positional.get(1));
+
+      generator = new LoadGenerator(host, port);
+      generator.setFramed(framed);
+      for (Iterator i = options.entrySet().iterator(); i.hasNext(); )
+      {
+        Map.Entry option = (Map.Entry)i.next();
+        String name = (String)option.getKey();
+        String value = (String)option.getValue();
+
+        if (name.equals("-c"))
+          generator.setClientCount(Integer.parseInt(value));
+        else if (name.equals("-r"))
+          generator.setRate(Double.parseDouble(value));
+        else if (name.equals("-s"))
+          generator.setMessageSize(Integer.parseInt(value));
+        else if (name.equals("-d"))
+          generator.setDuration(Long.parseLong(value));
+        else if (name.equals("-churn"))
+          generator.setChurn(Double.parseDouble(value));
+        else if (name.equals("-i"))
+          generator.setReportInterval(Long.parseLong(value));
+        else if (name.equals("-server"))
+          serverThreads = Integer.parseInt(value);
+        else
+          throw new IllegalArgumentException(name);
+      }
+    }
+    catch (RuntimeException ex)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.benchmark.LoadGenerator"
+        + " [-c clients] [-r rate] [-s size] [-d seconds] [-churn rate]"
+        + " [-i seconds] [-framed] [-server reactorThreads] [host [port]]");
+      System.exit(1);
+    }
+
+    EchoServer server = null;
+    try
+    {
+      if (serverThreads >= 0)
+      {
+        server = new EchoServer(port, serverThreads);
+        server.listen();
+      }
+      generator.run(System.out);
+    }
+    catch (Exception ex)
+    {
+      System.out.println("The test failed: " + ex);
+    }
+    finally
+    {
+      try
+      {
+        if (server != null)
+          server.close();
+      }
+      catch (IOException ex) {}
+    }
+    System.exit(0);
+  }
+
+  // Inner classes **************************************************
+
+  /**
+   * A connection of the load generator.
+   */
+  private class LoadClient extends AbstractClient
+  {
+    /**
+     * The number of the client, included in its messages.
+     */
+    private final int id;
+
+    /**
+     * The beginning of the messages of this client.
+     */
+    private final String prefix;
+
+    /**
+     * Indicates that the connection is being closed on purpose.
+     */
+    private volatile boolean closing = false;
+
+    LoadClient(int id)
+    {
+      super(host, port);
+      this.id = id;
+      this.prefix = MARKER + id + ":";
+      setFramed(framed);
+    }
+
+    /**
+     * Opens the connection, counting a failure as an error.
+     */
+    void open()
+    {
+      closing = false;
+      try
+      {
+        openConnection();
+      }
+      catch (IOException ex)
+      {
+        errors.increment();
+      }
+    }
+
+    /**
+     * Closes the connection and waits until it is closed.
+     */
+    void close()
+    {
+      closing = true;
+      try
+      {
+        closeConnection();
+      }
+      catch (IOException ex) {}
+
+      for (int i=0; i<100 && isConnected(); i++)
+      {
+        try
+        {
+          Thread.sleep(10);
+        }
+        catch (InterruptedException ex)
+        {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Sends one message, counting a failure as an error.
+     */
+    void send()
+    {
+      if (!isConnected())
+        return;
+
+      StringBuilder message = new StringBuilder(messageSize + 32);
+      message.append(prefix).append(System.nanoTime()).append(':');
+      while (message.length() < messageSize)
+      {
+        message.append('x');
+      }
+
+      try
+      {
+        sendToServer(message.toString());
+        sent.increment();
+      }
+      catch (IOException ex)
+      {
+        if (!closing)
+          errors.increment();
+      }
+    }
+
+    /**
+     * Counts a message and, if this client sent it, records its latency.
+     */
+    protected void handleMessageFromServer(Object msg)
+    {
+      long now = System.nanoTime();
+      received.increment();
+      if (!(msg instanceof String))
+        return;
+
+      String text = (String)msg;
+      int start = text.indexOf(prefix);
+      if (start < 0)
+        return;  // sent by another client
+
+      start += prefix.length();
+      int end = text.indexOf(':', start);
+      try
+      {
+        long elapsed = now - Long.parseLong(text.substring(start, end));
+        latency.record(elapsed);
+        intervalLatency.record(elapsed);
+      }
+      catch (RuntimeException ex)
+      {
+        errors.increment();
+      }
+    }
+
+    protected void connectionException(Exception exception)
+    {
+      if (!closing)
+        errors.increment();
+    }
+  }
+
+  /**
+   * A thread sending the messages of some of the clients,
+   * at its share of the total rate.
+   */
+  private class Sender extends Thread
+  {
+    private final int first;
+    private final int step;
+
+    Sender(int first, int step)
+    {
+      super("LoadGenerator sender");
+      setDaemon(true);
+      this.first = first;
+      this.step = step;
+    }
+
+    public void run()
+    {
+      double interval = rate > 0 ? 1e9 * step / rate : 0;
+      long start = System.nanoTime();
+      long count = 0;
+      int next = first;
+
+      while (!stopped)
+      {
+        if (interval > 0)
+        {
+          long due = start + (long)(count * interval);
+          long wait = due - System.nanoTime();
+          if (wait > 0)
+          {
+            LockSupport.parkNanos(wait);
+            continue;
+          }
+        }
+
+        clients[next].send();
+        count++;
+        next += step;
+        if (next >= clients.length)
+          next = first;
+      }
+    }
+  }
+
+  /**
+   * A thread closing and reopening random connections
+   * at the churn rate.
+   */
+  private class Churner extends Thread
+  {
+    Churner()
+    {
+      super("LoadGenerator churner");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      Random random = new Random();
+      long interval = (long)(1e9 / churn);
+
+      while (!stopped)
+      {
+        LockSupport.parkNanos(interval);
+        if (stopped)
+          break;
+
+        LoadClient client = clients[random.nextInt(clients.length)];
+        client.close();
+        client.open();
+        reconnections.increment();
+      }
+    }
+  }
+}
+// End of LoadGenerator class